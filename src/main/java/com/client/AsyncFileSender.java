@@ -0,0 +1,472 @@
+package com.client;
+
+import com.utils.Files.PropertiesFile.PropertiesDelta;
+import com.utils.Files.PropertiesFile.PropertiesFile;
+import com.utils.Logger.Logger;
+import com.utils.Metrics.Counter;
+import com.utils.Metrics.Metrics;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands messages off to dedicated sender threads so that callers never wait on network I/O.
+ * There is one bounded queue and sender thread per pooled connection, so messages for the same file stay in order.
+ * If spools are provided, messages are written to disk while their connection is down and drained once it is back,
+ * so a server outage never holds up the caller. When files are spread over several servers, a file whose connection
+ * is down is handed to the lane of the next server that is up instead, as long as that lane has room for it and
+ * nothing older is spooled for its own server. Deltas are kept to the server they were computed for, which is the only
+ * one holding the file they change.
+ *
+ * @author Howard Pearce
+ */
+public class AsyncFileSender {
+    /**
+     * Messages that have finished sending, successfully or not
+     */
+    private static final Counter SENDS_COMPLETED = Metrics.counter("client_sends_completed_total", "Messages that have finished sending, successfully or not");
+    /**
+     * Messages written to a spool instead of being sent
+     */
+    private static final Counter MESSAGES_SPOOLED = Metrics.counter("client_messages_spooled_total", "Messages spooled to disk while their server was unreachable");
+    /**
+     * Spooled messages delivered once their server was reachable again
+     */
+    private static final Counter MESSAGES_DRAINED = Metrics.counter("client_messages_drained_total", "Spooled messages delivered once their server was reachable again");
+    /**
+     * Messages handed to another server's lane because their own connection was down
+     */
+    private static final Counter MESSAGES_REROUTED = Metrics.counter("client_messages_rerouted_total", "Messages sent to another server while their own was unreachable");
+    /**
+     * What to do when a queue is full
+     */
+    public enum BackpressurePolicy {
+        /**
+         * Wait for space in the queue
+         */
+        BLOCK,
+        /**
+         * Fail the send immediately
+         */
+        REJECT
+    }
+
+    /**
+     * Used to send queued messages
+     */
+    private final ClientNetworkManager m_networkManager;
+    /**
+     * One queue per pooled connection
+     */
+    private final List<BlockingQueue<SendTask>> m_queues;
+    /**
+     * What to do when a queue is full
+     */
+    private final BackpressurePolicy m_policy;
+    /**
+     * One spool per pooled connection, or null to wait for the server instead of spooling
+     */
+    private final FileSpool[] m_spools;
+    /**
+     * How many bytes of spooled messages to read from disk at once while draining
+     */
+    private static final long SPOOL_BATCH_BYTES = 4 * 1024 * 1024;
+    /**
+     * How often an idle sender thread checks whether its spool can be drained, in ms
+     */
+    private static final long SPOOL_CHECK_INTERVAL = 500;
+    /**
+     * Total time messages spent between being queued and finishing sending, in ns
+     */
+    private final LongAdder m_totalSendLatency = new LongAdder();
+    /**
+     * Longest time a message spent between being queued and finishing sending, in ns
+     */
+    private final AtomicLong m_maxSendLatency = new AtomicLong();
+
+    /**
+     * Create the sender and start its threads
+     *
+     * @param networkManager used to send queued messages
+     * @param queueCapacity  how many messages each queue may hold
+     * @param policy         what to do when a queue is full
+     * @param spools         one spool per pooled connection, or null to wait for the server while it is unreachable
+     */
+    public AsyncFileSender(ClientNetworkManager networkManager, int queueCapacity, BackpressurePolicy policy, FileSpool[] spools) {
+        this.m_networkManager = networkManager;
+        this.m_policy = policy;
+        this.m_spools = spools;
+        List<BlockingQueue<SendTask>> queues = new ArrayList<>(networkManager.getConnectionCount());
+        for (int i = 0; i < networkManager.getConnectionCount(); i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        this.m_queues = List.copyOf(queues);
+        Metrics.gauge("client_send_queue_depth", "Messages waiting to be sent", this::getQueueDepth);
+        Metrics.gauge("client_send_latency_millis_mean", "Mean time from queueing a message to finishing sending it, in ms", this::getAverageSendLatencyMillis);
+        Metrics.gauge("client_send_latency_millis_max", "Longest time from queueing a message to finishing sending it, in ms", this::getMaxSendLatencyMillis);
+        for (int i = 0; i < m_queues.size(); i++) {
+            int lane = i;
+            Thread sender = new Thread(() -> runLane(lane), "sender-" + i);
+            sender.setDaemon(true);
+            sender.start();
+        }
+    }
+
+    /**
+     * Queue a file to be sent to the server
+     *
+     * @param fileToSend the file to send
+     * @param large      whether the file is large, which may send it over a connection of its own
+     * @return completes once the file has been sent, or exceptionally if it could not be
+     */
+    public CompletableFuture<Void> sendPropertiesFile(PropertiesFile fileToSend, boolean large) {
+        return enqueue(new SendTask(fileToSend, fileToSend.getDestinationName(), large, -1));
+    }
+
+    /**
+     * Queue changes to a file to be sent to a server. Changes are small, and always use the connections for small
+     * files so that they stay in order. They are never handed to another server, even while theirs is unreachable.
+     *
+     * @param delta  the changes to send
+     * @param server position of the server the changes were computed for
+     * @return completes once the changes have been sent, or exceptionally if they could not be
+     */
+    public CompletableFuture<Void> sendPropertiesDelta(PropertiesDelta delta, int server) {
+        return enqueue(new SendTask(delta, delta.getFileName(), false, server));
+    }
+
+    /**
+     * Place a task on the queue for its connection, applying the backpressure policy if it is full
+     *
+     * @param task the task to queue
+     * @return the future of the task
+     */
+    private CompletableFuture<Void> enqueue(SendTask task) {
+        BlockingQueue<SendTask> queue = m_queues.get(task.m_server < 0
+                ? m_networkManager.getConnectionIndex(task.m_fileName, task.m_large)
+                : m_networkManager.getConnectionIndex(task.m_fileName, task.m_large, task.m_server));
+        if (m_policy == BackpressurePolicy.BLOCK) {
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.m_future.completeExceptionally(e);
+            }
+        } else if (!queue.offer(task)) {
+            task.m_future.completeExceptionally(new RejectedExecutionException("Send queue is full."));
+        }
+        return task.m_future;
+    }
+
+    /**
+     * Indefinitely send tasks from a queue, spooling them while the connection is down and draining the spool once it
+     * is back. Runs on a dedicated sender thread.
+     *
+     * @param lane index of the queue, connection and spool to use
+     */
+    private void runLane(int lane) {
+        BlockingQueue<SendTask> queue = m_queues.get(lane);
+        ClientConnection connection = m_networkManager.getConnection(lane);
+        FileSpool spool = m_spools == null ? null : m_spools[lane];
+        while (true) {
+            SendTask task;
+            try {
+                if (spool == null) {
+                    task = queue.take();
+                } else if (!spool.isEmpty() && connection.isConnected()) {
+                    task = queue.poll();
+                } else {
+                    task = queue.poll(SPOOL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Logger.logInfo("Stopping sender thread '" + Thread.currentThread().getName() + "'");
+                return;
+            }
+            // an unexpected error must not end the thread, or every message queued on this lane would wait forever
+            if (task != null) {
+                try {
+                    if (spool == null) {
+                        sendWhenConnected(task, lane, connection);
+                    } else {
+                        sendOrSpool(task, lane, connection, spool);
+                    }
+                } catch (RuntimeException e) {
+                    Logger.logError("Unexpected error sending '" + task.m_fileName + "': " + e);
+                    recordLatency(task);
+                    task.m_future.completeExceptionally(e);
+                }
+            }
+            try {
+                if (spool != null && !spool.isEmpty() && connection.isConnected()) {
+                    drainSpool(connection, spool);
+                }
+            } catch (RuntimeException e) {
+                Logger.logError("Unexpected error draining spool: " + e);
+            }
+        }
+    }
+
+    /**
+     * Send a task, waiting for the connection to come back if it is down and no other server can take the task. Gives
+     * up after one failed retry.
+     *
+     * @param task       the task to send
+     * @param lane       index of the lane the task was taken from
+     * @param connection the connection responsible for the task
+     */
+    private void sendWhenConnected(SendTask task, int lane, ClientConnection connection) {
+        try {
+            if (!connection.isConnected() && reroute(task, lane)) {
+                return;
+            }
+            connection.awaitConnected();
+            try {
+                send(task.m_message, connection);
+            } catch (IOException e) {
+                if (reroute(task, lane)) {
+                    return;
+                }
+                connection.awaitConnected();
+                send(task.m_message, connection);
+            }
+            recordLatency(task);
+            task.m_future.complete(null);
+        } catch (IOException | InterruptedException e) {
+            recordLatency(task);
+            task.m_future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Send a task straight away if possible, otherwise hand it to another server if one can take it, or append it to
+     * the spool. Anything already waiting in the spool goes first so that messages for the same file stay in order.
+     *
+     * @param task       the task to send
+     * @param lane       index of the lane the task was taken from
+     * @param connection the connection responsible for the task
+     * @param spool      the spool for this connection
+     */
+    private void sendOrSpool(SendTask task, int lane, ClientConnection connection, FileSpool spool) {
+        // older messages for the same file may be waiting in the spool, and must reach the same server first
+        if (spool.isEmpty() && !connection.isConnected() && reroute(task, lane)) {
+            return;
+        }
+        try {
+            if (spool.isEmpty() && connection.isConnected()) {
+                try {
+                    send(task.m_message, connection);
+                } catch (IOException e) {
+                    if (reroute(task, lane)) {
+                        return;
+                    }
+                    Logger.logError("Failed to send '" + task.m_fileName + "'. Spooling it until the server is reachable.");
+                    spool.append(task.m_message);
+                    MESSAGES_SPOOLED.increment();
+                }
+            } else {
+                spool.append(task.m_message);
+                MESSAGES_SPOOLED.increment();
+            }
+            recordLatency(task);
+            task.m_future.complete(null);
+        } catch (IOException e) {
+            recordLatency(task);
+            task.m_future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Hand a task to the lane now responsible for it, if its own connection is down and another server can take it.
+     * Tasks kept to one server are never handed on.
+     *
+     * @param task the task
+     * @param lane index of the lane the task was taken from
+     * @return true if another lane accepted the task, which will complete it
+     */
+    private boolean reroute(SendTask task, int lane) {
+        if (task.m_server >= 0) {
+            return false;
+        }
+        int target = m_networkManager.getConnectionIndex(task.m_fileName, task.m_large);
+        if (target == lane || !m_queues.get(target).offer(task)) {
+            return false;
+        }
+        MESSAGES_REROUTED.increment();
+        Logger.logDebug(() -> "Sending '" + task.m_fileName + "' over connection " + target + " while connection " + lane + " is down.");
+        return true;
+    }
+
+    /**
+     * Send one batch of spooled messages, stopping early if the connection fails
+     *
+     * @param connection the connection to send over
+     * @param spool      the spool to drain
+     */
+    private void drainSpool(ClientConnection connection, FileSpool spool) {
+        try {
+            List<Object> messages = spool.peek(SPOOL_BATCH_BYTES);
+            int delivered = 0;
+            try {
+                for (Object message : messages) {
+                    send(message, connection);
+                    delivered++;
+                }
+            } catch (IOException e) {
+                Logger.logError("Connection lost while draining spool. " + e.getMessage());
+            }
+            spool.commit(delivered);
+            MESSAGES_DRAINED.add(delivered);
+        } catch (IOException e) {
+            Logger.logError("Failed to read from spool: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Send a single message over a connection
+     *
+     * @param message    either a PropertiesFile or a PropertiesDelta
+     * @param connection the connection to send over
+     * @throws IOException if sending fails due to network error
+     */
+    private void send(Object message, ClientConnection connection) throws IOException {
+        if (message instanceof PropertiesFile file) {
+            connection.sendPropertiesFile(file);
+        } else {
+            connection.sendPropertiesDelta((PropertiesDelta) message);
+        }
+    }
+
+    /**
+     * Record how long a task took from being queued to finishing
+     *
+     * @param task the task that finished
+     */
+    private void recordLatency(SendTask task) {
+        long latency = System.nanoTime() - task.m_enqueuedAt;
+        SENDS_COMPLETED.increment();
+        m_totalSendLatency.add(latency);
+        m_maxSendLatency.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * Get how many messages are waiting to be sent
+     *
+     * @return the combined depth of all queues
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<SendTask> queue : m_queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Get how many messages have finished sending
+     *
+     * @return number of completed sends, successful or not
+     */
+    public long getCompletedSends() {
+        return SENDS_COMPLETED.get();
+    }
+
+    /**
+     * Get how many messages were written to a spool instead of being sent
+     *
+     * @return number of spooled messages
+     */
+    public long getSpooledMessages() {
+        return MESSAGES_SPOOLED.get();
+    }
+
+    /**
+     * Get how many spooled messages were delivered once their server was reachable again
+     *
+     * @return number of drained messages
+     */
+    public long getDrainedMessages() {
+        return MESSAGES_DRAINED.get();
+    }
+
+    /**
+     * Get how many messages were handed to another server because their own was unreachable
+     *
+     * @return number of rerouted messages
+     */
+    public long getReroutedMessages() {
+        return MESSAGES_REROUTED.get();
+    }
+
+    /**
+     * Get the mean time between a message being queued and finishing sending
+     *
+     * @return mean send latency in ms
+     */
+    public double getAverageSendLatencyMillis() {
+        long sends = SENDS_COMPLETED.get();
+        return sends == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(m_totalSendLatency.sum() / sends) / 1000.0;
+    }
+
+    /**
+     * Get the longest time between a message being queued and finishing sending
+     *
+     * @return maximum send latency in ms
+     */
+    public double getMaxSendLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMicros(m_maxSendLatency.get()) / 1000.0;
+    }
+
+    /**
+     * A message waiting to be sent along with the future to complete once it has been
+     */
+    private static class SendTask {
+        /**
+         * Either a PropertiesFile or a PropertiesDelta
+         */
+        private final Serializable m_message;
+        /**
+         * Name of the file the message is about, used to pick its connection
+         */
+        private final String m_fileName;
+        /**
+         * Whether the message is for a large file, used to pick its connection
+         */
+        private final boolean m_large;
+        /**
+         * Position of the server the message must go to, or -1 to follow the hash ring
+         */
+        private final int m_server;
+        /**
+         * Completed once the message has been sent
+         */
+        private final CompletableFuture<Void> m_future = new CompletableFuture<>();
+        /**
+         * When the message was queued, in ns
+         */
+        private final long m_enqueuedAt = System.nanoTime();
+
+        /**
+         * Create a task
+         *
+         * @param message  the message to send
+         * @param fileName name of the file the message is about
+         * @param large    whether the message is for a large file
+         * @param server   position of the server the message must go to, or -1 to follow the hash ring
+         */
+        private SendTask(Serializable message, String fileName, boolean large, int server) {
+            this.m_message = message;
+            this.m_fileName = fileName;
+            this.m_large = large;
+            this.m_server = server;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.client;
+
+import com.utils.Files.PropertiesFile.PropertiesFile;
+import com.utils.Files.PropertiesFile.PropertiesParser;
+import com.utils.Logger.Logger;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pushes every properties file below a directory through the parse, filter and send steps once, without watching it.
+ * The tree is walked on a fork-join pool so that directories and batches of files are handled in parallel, and sends
+ * are queued without waiting on the network. Files are left in place.
+ *
+ * @author Howard Pearce
+ */
+public class BulkMigration {
+    /**
+     * Number of files handled by a single task
+     */
+    private static final int BATCH_SIZE = 64;
+    /**
+     * Number of files between progress messages
+     */
+    private static final long PROGRESS_INTERVAL = 10000;
+    /**
+     * Used to send the files
+     */
+    private final ClientApplication m_clientApplication;
+    /**
+     * Directory tree to migrate, with the filter and destination to use
+     */
+    private final WatchedDirectory m_root;
+    /**
+     * How many files to handle in parallel
+     */
+    private final int m_parallelism;
+    /**
+     * Size at which a file is considered large, in bytes
+     */
+    private final long m_largeFileThreshold;
+    /**
+     * Number of properties files found
+     */
+    private final AtomicLong m_found = new AtomicLong();
+    /**
+     * Number of files sent, or spooled to be sent once the server is reachable
+     */
+    private final LongAdder m_queued = new LongAdder();
+    /**
+     * Number of files left empty by the filter
+     */
+    private final LongAdder m_skipped = new LongAdder();
+    /**
+     * Number of files that could not be read or sent
+     */
+    private final LongAdder m_failed = new LongAdder();
+    /**
+     * Number of bytes read
+     */
+    private final LongAdder m_bytes = new LongAdder();
+    /**
+     * Number of sends queued that have not finished yet
+     */
+    private long m_outstanding = 0;
+
+    /**
+     * Create a migration
+     *
+     * @param clientApplication  used to send the files
+     * @param root               directory tree to migrate, with the filter and destination to use
+     * @param parallelism        how many files to handle in parallel
+     * @param largeFileThreshold size at which a file is considered large, in bytes
+     */
+    public BulkMigration(ClientApplication clientApplication, WatchedDirectory root, int parallelism, long largeFileThreshold) {
+        this.m_clientApplication = clientApplication;
+        this.m_root = root;
+        this.m_parallelism = parallelism;
+        this.m_largeFileThreshold = largeFileThreshold;
+    }
+
+    /**
+     * Migrate the whole tree and wait for every send to finish, then log a summary.
+     * Files spooled while the server was unreachable are kept on disk and delivered by the next client run using the
+     * same spool directory, so they are reported apart from the files that were sent.
+     *
+     * @return true if every file was sent or skipped, false if any failed or is still waiting in a spool
+     * @throws InterruptedException if interrupted while waiting for sends to finish
+     */
+    public boolean run() throws InterruptedException {
+        Logger.logInfo("Migrating every properties file below '" + m_root.getDirectory() + "'.");
+        long start = System.nanoTime();
+        long spooledBefore = m_clientApplication.getSpooledMessages();
+        long drainedBefore = m_clientApplication.getDrainedMessages();
+        ForkJoinPool pool = new ForkJoinPool(m_parallelism);
+        try {
+            pool.invoke(new DirectoryTask(m_root.getDirectory()));
+        } finally {
+            pool.shutdown();
+        }
+        synchronized (this) {
+            while (m_outstanding > 0) {
+                wait();
+            }
+        }
+        // messages left in the spool by an earlier run may drain too, so never report fewer than none
+        long spooled = Math.max(0, m_clientApplication.getSpooledMessages() - spooledBefore
+                - (m_clientApplication.getDrainedMessages() - drainedBefore));
+        double seconds = Math.max(1, System.nanoTime() - start) / 1_000_000_000.0;
+        Logger.logInfo(String.format("Migration finished in %.1f s. Found %d file(s): %d sent, %d spooled, %d empty after filtering, %d failed.",
+                seconds, m_found.get(), m_queued.sum() - spooled, spooled, m_skipped.sum(), m_failed.sum()));
+        if (spooled > 0) {
+            Logger.logError(spooled + " file(s) were spooled while the server was unreachable and have not been delivered. "
+                    + "Start the client with the same spool directory to deliver them.");
+        }
+        Logger.logInfo(String.format("Throughput: %.0f files/s, %.1f MB/s read.",
+                m_found.get() / seconds, m_bytes.sum() / seconds / (1024 * 1024)));
+        return m_failed.sum() == 0 && spooled == 0;
+    }
+
+    /**
+     * Read, parse, filter and queue a single file for sending
+     *
+     * @param directory the directory the file is in
+     * @param file      the file
+     */
+    private void migrateFile(String directory, Path file) {
+        long found = m_found.incrementAndGet();
+        if (found % PROGRESS_INTERVAL == 0) {
+            Logger.logInfo("Found " + found + " file(s) so far.");
+        }
+        String path = directory + "/" + file.getFileName();
+        HashMap<String, String> contents;
+        long size;
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            size = bytes.length;
+            m_bytes.add(size);
+            contents = new PropertiesParser(new String(bytes, Charset.defaultCharset())).parse();
+        } catch (IOException e) {
+            // FileNotFoundException cannot happen when parsing text that has already been read
+            Logger.logError("Failed to read '" + path + "': " + e.getMessage());
+            m_failed.increment();
+            return;
+        }
+        PropertiesFile propertiesFile = new PropertiesFile(contents, path);
+        propertiesFile.setDestination(m_root.getDestinationFor(directory));
+        m_root.getFilter().applyFilter(propertiesFile);
+        if (propertiesFile.getContents().isEmpty()) {
+            m_skipped.increment();
+            return;
+        }
+        synchronized (this) {
+            m_outstanding++;
+        }
+        m_clientApplication.sendPropertiesFileMessage(propertiesFile, size >= m_largeFileThreshold).whenComplete((result, error) -> {
+            if (error != null) {
+                Logger.logError("Failed to send '" + path + "': " + error.getMessage());
+                m_failed.increment();
+            } else {
+                m_queued.increment();
+            }
+            synchronized (this) {
+                if (--m_outstanding == 0) {
+                    notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Lists a directory, forking a task for each subdirectory and each batch of files
+     */
+    private class DirectoryTask extends RecursiveAction {
+        /**
+         * Version of the serialized form. Tasks are never serialized, but RecursiveAction is Serializable.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * String path to the directory
+         */
+        private final String m_directory;
+
+        /**
+         * Create a task for a directory
+         *
+         * @param directory String path to the directory
+         */
+        DirectoryTask(String directory) {
+            this.m_directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>(BATCH_SIZE);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(Path.of(m_directory))) {
+                for (Path entry : entries) {
+                    // links to directories are not followed, so a link back up the tree cannot make the walk endless
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        tasks.add(fork(new DirectoryTask(m_directory + "/" + entry.getFileName())));
+                    } else if (entry.getFileName().toString().endsWith(".properties")) {
+                        batch.add(entry);
+                        if (batch.size() == BATCH_SIZE) {
+                            tasks.add(fork(new FileBatchTask(m_directory, batch)));
+                            batch = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                Logger.logError("Failed to list '" + m_directory + "': " + e.getMessage());
+                m_failed.increment();
+            }
+            // handle the last partial batch here rather than forking it
+            new FileBatchTask(m_directory, batch).compute();
+            for (RecursiveAction task : tasks) {
+                task.join();
+            }
+        }
+
+        /**
+         * Start a task in the background, so listing can carry on while it runs
+         *
+         * @param task the task to start
+         * @return the started task
+         */
+        private RecursiveAction fork(RecursiveAction task) {
+            task.fork();
+            return task;
+        }
+    }
+
+    /**
+     * Migrates a batch of files from the same directory
+     */
+    private class FileBatchTask extends RecursiveAction {
+        /**
+         * Version of the serialized form. Tasks are never serialized, but RecursiveAction is Serializable.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The directory the files are in
+         */
+        private final String m_directory;
+        /**
+         * The files to migrate
+         */
+        private final List<Path> m_files;
+
+        /**
+         * Create a task for a batch of files
+         *
+         * @param directory the directory the files are in
+         * @param files     the files to migrate
+         */
+        FileBatchTask(String directory, List<Path> files) {
+            this.m_directory = directory;
+            this.m_files = files;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path file : m_files) {
+                migrateFile(m_directory, file);
+            }
+        }
+    }
+}
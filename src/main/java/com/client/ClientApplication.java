@@ -1,17 +1,21 @@
 package com.client;
 
-import com.utils.Files.PropertiesFile.BaseFilter;
+import com.utils.Files.PropertiesFile.PropertiesDelta;
 import com.utils.Files.PropertiesFile.PropertiesFile;
 import com.utils.Files.PropertiesFile.RegexFilter;
 import com.utils.Logger.Logger;
 import com.utils.Config.ConfigurationException;
 import com.utils.BaseApplication;
 
+import com.utils.Files.FileUtils;
+
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.nio.file.*;
-import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 /**
@@ -21,13 +25,17 @@ import java.util.regex.PatternSyntaxException;
  */
 public class ClientApplication extends BaseApplication {
     /**
-     * IP Address of Server
+     * Addresses of the servers files are spread over
+     */
+    private List<InetSocketAddress> m_servers = null;
+    /**
+     * How many points each server is given on the hash ring
      */
-    private String m_serverAddress = null;
+    private Integer m_virtualNodes = null;
     /**
-     * Port that Server is listening on
+     * How often to check which servers are reachable, in ms
      */
-    private Integer m_serverPort = null;
+    private Integer m_healthCheckInterval = null;
     /**
      * Manages directory changes for us
      */
@@ -36,14 +44,110 @@ public class ClientApplication extends BaseApplication {
      * Manages network communications
      */
     private ClientNetworkManager m_networkManager = null;
+    /**
+     * Sends files on dedicated threads so the watcher never waits on the network
+     */
+    private AsyncFileSender m_sender = null;
     /**
      * Regex key to filter properties on
      */
     private String m_filterPattern = null;
+    /**
+     * Directories to watch: the configured directory first, followed by any additional watches
+     */
+    private List<WatchedDirectory> m_watches = null;
+    /**
+     * Whether directories are polled for changes instead of watched through the operating system
+     */
+    private Boolean m_pollMode = null;
+    /**
+     * Shortest time between polls in poll mode, in ms
+     */
+    private Integer m_pollInterval = null;
+    /**
+     * Longest time between polls in poll mode, in ms
+     */
+    private Integer m_maxPollInterval = null;
+    /**
+     * Where to journal how far each file got, or null to not keep a journal
+     */
+    private String m_journalFile = null;
+    /**
+     * Number of journal records after which the journal is compacted
+     */
+    private Integer m_journalCompactThreshold = null;
+    /**
+     * Order pending files are read and parsed in
+     */
+    private PendingFileScheduler.Policy m_schedulingPolicy = null;
+    /**
+     * Size at which a file is considered large, in bytes
+     */
+    private Integer m_largeFileThreshold = null;
+    /**
+     * Longest a file may be held back in favour of smaller ones under the fair policy, in ms
+     */
+    private Integer m_schedulingAgeCap = null;
+    /**
+     * How many large files to read in parallel on a separate lane, or 0 to not separate them
+     */
+    private Integer m_largeFileReaders = null;
+    /**
+     * Whether the last connection is kept for large files
+     */
+    private Boolean m_largeFileConnection = null;
     /**
      * How long we should wait before re-connecting to server in ms
      */
     private Integer m_connectionDelay = null;
+    /**
+     * Longest we should wait between attempts to re-connect to server in ms
+     */
+    private Integer m_maxConnectionDelay = null;
+    /**
+     * Where to spool files while the server is unreachable, or null to wait for the server instead
+     */
+    private String m_spoolDirectory = null;
+    /**
+     * Size at which a new spool segment is started, in bytes
+     */
+    private Integer m_spoolSegmentSize = null;
+    /**
+     * How many sockets to open to the server
+     */
+    private Integer m_connections = null;
+    /**
+     * How many messages may wait to be sent on each connection
+     */
+    private Integer m_sendQueueCapacity = null;
+    /**
+     * What to do when a send queue is full
+     */
+    private AsyncFileSender.BackpressurePolicy m_sendQueuePolicy = null;
+    /**
+     * Whether modified files are watched and sent as deltas instead of being deleted after sending
+     */
+    private Boolean m_deltaMode = null;
+    /**
+     * How many files to remember the last sent contents of while in delta mode
+     */
+    private Integer m_deltaCacheSize = null;
+    /**
+     * How many files to read from disk in parallel
+     */
+    private Integer m_readers = null;
+    /**
+     * How many files to parse and filter in parallel
+     */
+    private Integer m_workers = null;
+    /**
+     * How many files may wait between two stages of the processing pipeline
+     */
+    private Integer m_pipelineQueueCapacity = null;
+    /**
+     * How long a new file must go unchanged before it is read, in ms
+     */
+    private Integer m_readinessQuietPeriod = null;
 
     /**
      * Constructor to read in service configuration
@@ -70,6 +174,13 @@ public class ClientApplication extends BaseApplication {
             clientApplication.readConfiguration();
             Logger.logInfo("Read configuration sucessfully.");
 
+            // one-shot migration of an existing tree instead of watching
+            if (args.length == 3) {
+                System.exit(clientApplication.runBulkMigration(args[2]) ? 0 : 1);
+            }
+
+            clientApplication.startMetrics();
+
             // inject resources into other classes
             clientApplication.initialize();
             Logger.logInfo("Successfully initialized Client.");
@@ -89,6 +200,8 @@ public class ClientApplication extends BaseApplication {
     public void run() {
         try {
             Logger.logInfo("Started.");
+            m_directoryManager.recoverJournal();
+            m_directoryManager.startBacklogScan();
             m_directoryManager.watchForFileChanges();
         } catch (InterruptedException e) {
             Logger.logError("Application execution interrupted: " + e.getMessage());
@@ -111,18 +224,78 @@ public class ClientApplication extends BaseApplication {
     }
 
     /**
-     * Used by ClientDirectoryManager to send propertiesFile to server
+     * Send every properties file below a directory to the server once, without watching it or deleting anything.
+     * Uses the client's filter, destination and connection settings. Always waits for space in the send queues,
+     * whatever policy is configured for them.
      *
-     * @param fileToSend file that will be sent to the server
+     * @param directory root of the tree to migrate
+     * @return true if every file was sent, false if any failed
+     * @throws ConfigurationException if the directory does not exist
      */
-    protected void sendPropertiesFileMessage(PropertiesFile fileToSend) {
+    public boolean runBulkMigration(String directory) throws ConfigurationException {
+        WatchedDirectory watch = readWatch(m_applicationName, directory);
+        WatchedDirectory root = new WatchedDirectory("bulk", watch.getDirectory(), watch.getFilter(), true, watch.getDestinationFor(watch.getDirectory()));
+        // the walk should slow down to the speed of the network, not fail files because it got ahead of it
+        m_sendQueuePolicy = AsyncFileSender.BackpressurePolicy.BLOCK;
         try {
-            m_networkManager.sendPropertiesFile(fileToSend);
+            initializeClientNetworkManager();
+            return new BulkMigration(this, root, m_workers, m_largeFileThreshold).run();
         } catch (IOException e) {
-            // do not need to shut down for single failure
-            Logger.logError("Failed to send message to server. " + e.getMessage());
-            e.printStackTrace(System.out);
+            Logger.logError("Error occurred while initializing resources: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Logger.logError("Migration interrupted: " + e.getMessage());
         }
+        return false;
+    }
+
+    /**
+     * Used by ClientDirectoryManager to send propertiesFile to server. Returns without waiting on the network.
+     *
+     * @param fileToSend file that will be sent to the server
+     * @param large      whether the file is large
+     * @return completes once the file has been sent, or exceptionally if it could not be
+     */
+    protected CompletableFuture<Void> sendPropertiesFileMessage(PropertiesFile fileToSend, boolean large) {
+        return m_sender.sendPropertiesFile(fileToSend, large);
+    }
+
+    /**
+     * Used by ClientDirectoryManager to send the changes made to a file to a server. Returns without waiting on the network.
+     *
+     * @param delta  changes that will be sent to the server
+     * @param server position of the server the changes were computed for, from getServerFor()
+     * @return completes once the changes have been sent, or exceptionally if they could not be
+     */
+    protected CompletableFuture<Void> sendPropertiesDeltaMessage(PropertiesDelta delta, int server) {
+        return m_sender.sendPropertiesDelta(delta, server);
+    }
+
+    /**
+     * Used by BulkMigration to tell files that reached the server from files left in a spool
+     *
+     * @return number of messages written to a spool instead of being sent
+     */
+    protected long getSpooledMessages() {
+        return m_sender.getSpooledMessages();
+    }
+
+    /**
+     * Used by BulkMigration to tell files that reached the server from files left in a spool
+     *
+     * @return number of spooled messages delivered once their server was reachable again
+     */
+    protected long getDrainedMessages() {
+        return m_sender.getDrainedMessages();
+    }
+
+    /**
+     * Used by ClientDirectoryManager to find which server a file currently goes to, skipping unreachable servers
+     *
+     * @param fileName name of the file on the server
+     * @return position of the server
+     */
+    protected int getServerFor(String fileName) {
+        return m_networkManager.getServer(fileName);
     }
 
     /**
@@ -131,9 +304,33 @@ public class ClientApplication extends BaseApplication {
      * @throws IOException if initialization of manager fails due to network error
      */
     public void initializeClientNetworkManager() throws IOException {
-        Socket clientSocket = ClientNetworkManager.connectToServer(m_serverAddress, m_serverPort, m_connectionDelay);
-        ObjectOutputStream outputStream = new ObjectOutputStream(clientSocket.getOutputStream());
-        m_networkManager = new ClientNetworkManager(m_serverAddress, m_serverPort, clientSocket, outputStream);
+        int count = m_servers.size() * m_connections;
+        ClientConnection[] connections = new ClientConnection[count];
+        String[] serverNames = new String[m_servers.size()];
+        FileSpool[] spools = null;
+        if (m_spoolDirectory != null) {
+            spools = new FileSpool[count];
+        }
+        for (int i = 0; i < count; i++) {
+            InetSocketAddress server = m_servers.get(i / m_connections);
+            serverNames[i / m_connections] = server.getHostString() + ":" + server.getPort();
+            connections[i] = new ClientConnection(server.getHostString(), server.getPort(), m_connectionDelay, m_maxConnectionDelay, i);
+            if (spools != null) {
+                spools[i] = new FileSpool(m_spoolDirectory + "/" + i, m_spoolSegmentSize);
+            }
+            if (spools != null || m_servers.size() > 1) {
+                // files are spooled until the server is reachable, or go to another server, so there is no need to wait for it
+                connections[i].connectInBackground();
+            } else {
+                try {
+                    connections[i].connect();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while connecting to server.");
+                }
+            }
+        }
+        m_networkManager = new ClientNetworkManager(connections, serverNames, m_virtualNodes, m_largeFileConnection, m_healthCheckInterval);
+        m_sender = new AsyncFileSender(m_networkManager, m_sendQueueCapacity, m_sendQueuePolicy, spools);
     }
 
     /**
@@ -142,11 +339,44 @@ public class ClientApplication extends BaseApplication {
      * @throws IOException if initialization fails due to filesystem error
      */
     public void initializeClientDirectoryManager() throws IOException {
-        Path directory = Paths.get(m_directory);
-        WatchService watchService = FileSystems.getDefault().newWatchService();
-        WatchKey watchKey = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
-        RegexFilter filter = new RegexFilter(m_filterPattern);
-        m_directoryManager = new ClientDirectoryManager(watchService, watchKey, this, m_directory, filter);
+        WatchService watchService;
+        if (m_pollMode) {
+            watchService = new PollingWatchService(m_pollInterval, m_maxPollInterval);
+        } else {
+            watchService = FileSystems.getDefault().newWatchService();
+        }
+        SnapshotCache snapshotCache = null;
+        if (m_deltaMode) {
+            snapshotCache = new SnapshotCache(m_deltaCacheSize);
+        }
+        FileReadinessDetector readinessDetector = new FileReadinessDetector(m_readinessQuietPeriod);
+        PendingFileScheduler scheduler = new PendingFileScheduler(m_schedulingPolicy, m_largeFileThreshold, m_schedulingAgeCap);
+        ProcessingJournal journal = null;
+        if (m_journalFile != null && m_deltaMode) {
+            Logger.logInfo("Not keeping a processing journal in delta mode, where files are never deleted.");
+        } else if (m_journalFile != null) {
+            journal = new ProcessingJournal(m_journalFile, m_journalCompactThreshold);
+        }
+        m_directoryManager = new ClientDirectoryManager(watchService, m_watches, this, snapshotCache, readinessDetector, journal, scheduler, m_readers, m_largeFileReaders, m_workers, m_pipelineQueueCapacity);
+    }
+
+    /**
+     * Parse a server address given as host:port
+     *
+     * @param server the address
+     * @return the unresolved address, resolved when connecting so a server whose name changes address is still found
+     * @throws ConfigurationException if the address is not of the form host:port
+     */
+    private InetSocketAddress parseServer(String server) throws ConfigurationException {
+        int separator = server.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new ConfigurationException("Cannot use server '" + server + "'. Must be of the form host:port.");
+        }
+        try {
+            return InetSocketAddress.createUnresolved(server.substring(0, separator), Integer.parseInt(server.substring(separator + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Cannot use server '" + server + "'. Must be of the form host:port.");
+        }
     }
 
     /**
@@ -156,9 +386,12 @@ public class ClientApplication extends BaseApplication {
      * @return A string that describes what is wrong with the arguments provided.
      */
     public static String areArgumentsValid(String[] args) {
-        if (args.length != 1) {
+        if (args.length != 1 && args.length != 3) {
             return "Invalid number of arguments provided. See readme for more info on how to run.";
         }
+        if (args.length == 3 && !args[1].equals("--bulk")) {
+            return "Unknown option '" + args[1] + "'. See readme for more info on how to run.";
+        }
         return "";
     }
 
@@ -169,21 +402,118 @@ public class ClientApplication extends BaseApplication {
      */
     public void readConfiguration() throws ConfigurationException {
         super.readConfiguration(m_configurationManager);
-        m_serverAddress = m_configurationManager.getConfigItemAsString(m_applicationName + ".serverAddress");
-        m_serverPort = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".serverPort");
+        m_servers = new ArrayList<>();
+        for (String server : m_configurationManager.getConfigItemAsString(m_applicationName + ".servers", "").split(",")) {
+            if (!server.isBlank()) {
+                m_servers.add(parseServer(server.trim()));
+            }
+        }
+        if (m_servers.isEmpty()) {
+            m_servers.add(InetSocketAddress.createUnresolved(m_configurationManager.getConfigItemAsString(m_applicationName + ".serverAddress"),
+                    m_configurationManager.getConfigItemAsInteger(m_applicationName + ".serverPort")));
+        }
+        m_virtualNodes = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".virtualNodes", 160);
+        m_healthCheckInterval = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".healthCheckInterval", 1000);
+        if (m_virtualNodes < 1 || m_healthCheckInterval < 1) {
+            throw new ConfigurationException("Config items '" + m_applicationName + ".virtualNodes' and '" + m_applicationName + ".healthCheckInterval' must be at least 1.");
+        }
         m_filterPattern = m_configurationManager.getConfigItemAsString(m_applicationName + ".filterPattern");
+        m_watches = new ArrayList<>();
+        m_watches.add(readWatch(m_applicationName, m_directory));
+        for (String name : m_configurationManager.getConfigItemAsString(m_applicationName + ".watches", "").split(",")) {
+            if (!name.isBlank()) {
+                String prefix = m_applicationName + ".watch." + name.trim();
+                m_watches.add(readWatch(prefix, m_configurationManager.getConfigItemAsString(prefix + ".directory")));
+            }
+        }
+        String watchMode = m_configurationManager.getConfigItemAsString(m_applicationName + ".watchMode", "native").trim();
+        if (!watchMode.equalsIgnoreCase("native") && !watchMode.equalsIgnoreCase("poll")) {
+            throw new ConfigurationException("Cannot use watch mode '" + watchMode + "'. Must be 'native' or 'poll'.");
+        }
+        m_pollMode = watchMode.equalsIgnoreCase("poll");
+        m_pollInterval = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".pollInterval", 500);
+        m_maxPollInterval = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".maxPollInterval", 5000);
+        if (m_pollInterval < 1) {
+            throw new ConfigurationException("Config item '" + m_applicationName + ".pollInterval' must be at least 1.");
+        }
+        m_connectionDelay = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".connectionDelay");
+        m_maxConnectionDelay = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".maxConnectionDelay", 60000);
+        m_spoolDirectory = m_configurationManager.getConfigItemAsString(m_applicationName + ".spoolDirectory", null);
+        m_spoolSegmentSize = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".spoolSegmentSize", 16 * 1024 * 1024);
+        m_connections = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".connections", 1);
+        if (m_connections < 1) {
+            throw new ConfigurationException("Config item '" + m_applicationName + ".connections' must be at least 1.");
+        }
+        m_sendQueueCapacity = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".sendQueueCapacity", 1000);
+        String sendQueuePolicy = m_configurationManager.getConfigItemAsString(m_applicationName + ".sendQueuePolicy", "block");
+        try {
+            m_sendQueuePolicy = AsyncFileSender.BackpressurePolicy.valueOf(sendQueuePolicy.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Cannot use send queue policy '" + sendQueuePolicy + "'. Must be 'block' or 'reject'.");
+        }
+        m_readers = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".readers", 2);
+        m_workers = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".workers", Runtime.getRuntime().availableProcessors());
+        m_pipelineQueueCapacity = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".pipelineQueueCapacity", 1000);
+        if (m_readers < 1 || m_workers < 1 || m_pipelineQueueCapacity < 1) {
+            throw new ConfigurationException("Config items '" + m_applicationName + ".readers', '" + m_applicationName + ".workers' and '" + m_applicationName + ".pipelineQueueCapacity' must be at least 1.");
+        }
+        m_readinessQuietPeriod = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".readinessQuietPeriod", 50);
+        String schedulingPolicy = m_configurationManager.getConfigItemAsString(m_applicationName + ".schedulingPolicy", "fifo");
+        try {
+            m_schedulingPolicy = PendingFileScheduler.Policy.valueOf(schedulingPolicy.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Cannot use scheduling policy '" + schedulingPolicy + "'. Must be 'fifo', 'smallest-first' or 'fair'.");
+        }
+        m_largeFileThreshold = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".largeFileThreshold", 1024 * 1024);
+        m_schedulingAgeCap = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".schedulingAgeCap", 5000);
+        m_largeFileReaders = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".largeFileReaders", 0);
+        m_largeFileConnection = m_configurationManager.getConfigItemAsBoolean(m_applicationName + ".largeFileConnection", false);
+        m_journalFile = m_configurationManager.getConfigItemAsString(m_applicationName + ".journalFile", null);
+        m_journalCompactThreshold = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".journalCompactThreshold", 10000);
+        m_deltaMode = m_configurationManager.getConfigItemAsBoolean(m_applicationName + ".deltaMode", false);
+        m_deltaCacheSize = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".deltaCacheSize", 1000);
+    }
+
+    /**
+     * Read in the filter, recursion and destination settings for a watched directory. Filters fall back to the
+     * client's filter pattern.
+     *
+     * @param prefix    prefix of the watch's config items
+     * @param directory the directory to watch
+     * @return the watched directory
+     * @throws ConfigurationException if the directory does not exist or a setting is invalid
+     */
+    private WatchedDirectory readWatch(String prefix, String directory) throws ConfigurationException {
+        if (!FileUtils.doesDirectoryExist(directory)) {
+            throw new ConfigurationException("Provided watch directory '" + directory + "' does not exist.");
+        }
+        String filterPattern = m_configurationManager.getConfigItemAsString(prefix + ".filterPattern", m_filterPattern);
+        RegexFilter filter;
         try {
-            Pattern renderedAsPattern = Pattern.compile(m_filterPattern);
+            filter = new RegexFilter(filterPattern);
         } catch (PatternSyntaxException e) {
-            throw new ConfigurationException("Cannot use provided Regex '" + m_filterPattern + "'. Is invalid.");
+            throw new ConfigurationException("Cannot use provided Regex '" + filterPattern + "'. Is invalid.");
         }
-        m_connectionDelay = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".connectionDelay");
+        boolean recursive = m_configurationManager.getConfigItemAsBoolean(prefix + ".recursive", false);
+        String destination = m_configurationManager.getConfigItemAsString(prefix + ".destination", null);
+        if (destination != null) {
+            destination = destination.trim().replaceAll("^/+|/+$", "");
+            if (destination.isEmpty()) {
+                destination = null;
+            } else if (Arrays.asList(destination.split("/")).contains("..")) {
+                throw new ConfigurationException("Config item '" + prefix + ".destination' must stay within the server's directory.");
+            }
+        }
+        // remove trailing separators so paths below the directory can be built by appending to it
+        return new WatchedDirectory(prefix, directory.replaceAll("(.)/+$", "$1"), filter, recursive, destination);
     }
 
     /**
      * Method to be called when closing clientApplication. Should be called abnormally exiting.
      */
     public static void shutdown(Exception e) {
+        // write out queued messages first so the stack trace follows them
+        Logger.flush();
         if (e != null) {
             e.printStackTrace(System.out);
         }
@@ -0,0 +1,350 @@
+package com.client;
+
+import com.utils.Files.PropertiesFile.PropertiesDelta;
+import com.utils.Files.PropertiesFile.PropertiesFile;
+import com.utils.Logger.Logger;
+import com.utils.Metrics.Counter;
+import com.utils.Metrics.Histogram;
+import com.utils.Metrics.Metrics;
+import com.utils.Network.FileOfferMessage;
+import com.utils.Network.FileOfferResponse;
+import com.utils.Network.PingMessage;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A single socket to the server along with the streams used to talk over it. When the socket dies it is re-established
+ * on a background thread, backing off exponentially with jitter between attempts.
+ *
+ * @author Howard Pearce
+ */
+public class ClientConnection {
+    /**
+     * How long to wait for a single connection attempt in ms
+     */
+    private static final int CONNECT_TIMEOUT = 5000;
+    /**
+     * How long to wait for the server to reply before treating the connection as dead, in ms
+     */
+    private static final int REPLY_TIMEOUT = 30000;
+    /**
+     * Time taken to offer and, if needed, send each file
+     */
+    private static final Histogram SEND_TIME = Metrics.histogram("client_send_seconds", "Time taken to send a file to the server");
+    /**
+     * Files whose body was sent
+     */
+    private static final Counter FILES_SENT = Metrics.counter("client_files_sent_total", "Files sent to the server");
+    /**
+     * Files the server already held
+     */
+    private static final Counter FILES_SKIPPED = Metrics.counter("client_files_skipped_total", "Files the server already held, so were not sent");
+    /**
+     * Deltas sent
+     */
+    private static final Counter DELTAS_SENT = Metrics.counter("client_deltas_sent_total", "Deltas sent to the server");
+    /**
+     * IP Address of the server we are communicating with
+     */
+    private final String m_serverAddress;
+    /**
+     * Port number of the server we are communicating with
+     */
+    private final Integer m_serverPort;
+    /**
+     * Delay before the first reconnection attempt in ms, doubled after each failure
+     */
+    private final Integer m_connectionDelay;
+    /**
+     * Upper bound on the delay between reconnection attempts in ms
+     */
+    private final Integer m_maxConnectionDelay;
+    /**
+     * Identifies this connection within the pool in log messages
+     */
+    private final int m_id;
+    /**
+     * Socket used for communications
+     */
+    private Socket m_socket = null;
+    /**
+     * Responsible for serializing messages and sending them over the socket
+     */
+    private ObjectOutputStream m_outputStream = null;
+    /**
+     * Responsible for deserializing replies from the server
+     */
+    private ObjectInputStream m_inputStream = null;
+    /**
+     * True while the socket is believed to be usable
+     */
+    private volatile boolean m_connected = false;
+    /**
+     * True while a background thread is trying to re-establish the socket
+     */
+    private boolean m_reconnecting = false;
+    /**
+     * When the server last answered over this connection, in ms since the epoch
+     */
+    private volatile long m_lastReply = 0;
+
+    /**
+     * Creates a ClientConnection. Does not connect until connect() or connectInBackground() is called.
+     *
+     * @param serverAddress      address of the server
+     * @param serverPort         port of the server
+     * @param connectionDelay    delay before the first reconnection attempt in ms
+     * @param maxConnectionDelay upper bound on the delay between reconnection attempts in ms
+     * @param id                 position of this connection within the pool
+     */
+    public ClientConnection(String serverAddress, Integer serverPort, Integer connectionDelay, Integer maxConnectionDelay, int id) {
+        this.m_serverAddress = serverAddress;
+        this.m_serverPort = serverPort;
+        this.m_connectionDelay = connectionDelay;
+        this.m_maxConnectionDelay = maxConnectionDelay;
+        this.m_id = id;
+    }
+
+    /**
+     * Connect to the server, waiting until it is reachable and accepts our streams
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void connect() throws InterruptedException {
+        connectInBackground();
+        awaitConnected();
+    }
+
+    /**
+     * Start connecting to the server without waiting for it to succeed
+     */
+    public synchronized void connectInBackground() {
+        if (m_connected || m_reconnecting) {
+            return;
+        }
+        m_reconnecting = true;
+        Thread reconnector = new Thread(this::reconnectWithBackoff, "reconnect-" + m_id);
+        reconnector.setDaemon(true);
+        reconnector.start();
+    }
+
+    /**
+     * Mark the socket as dead after a failure and start re-establishing it in the background
+     */
+    public synchronized void markBroken() {
+        if (m_connected) {
+            Logger.logError("Lost connection " + m_id + " to server " + m_serverAddress + ":" + m_serverPort + ".");
+            m_connected = false;
+            close();
+        }
+        connectInBackground();
+    }
+
+    /**
+     * Is the socket currently believed to be usable
+     *
+     * @return true if connected
+     */
+    public boolean isConnected() {
+        return m_connected;
+    }
+
+    /**
+     * Wait until the socket has been (re-)established
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void awaitConnected() throws InterruptedException {
+        while (!m_connected) {
+            wait();
+        }
+    }
+
+    /**
+     * Keep trying to connect until it works, doubling the delay between attempts up to the configured maximum.
+     * Each delay is randomized so that many clients do not all retry at the same moment. Runs on its own thread.
+     */
+    private void reconnectWithBackoff() {
+        int attempts = 1;
+        while (true) {
+            try {
+                openSocket();
+                return;
+            } catch (IOException e) {
+                Logger.logError("Unable to connect to server " + m_serverAddress + ":" + m_serverPort + " after " + attempts + " attempt(s). Retrying...");
+            }
+            long delay = Math.min((long) m_maxConnectionDelay, (long) m_connectionDelay << Math.min(attempts - 1, 20));
+            try {
+                Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            } catch (InterruptedException ie) {
+                synchronized (this) {
+                    m_reconnecting = false;
+                }
+                return;
+            }
+            attempts++;
+        }
+    }
+
+    /**
+     * Make a single attempt to open a socket and exchange stream headers with the server
+     *
+     * @throws IOException if the server cannot be reached or drops the socket
+     */
+    private void openSocket() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(m_serverAddress, m_serverPort), CONNECT_TIMEOUT);
+            // every offer waits on a reply, so small writes must not be held back waiting for an ACK
+            socket.setTcpNoDelay(true);
+            // a server that accepts but stops replying would otherwise hold this connection, and every send queued
+            // behind it, forever. A read that times out throws, which marks the connection broken.
+            socket.setSoTimeout(REPLY_TIMEOUT);
+            ObjectOutputStream outputStream = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            // send our stream header first so the server is not left waiting on it
+            outputStream.flush();
+            ObjectInputStream inputStream = new ObjectInputStream(socket.getInputStream());
+            synchronized (this) {
+                m_socket = socket;
+                m_outputStream = outputStream;
+                m_inputStream = inputStream;
+                m_connected = true;
+                m_reconnecting = false;
+                m_lastReply = System.currentTimeMillis();
+                notifyAll();
+            }
+            Logger.logInfo("Connection " + m_id + " established with server " + m_serverAddress + ":" + m_serverPort + ".");
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the provided propertiesFile object to the ServerApplication. The file is offered by content hash first
+     * and the body is only sent if the server does not already hold identical contents.
+     *
+     * @param fileToSend file provided by the ClientDirectoryManager
+     * @throws IOException if sending fails due to network error, in which case the connection is marked broken
+     */
+    public synchronized void sendPropertiesFile(PropertiesFile fileToSend) throws IOException {
+        checkConnected();
+        long start = System.nanoTime();
+        try {
+            m_outputStream.writeObject(new FileOfferMessage(fileToSend.getDestinationName(), fileToSend.getContentHash()));
+            m_outputStream.flush();
+            FileOfferResponse response;
+            try {
+                response = (FileOfferResponse) m_inputStream.readObject();
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Unexpected reply from server: " + e.getMessage());
+            }
+            m_lastReply = System.currentTimeMillis();
+            if (!response.isBodyRequired()) {
+                Logger.logInfo(() -> "Server already holds '" + fileToSend.getDestinationName() + "'. Skipping transfer.");
+                FILES_SKIPPED.increment();
+                SEND_TIME.recordSince(start);
+                return;
+            }
+            m_outputStream.writeObject(fileToSend);
+            // forget references to sent objects so the stream does not hold on to every file we ever sent
+            m_outputStream.reset();
+            m_outputStream.flush();
+            FILES_SENT.increment();
+            SEND_TIME.recordSince(start);
+        } catch (IOException e) {
+            markBroken();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the changes made to a previously sent file to the ServerApplication
+     *
+     * @param delta changes computed by the ClientDirectoryManager
+     * @throws IOException if sending fails due to network error, in which case the connection is marked broken
+     */
+    public synchronized void sendPropertiesDelta(PropertiesDelta delta) throws IOException {
+        checkConnected();
+        try {
+            m_outputStream.writeObject(delta);
+            m_outputStream.reset();
+            m_outputStream.flush();
+            DELTAS_SENT.increment();
+        } catch (IOException e) {
+            markBroken();
+            throw e;
+        }
+    }
+
+    /**
+     * Check the server still answers over this connection by sending a ping and waiting for the reply. A connection
+     * that looks established can be dead without a send noticing, such as when the server's host stops responding.
+     * Waits for any send in progress to finish first.
+     *
+     * @param timeout how long to wait for the reply, in ms
+     * @return true if the server answered, false if it did not, in which case the connection is marked broken
+     */
+    public synchronized boolean ping(int timeout) {
+        if (!m_connected) {
+            return false;
+        }
+        try {
+            m_socket.setSoTimeout(timeout);
+            m_outputStream.writeObject(new PingMessage());
+            m_outputStream.reset();
+            m_outputStream.flush();
+            Object reply = m_inputStream.readObject();
+            if (!(reply instanceof PingMessage)) {
+                throw new IOException("Unexpected reply to ping: " + reply.getClass().getName());
+            }
+            m_socket.setSoTimeout(REPLY_TIMEOUT);
+            m_lastReply = System.currentTimeMillis();
+            return true;
+        } catch (ClassNotFoundException | IOException e) {
+            Logger.logError("Connection " + m_id + " to server " + m_serverAddress + ":" + m_serverPort
+                    + " did not answer a ping: " + e.getMessage());
+            markBroken();
+            return false;
+        }
+    }
+
+    /**
+     * How long since the server last answered over this connection
+     *
+     * @return time since the last reply, or since the connection was established, in ms
+     */
+    public long getTimeSinceReply() {
+        return System.currentTimeMillis() - m_lastReply;
+    }
+
+    /**
+     * Fail fast rather than writing to a socket we already know is dead
+     *
+     * @throws IOException if the connection is not established
+     */
+    private void checkConnected() throws IOException {
+        if (!m_connected) {
+            throw new IOException("Connection " + m_id + " is not established.");
+        }
+    }
+
+    /**
+     * Close the socket and its streams
+     */
+    public synchronized void close() {
+        try {
+            if (m_socket != null) {
+                m_socket.close();
+            }
+        } catch (IOException e) {
+            Logger.logError("Error occurred while closing connection " + m_id + ": " + e.getMessage());
+        }
+    }
+}
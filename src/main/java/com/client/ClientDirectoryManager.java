@@ -1,112 +1,560 @@
 package com.client;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.utils.Files.FileUtils;
-import com.utils.Files.PropertiesFile.BaseFilter;
+import com.utils.Files.PropertiesFile.PropertiesDelta;
 import com.utils.Files.PropertiesFile.PropertiesFile;
 import com.utils.Files.PropertiesFile.PropertiesParser;
 import com.utils.Logger.Logger;
 
 /**
- * Responsible for managing properties files for the ClientApplication
+ * Responsible for managing properties files for the ClientApplication. Any number of directories, optionally with
+ * their subdirectories, are watched through one WatchService and share one pipeline. Files move through a pipeline of stages joined
+ * by bounded queues: watch, readiness, read, parse and filter, send, and delete.
  *
  * @author Howard Pearce
  */
 public class ClientDirectoryManager {
     /**
-     * Represents directory we plan to watch for file changes
+     * Watches every configured directory for file changes
      */
     private final WatchService m_watchService;
     /**
-     * Responds to file creation events within a directory
+     * Directory behind each registered key, and the watch it belongs to
      */
-    private final WatchKey m_watchKey;
+    private final ConcurrentHashMap<WatchKey, Registration> m_registrations = new ConcurrentHashMap<>();
     /**
      * Reference to parent to callback when we are ready to send a file
      */
     protected ClientApplication m_clientApplication;
     /**
-     * the directory we are watching
+     * Kinds of events registered for each directory
      */
-    private final String m_directoryPath;
+    private final WatchEvent.Kind<?>[] m_eventKinds;
     /**
-     * Regex key to filter on
+     * Last sent contents of each file. Only present in delta mode, where files are kept and modifications are sent as deltas
      */
-    private final BaseFilter m_filter;
+    private final SnapshotCache m_snapshotCache;
+    /**
+     * Paths currently being processed, mapped to whether they need processing again once the current pass finishes
+     */
+    private final ConcurrentHashMap<String, Boolean> m_inFlight = new ConcurrentHashMap<>();
+    /**
+     * Last modified time of each file still in the directory when it was last read, for files that were not given up
+     * on. Lets a rescan tell which files have not been processed without re-reading any of them.
+     */
+    private final ConcurrentHashMap<String, Long> m_index = new ConcurrentHashMap<>();
+    /**
+     * Records how far each file got so a restart does not resend delivered files, or null if not kept
+     */
+    private final ProcessingJournal m_journal;
+    /**
+     * Holds new files back until they have been completely written
+     */
+    private final FileReadinessDetector m_readinessDetector;
+    /**
+     * Decides the order files are read and parsed in, and which of them are large
+     */
+    private final PendingFileScheduler m_scheduler;
+    /**
+     * Loads the raw contents of files that are ready
+     */
+    private final PipelineStage<PendingFile> m_readStage;
+    /**
+     * Loads the raw contents of large files, so they never hold up small ones. Null if large files share the read stage
+     */
+    private final PipelineStage<PendingFile> m_largeReadStage;
+    /**
+     * Parses and filters files, then hands them to the sender
+     */
+    private final PipelineStage<PendingFile> m_parseStage;
+    /**
+     * Deletes files once they have been sent
+     */
+    private final PipelineStage<PendingFile> m_deleteStage;
 
     /**
-     * Construct a ClientDirectoryManager to watch a single directory for changes
+     * Construct a ClientDirectoryManager that watches several directories through a single WatchService
      *
-     * @param watchService injected WatchService for watching the configured directory
+     * @param watchService  injected WatchService all directories are registered with, native or polling
+     * @param watches       the directories to watch
+     * @param snapshotCache cache of last sent contents to enable delta mode, or null to send and delete whole files
+     * @param readinessDetector holds new files back until they have been completely written
+     * @param journal       records how far each file got, or null to not keep a journal
+     * @param scheduler     decides the order files are read and parsed in
+     * @param readers       how many files to read from disk in parallel
+     * @param largeFileReaders how many large files to read in parallel on a separate lane, or 0 to not separate them
+     * @param workers       how many files to parse and filter in parallel
+     * @param queueCapacity how many files may wait between two stages of the pipeline
+     * @throws IOException if a directory cannot be registered
      */
-    public ClientDirectoryManager(WatchService watchService, WatchKey watchKey, ClientApplication clientApplication, String directory, BaseFilter filter) {
+    public ClientDirectoryManager(WatchService watchService, List<WatchedDirectory> watches, ClientApplication clientApplication, SnapshotCache snapshotCache, FileReadinessDetector readinessDetector, ProcessingJournal journal, PendingFileScheduler scheduler, int readers, int largeFileReaders, int workers, int queueCapacity) throws IOException {
         this.m_watchService = watchService;
-        this.m_watchKey = watchKey;
         this.m_clientApplication = clientApplication;
-        this.m_directoryPath = directory;
-        this.m_filter = filter;
+        this.m_snapshotCache = snapshotCache;
+        if (snapshotCache != null) {
+            this.m_eventKinds = new WatchEvent.Kind<?>[]{StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY};
+        } else {
+            this.m_eventKinds = new WatchEvent.Kind<?>[]{StandardWatchEventKinds.ENTRY_CREATE};
+        }
+        this.m_readinessDetector = readinessDetector;
+        this.m_journal = journal;
+        this.m_scheduler = scheduler;
+        Comparator<PendingFile> order = scheduler.isFifo() ? null : scheduler.getOrder();
+        this.m_readStage = new PipelineStage<>("read", readers, queueCapacity, order, this::readFile);
+        this.m_largeReadStage = largeFileReaders > 0 ? new PipelineStage<>("read-large", largeFileReaders, queueCapacity, order, this::readFile) : null;
+        this.m_parseStage = new PipelineStage<>("parse", workers, queueCapacity, order, this::parseFile);
+        this.m_deleteStage = new PipelineStage<>("delete", 1, queueCapacity, this::deleteFile);
+        for (WatchedDirectory watch : watches) {
+            register(watch.getDirectory(), watch);
+        }
+    }
+
+    /**
+     * Register a directory with the WatchService, along with every directory below it if the watch is recursive
+     *
+     * @param directory String path to the directory
+     * @param watch     the watch the directory belongs to
+     * @return the directories that were registered
+     * @throws IOException if a directory cannot be registered
+     */
+    private List<String> register(String directory, WatchedDirectory watch) throws IOException {
+        List<String> registered = new ArrayList<>();
+        registered.add(directory);
+        WatchKey key;
+        if (m_watchService instanceof PollingWatchService poller) {
+            key = poller.register(Path.of(directory), m_eventKinds);
+        } else {
+            key = Path.of(directory).register(m_watchService, m_eventKinds);
+        }
+        m_registrations.put(key, new Registration(directory, watch));
+        if (watch.isRecursive()) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(Path.of(directory), Files::isDirectory)) {
+                for (Path child : children) {
+                    registered.addAll(register(directory + "/" + child.getFileName(), watch));
+                }
+            } catch (DirectoryIteratorException e) {
+                throw e.getCause();
+            }
+        }
+        return registered;
     }
 
     /**
-     * Indefinitely wait for create events within specified directory
+     * Indefinitely wait for create (and in delta mode, modify) events within the watched directories
      *
      * @throws InterruptedException if interrupted while waiting for next event
      */
     public void watchForFileChanges() throws InterruptedException {
         WatchKey currentKey;
         while ((currentKey = m_watchService.take()) != null) {
-            for (WatchEvent<?> event : m_watchKey.pollEvents()) {
+            Registration registration = m_registrations.get(currentKey);
+            if (registration == null) {
+                currentKey.cancel();
+                continue;
+            }
+            for (WatchEvent<?> event : currentKey.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    Logger.logError("Too many file events arrived at once and some were lost. Rescanning '" + registration.directory() + "'.");
+                    rescan(registration);
+                    continue;
+                }
                 String newFileName = event.context().toString();
-                Logger.logInfo("Observed new file: " + newFileName);
+                String path = registration.directory() + "/" + newFileName;
+                if (registration.watch().isRecursive() && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(Path.of(path))) {
+                    watchNewDirectory(path, registration.watch());
+                    continue;
+                }
+                Logger.logInfo(() -> "Observed new file: " + newFileName);
                 String extension = FileUtils.getFileExtension(newFileName);
                 if (extension != null && extension.equals("properties")) {
-                    // Give a little bit of time for the file to be released by other resources (fixes a bug where file is in use by another program)
-                    Thread.sleep(100);
-                    // create a PropertiesFile object for the new file
-                    String path = m_directoryPath + "/" + event.context().toString();
-                    handleWatchEvent(path);
+                    // wait for the file to be released by other resources without holding up other events
+                    processWhenReady(new PendingFile(path, registration.directory(), registration.watch()));
                 } else {
-                    Logger.logInfo("Ignoring file '" + newFileName + "' due to it not being a properties file.");
+                    Logger.logInfo(() -> "Ignoring file '" + newFileName + "' due to it not being a properties file.");
+                }
+
+            }
+            if (!currentKey.reset()) {
+                // the directory is gone
+                m_registrations.remove(currentKey);
+            }
+        }
+    }
+
+    /**
+     * Start watching a directory created below a recursive watch, and pick up any files that were put in it before it
+     * was registered
+     *
+     * @param directory String path to the new directory
+     * @param watch     the watch the directory belongs to
+     */
+    private void watchNewDirectory(String directory, WatchedDirectory watch) {
+        Logger.logInfo("Watching new directory '" + directory + "'.");
+        try {
+            for (String registered : register(directory, watch)) {
+                rescan(new Registration(registered, watch));
+            }
+        } catch (IOException e) {
+            Logger.logError("Failed to watch new directory '" + directory + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finish off files that an earlier run delivered but did not get to delete, without sending them again. Files
+     * that changed since they were delivered are left to be processed normally.
+     */
+    public void recoverJournal() {
+        if (m_journal == null) {
+            return;
+        }
+        int deleted = 0;
+        for (Map.Entry<String, Long> delivered : m_journal.getAcknowledged().entrySet()) {
+            String path = delivered.getKey();
+            File file = new File(path);
+            if (!file.exists()) {
+                m_journal.record(ProcessingJournal.State.DELETED, path, delivered.getValue());
+            } else if (file.lastModified() != delivered.getValue()) {
+                m_journal.forget(path);
+            } else {
+                try {
+                    FileUtils.deleteFile(path);
+                    m_journal.record(ProcessingJournal.State.DELETED, path, delivered.getValue());
+                    deleted++;
+                } catch (IOException e) {
+                    Logger.logError("Failed to delete '" + path + "': " + e.getMessage());
+                }
+            }
+        }
+        if (deleted > 0) {
+            Logger.logInfo("Deleted " + deleted + " file(s) that were delivered before the last shutdown.");
+        }
+    }
+
+    /**
+     * Start queueing every properties file that was already in the watched directories before we started watching
+     * them, oldest first, on a background thread. Returns straight away so the caller can start watching at the same
+     * time and the WatchService does not overflow while a large backlog is scanned. The watches must already be
+     * registered so that files arriving during the scan are not missed; files seen by both the scan and the watcher
+     * are only processed once.
+     */
+    public void startBacklogScan() {
+        Thread scanner = new Thread(this::queueBacklog, "backlog");
+        scanner.setDaemon(true);
+        scanner.start();
+    }
+
+    /**
+     * Queue every properties file already in the watched directories, oldest first. Files are only handed to the
+     * readiness detector, so this never waits on the pipeline.
+     */
+    private void queueBacklog() {
+        List<PendingFile> backlog = new ArrayList<>();
+        Map<String, Long> lastModified = new HashMap<>();
+        for (Registration registration : m_registrations.values()) {
+            File[] files = new File(registration.directory()).listFiles((directory, name) -> "properties".equals(FileUtils.getFileExtension(name)));
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String path = registration.directory() + "/" + file.getName();
+                lastModified.put(path, file.lastModified());
+                backlog.add(new PendingFile(path, registration.directory(), registration.watch()));
+            }
+        }
+        if (backlog.isEmpty()) {
+            return;
+        }
+        backlog.sort(Comparator.comparingLong(pending -> lastModified.get(pending.getPath())));
+        for (PendingFile pending : backlog) {
+            processWhenReady(pending);
+        }
+        Logger.logInfo("Queued " + backlog.size() + " file(s) already in watched directories.");
+    }
+
+    /**
+     * Queue every properties file in a directory that is not already in the pipeline and has not been read since it
+     * last changed. Only files that are new to the index, or were already read, need to be looked at more closely.
+     *
+     * @param registration the directory to rescan
+     */
+    private void rescan(Registration registration) {
+        String directory = registration.directory();
+        Set<String> present = new HashSet<>();
+        int queued = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Path.of(directory), "*.properties")) {
+            for (Path file : files) {
+                String path = directory + "/" + file.getFileName();
+                present.add(path);
+                if (m_inFlight.containsKey(path)) {
+                    continue;
+                }
+                Long indexed = m_index.get(path);
+                if (indexed != null && indexed == file.toFile().lastModified()) {
+                    continue;
                 }
+                processWhenReady(new PendingFile(path, directory, registration.watch()));
+                queued++;
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            Logger.logError("Failed to rescan directory '" + directory + "': " + e.getMessage());
+            return;
+        }
+        // forget files that were removed from this directory by someone else
+        m_index.keySet().removeIf(path -> path.startsWith(directory + "/") && path.indexOf('/', directory.length() + 1) < 0 && !present.contains(path));
+        Logger.logInfo("Rescan of '" + directory + "' queued " + queued + " unprocessed file(s).");
+    }
 
+    /**
+     * Queue a file for processing once it has been completely written
+     *
+     * @param pending the file to process
+     * @return completes once the file has been handed to the pipeline
+     */
+    private CompletableFuture<Void> processWhenReady(PendingFile pending) {
+        return m_readinessDetector.awaitReady(pending.getPath()).handle((readyPath, error) -> {
+            if (error != null) {
+                // usually a repeated event for a file an earlier pass already sent and deleted
+                Logger.logDebug(() -> "File '" + pending.getPath() + "' disappeared before it could be read.");
+            } else {
+                processFile(pending);
             }
-            currentKey.reset();
+            return null;
+        });
+    }
+
+    /**
+     * Feed a file into the pipeline unless it is already in it. If it is, it is processed again once the current
+     * pass finishes so that changes made in the meantime are not lost.
+     *
+     * @param pending the file to process
+     */
+    private void processFile(PendingFile pending) {
+        boolean[] claimed = {false};
+        m_inFlight.compute(pending.getPath(), (key, rerun) -> {
+            claimed[0] = rerun == null;
+            return claimed[0] ? Boolean.FALSE : Boolean.TRUE;
+        });
+        if (!claimed[0]) {
+            return;
+        }
+        m_scheduler.schedule(pending);
+        PipelineStage<PendingFile> readStage = m_largeReadStage != null && m_scheduler.isLarge(pending) ? m_largeReadStage : m_readStage;
+        if (!readStage.submit(pending)) {
+            m_inFlight.remove(pending.getPath());
+        }
+    }
+
+    /**
+     * Release a file once the pipeline is done with it, queueing it again if it changed in the meantime
+     *
+     * @param pending the file that has been fully handled
+     */
+    private void finish(PendingFile pending) {
+        String path = pending.getPath();
+        if (!m_inFlight.remove(path, Boolean.FALSE)) {
+            // go back through the readiness check rather than straight to the read stage, which may be full
+            m_inFlight.remove(path);
+            processWhenReady(pending);
+        }
+    }
+
+    /**
+     * Read stage: load the raw contents of a file
+     *
+     * @param pending the file to read
+     */
+    private void readFile(PendingFile pending) {
+        try {
+            pending.setLastModified(new File(pending.getPath()).lastModified());
+            pending.setText(new String(Files.readAllBytes(Path.of(pending.getPath())), Charset.defaultCharset()));
+            // removed again if the file is given up on, so a rescan picks it up
+            m_index.put(pending.getPath(), pending.getLastModified());
+        } catch (NoSuchFileException e) {
+            // already handled by an earlier pass
+            finish(pending);
+            return;
+        } catch (IOException e) {
+            Logger.logError("Error occurred while reading '" + pending.getPath() + "': " + e.getMessage());
+            finish(pending);
+            return;
+        }
+        journal(ProcessingJournal.State.DETECTED, pending);
+        if (!m_parseStage.submit(pending)) {
+            forget(pending);
+            finish(pending);
         }
     }
 
     /**
-     * Process the new file raised by the watch event
+     * Parse stage: parse and filter a file, then hand it to the sender
      *
-     * @param path String path to the new file raised by the watch event
+     * @param pending the file to parse, already read
      */
-    public void handleWatchEvent(String path) {
+    private void parseFile(PendingFile pending) {
+        String path = pending.getPath();
+        HashMap<String, String> fileContents;
         try {
-            // parse out the file
-            PropertiesParser parser = new PropertiesParser(FileUtils.getFile(path));
-            HashMap<String, String> fileContents = parser.parse();
-            PropertiesFile eventFile = new PropertiesFile(fileContents, path);
-            // filter out the keys that don't match regex
-            m_filter.applyFilter(eventFile);
-            // do not send or delete empty files
-            if(eventFile.getContents().size() == 0) {
-                Logger.logError("File is empty after filtering. Aborting send.");
+            fileContents = new PropertiesParser(pending.getText()).parse();
+        } catch (FileNotFoundException e) {
+            // cannot happen when parsing text that has already been read
+            forget(pending);
+            finish(pending);
+            return;
+        }
+        PropertiesFile eventFile = new PropertiesFile(fileContents, path);
+        eventFile.setDestination(pending.getWatch().getDestinationFor(pending.getDirectory()));
+        // the raw text is not needed any more, so do not hold on to it while the file waits to be sent
+        pending.setText(null);
+        // filter out the keys that don't match regex
+        pending.getWatch().getFilter().applyFilter(eventFile);
+        if (m_snapshotCache != null) {
+            sendChanges(eventFile).whenComplete((sent, error) -> {
+                if (!sent) {
+                    forget(pending);
+                }
+                finish(pending);
+            });
+            return;
+        }
+        // do not send or delete empty files
+        if(eventFile.getContents().size() == 0) {
+            Logger.logError("File is empty after filtering. Aborting send.");
+            forget(pending);
+            finish(pending);
+            return;
+        }
+        // send to server, deleting the file once it has been sent
+        journal(ProcessingJournal.State.SENT, pending);
+        m_clientApplication.sendPropertiesFileMessage(eventFile, m_scheduler.isLarge(pending)).whenComplete((result, error) -> {
+            if (error != null) {
+                Logger.logError("Failed to send '" + eventFile.getFileName() + "' to server. Keeping file. " + error.getMessage());
+                forget(pending);
+                finish(pending);
                 return;
             }
-            // send to server
-            m_clientApplication.sendPropertiesFileMessage(eventFile);
-            // delete the file
+            journal(ProcessingJournal.State.ACKED, pending);
+            if (!m_deleteStage.submit(pending)) {
+                // the journal still holds the file as delivered, so it is deleted after a restart
+                finish(pending);
+            }
+        });
+    }
+
+    /**
+     * Delete stage: remove a file that has been sent
+     *
+     * @param pending the file to delete
+     */
+    private void deleteFile(PendingFile pending) {
+        try {
             Logger.logInfo("Deleting file.");
-            FileUtils.deleteFile(path);
+            FileUtils.deleteFile(pending.getPath());
+            m_index.remove(pending.getPath());
+            journal(ProcessingJournal.State.DELETED, pending);
         } catch (IOException e) {
-            Logger.logError("Error occurred while monitoring file changes: " + e.getMessage());
-            e.printStackTrace(System.out);
+            Logger.logError("Failed to delete '" + pending.getPath() + "': " + e.getMessage());
+        }
+        finish(pending);
+    }
+
+    /**
+     * Record that a file reached a state, if a journal is kept
+     *
+     * @param state   the state the file reached
+     * @param pending the file
+     */
+    private void journal(ProcessingJournal.State state, PendingFile pending) {
+        if (m_journal != null) {
+            m_journal.record(state, pending.getPath(), pending.getLastModified());
         }
     }
+
+    /**
+     * Give up on a file that left the pipeline without being delivered. It is dropped from the index, so a rescan
+     * queues it again, and from the journal, if one is kept.
+     *
+     * @param pending the file
+     */
+    private void forget(PendingFile pending) {
+        m_index.remove(pending.getPath());
+        if (m_journal != null) {
+            m_journal.forget(pending.getPath());
+        }
+    }
+
+    /**
+     * Get the stages of the processing pipeline, in order, for monitoring
+     *
+     * @return the read, large file read if there is one, parse and delete stages
+     */
+    public List<PipelineStage<PendingFile>> getStages() {
+        if (m_largeReadStage != null) {
+            return List.of(m_readStage, m_largeReadStage, m_parseStage, m_deleteStage);
+        }
+        return List.of(m_readStage, m_parseStage, m_deleteStage);
+    }
+
+    /**
+     * Send only what changed in a file since we last sent it. Files we do not remember, or that now go to a different
+     * server, are sent in full.
+     * The file is left in place so later modifications can be picked up.
+     *
+     * @param eventFile the freshly filtered file
+     * @return completes with true once the changes have been sent or there were none, or with false if they were given
+     *         up on
+     */
+    private CompletableFuture<Boolean> sendChanges(PropertiesFile eventFile) {
+        // remember what is queued and where so the next change is computed against it
+        int server = m_clientApplication.getServerFor(eventFile.getDestinationName());
+        SnapshotCache.Snapshot previous = m_snapshotCache.swap(eventFile.getFilepath(), eventFile.getContents(), server);
+        // a server the file has moved to, or back to after an outage, does not hold what we last sent, so send it in full
+        PropertiesDelta delta = previous == null || previous.server() != server
+                ? PropertiesDelta.replacing(eventFile) : PropertiesDelta.between(previous.contents(), eventFile);
+        if (delta.isEmpty()) {
+            Logger.logInfo("No filtered keys changed. Nothing to send.");
+            return CompletableFuture.completedFuture(true);
+        }
+        return m_clientApplication.sendPropertiesDeltaMessage(delta, server).handle((result, error) -> {
+            if (error != null) {
+                // changes queued behind this one build on contents the server never got, so start again from a full copy
+                Logger.logError("Failed to send changes to '" + eventFile.getFileName() + "'. Sending it in full next time. " + error.getMessage());
+                m_snapshotCache.remove(eventFile.getFilepath());
+                return false;
+            }
+            return true;
+        });
+    }
+
+    /**
+     * A directory registered with the WatchService
+     *
+     * @param directory String path to the directory
+     * @param watch     the watch the directory belongs to
+     */
+    private record Registration(String directory, WatchedDirectory watch) {
+    }
 }
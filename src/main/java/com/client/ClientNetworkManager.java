@@ -1,82 +1,198 @@
 package com.client;
 
-import com.utils.Files.PropertiesFile.PropertiesFile;
 import com.utils.Logger.Logger;
 
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.Arrays;
 
 /**
- * Manages network communications for ClientApplication
+ * Manages network communications for ClientApplication. Files are assigned to a server by consistent hashing of their
+ * name, and spread over that server's pool of connections by a hash of their name, so every version of a given file
+ * travels over the same connection and stays in order. The last connection to each server can be kept for large files,
+ * so a big transfer never holds up small ones.
+ * <p>
+ * A health check thread watches which servers are reachable, pinging connections that have not heard from their server
+ * lately so that one which has silently died is noticed without waiting for a send. While every connection to a server
+ * is down its files go
+ * to the next server on the ring, and return to it once it is back. Changes to a file only make sense to the server
+ * holding the file, so callers sending them find the server first and keep to it.
  *
  * @author Howard Pearce
  */
 public class ClientNetworkManager {
     /**
-     * IP Address of the server we are communicating with
+     * How long a server has to answer a ping, in ms. Allows for a server briefly holding off a connection to keep it
+     * within its rate limits.
      */
-    private final String m_serverAddress;
+    private static final int PING_TIMEOUT = 5000;
     /**
-     * Port number of the server we are communicating with
+     * Connections to every server, with each server's pool next to each other in the order servers were given
      */
-    private final Integer m_serverPort;
+    private final ClientConnection[] m_connections;
     /**
-     * Socket used for communications
+     * Names of the servers, for messages
      */
-    private final Socket m_socket;
+    private final String[] m_serverNames;
     /**
-     * Responsible for serializing PropertiesFile object and sending it over socket
+     * Number of connections to each server
      */
-    private final ObjectOutputStream m_outputStream;
+    private final int m_poolSize;
+    /**
+     * Whether the last connection to each server is kept for large files
+     */
+    private final boolean m_largeFileConnection;
+    /**
+     * Assigns file names to servers
+     */
+    private final HashRing m_ring;
+    /**
+     * Whether each server was reachable at the last health check
+     */
+    private final boolean[] m_reachable;
+    /**
+     * How often to check which servers are reachable, in ms
+     */
+    private final long m_healthCheckInterval;
+
+    /**
+     * Creates a ClientNetworkManager object, starting the health check thread if there is more than one server
+     *
+     * @param connections         pool injected by clientApplication, with the connections to each server together
+     * @param serverNames         names of the servers, such as host:port, in the order their connections appear
+     * @param virtualNodes        how many points each server is given on the hash ring
+     * @param largeFileConnection whether to keep the last connection to each server for large files. Ignored for a
+     *                            single connection per server
+     * @param healthCheckInterval how often to check which servers are reachable, in ms
+     */
+    public ClientNetworkManager(ClientConnection[] connections, String[] serverNames, int virtualNodes, boolean largeFileConnection, long healthCheckInterval) {
+        this.m_connections = connections;
+        this.m_serverNames = serverNames;
+        this.m_poolSize = connections.length / serverNames.length;
+        this.m_largeFileConnection = largeFileConnection && m_poolSize > 1;
+        this.m_ring = new HashRing(serverNames, virtualNodes);
+        this.m_reachable = new boolean[serverNames.length];
+        // assume every server is reachable so that only those which are not get reported at startup
+        Arrays.fill(m_reachable, true);
+        this.m_healthCheckInterval = healthCheckInterval;
+        if (serverNames.length > 1) {
+            Thread healthCheck = new Thread(this::runHealthChecks, "health-check");
+            healthCheck.setDaemon(true);
+            healthCheck.start();
+        }
+    }
+
+    /**
+     * Get a connection from the pool
+     *
+     * @param index position of the connection within the pool
+     * @return the pooled connection
+     */
+    public ClientConnection getConnection(int index) {
+        return m_connections[index];
+    }
 
     /**
-     * Creates a ClientNetworkManager object
+     * Find the server currently responsible for a file. Skips servers that cannot currently be reached, unless none can.
      *
-     * @param serverAddress address injected by clientApplication
-     * @param serverPort    port injected by clientApplication
-     * @param socket        socket injected by clientApplication
-     * @param outputStream  outputStream injected by clientApplication
-     */
-    public ClientNetworkManager(String serverAddress, Integer serverPort, Socket socket, ObjectOutputStream outputStream) {
-        this.m_serverAddress = serverAddress;
-        this.m_serverPort = serverPort;
-        this.m_socket = socket;
-        this.m_outputStream = outputStream;
+     * @param fileName name of the file without its path
+     * @return position of the server
+     */
+    public int getServer(String fileName) {
+        return m_serverNames.length == 1 ? 0 : m_ring.getServer(fileName, this::isServerUp);
     }
 
     /**
-     * Sends the provided propertiesFile object to the ServerApplication
+     * Find the position in the pool of the connection responsible for a file
      *
-     * @param fileToSend file provided by the ClientDirectoryManager
-     * @throws IOException if sending fails due to network error
+     * @param fileName name of the file without its path
+     * @param large    whether the file is large
+     * @return index of the connection that all messages for this file and size are sent over
      */
-    protected void sendPropertiesFile(PropertiesFile fileToSend) throws IOException {
-        m_outputStream.writeObject(fileToSend);
+    public int getConnectionIndex(String fileName, boolean large) {
+        return getConnectionIndex(fileName, large, getServer(fileName));
     }
 
     /**
-     * Utility method to attempt to connect to server, will retry if no server is found.
+     * Find the position in the pool of the connection for a file on a given server, whether or not it is reachable
      *
-     * @param serverAddress the IP address of the server
-     * @param serverPort    the port that the server is listening on
-     * @return A new socket with a connection to the server
+     * @param fileName name of the file without its path
+     * @param large    whether the file is large
+     * @param server   position of the server
+     * @return index of the connection to that server that all messages for this file and size are sent over
      */
-    public static Socket connectToServer(String serverAddress, Integer serverPort, Integer delay) {
-        int attempts = 1;
+    public int getConnectionIndex(String fileName, boolean large, int server) {
+        int first = server * m_poolSize;
+        if (!m_largeFileConnection) {
+            return first + Math.floorMod(fileName.hashCode(), m_poolSize);
+        } else if (large) {
+            return first + m_poolSize - 1;
+        }
+        return first + Math.floorMod(fileName.hashCode(), m_poolSize - 1);
+    }
+
+    /**
+     * Get the size of the connection pool
+     *
+     * @return number of pooled connections, across all servers
+     */
+    public int getConnectionCount() {
+        return m_connections.length;
+    }
+
+    /**
+     * Can a server currently be reached. Looks at the connections themselves rather than the last health check, so a
+     * failure is acted on as soon as a send notices it.
+     *
+     * @param server position of the server
+     * @return true if at least one connection to it is established
+     */
+    private boolean isServerUp(int server) {
+        for (int i = server * m_poolSize; i < (server + 1) * m_poolSize; i++) {
+            if (m_connections[i].isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indefinitely check which servers are reachable, pinging established connections that have been quiet for a whole
+     * interval and dropping a server's other quiet connections once one fails to answer, making sure a connection that is down is always being re-established and logging when a server goes
+     * down or comes back. Runs on its own thread.
+     */
+    private void runHealthChecks() {
         while (true) {
+            // sleep first so that connections opened at startup have a chance to be established
             try {
-                // attempt to connect to the server
-                return new Socket(serverAddress, serverPort);
-            } catch (IOException ie) {
-                // log that the attempt failed and try again!
-                Logger.logError("Unable to connect to server after " + attempts + " attempt(s). Retrying...");
-                try {
-                    Thread.sleep(delay);
-                } catch (InterruptedException e) {
-                    // do nothing
+                Thread.sleep(m_healthCheckInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (int server = 0; server < m_serverNames.length; server++) {
+                boolean answered = true;
+                for (int i = server * m_poolSize; i < (server + 1) * m_poolSize; i++) {
+                    ClientConnection connection = m_connections[i];
+                    if (!connection.isConnected()) {
+                        connection.connectInBackground();
+                    } else if (connection.getTimeSinceReply() < m_healthCheckInterval) {
+                        continue;
+                    } else if (answered) {
+                        // a connection that fails marks itself broken and starts reconnecting
+                        answered = connection.ping(PING_TIMEOUT);
+                    } else {
+                        // the server just failed to answer on another connection, so do not wait out the timeout on
+                        // each of the rest in turn
+                        connection.markBroken();
+                    }
+                }
+                boolean reachable = isServerUp(server);
+                if (reachable != m_reachable[server]) {
+                    m_reachable[server] = reachable;
+                    if (reachable) {
+                        Logger.logInfo("Server " + m_serverNames[server] + " is reachable. Sending its files to it.");
+                    } else {
+                        Logger.logError("Server " + m_serverNames[server] + " is unreachable. Sending its files to the next server.");
+                    }
                 }
-                attempts++;
             }
         }
     }
@@ -0,0 +1,129 @@
+package com.client;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a newly observed file has been completely written and can be read. A file is ready once its size and
+ * modification time have stopped changing for a quiet period and no other program holds a lock on it. Files that are
+ * still being written are checked again on a timer rather than holding up other files.
+ *
+ * @author Howard Pearce
+ */
+public class FileReadinessDetector {
+    /**
+     * How long a file must go unchanged before it is considered complete, in ms
+     */
+    private final long m_quietPeriod;
+    /**
+     * Runs the checks. A single thread is enough since each check only stats and briefly opens a file
+     */
+    private final ScheduledExecutorService m_scheduler;
+    /**
+     * Completes the futures of files that are ready or gone, so that whatever waits on them runs here and never holds
+     * up the checks or their timers
+     */
+    private final ExecutorService m_handOff;
+    /**
+     * Files currently being checked, so repeated events for the same file share one check
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<String>> m_pending = new ConcurrentHashMap<>();
+
+    /**
+     * Create a detector
+     *
+     * @param quietPeriod how long a file must go unchanged before it is considered complete, in ms
+     */
+    public FileReadinessDetector(long quietPeriod) {
+        this.m_quietPeriod = quietPeriod;
+        this.m_scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "readiness");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.m_handOff = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "readiness-handoff");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start checking a file without waiting for it to become ready
+     *
+     * @param path String path to the file
+     * @return completes with the path once the file is ready, or exceptionally if it disappears. Completed on a
+     *         hand-off thread, so actions that depend on it may block without holding up other checks.
+     */
+    public CompletableFuture<String> awaitReady(String path) {
+        return m_pending.computeIfAbsent(path, key -> {
+            CompletableFuture<String> ready = new CompletableFuture<>();
+            m_scheduler.execute(() -> check(path, ready, -1, -1));
+            return ready;
+        });
+    }
+
+    /**
+     * Check a file once, completing its future if it is ready or scheduling another check if it is not
+     *
+     * @param path         String path to the file
+     * @param ready        completed once the file is ready
+     * @param lastSize     size seen by the previous check, or -1 if this is the first
+     * @param lastModified modification time seen by the previous check, or -1 if this is the first
+     */
+    private void check(String path, CompletableFuture<String> ready, long lastSize, long lastModified) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(Path.of(path), BasicFileAttributes.class);
+        } catch (IOException e) {
+            m_pending.remove(path, ready);
+            m_handOff.execute(() -> ready.completeExceptionally(e));
+            return;
+        }
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        // a file moved into place after being written elsewhere is already old enough on the first check
+        boolean unchanged = lastModified == -1 ? System.currentTimeMillis() - modified >= m_quietPeriod : size == lastSize && modified == lastModified;
+        if (unchanged && !isLockedByAnotherProgram(path)) {
+            m_pending.remove(path, ready);
+            m_handOff.execute(() -> ready.complete(path));
+        } else {
+            m_scheduler.schedule(() -> check(path, ready, size, modified), m_quietPeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Check if another program still has the file locked or open exclusively
+     *
+     * @param path String path to the file
+     * @return true if the file cannot be locked for reading yet
+     */
+    private boolean isLockedByAnotherProgram(String path) {
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, true);
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (NoSuchFileException e) {
+            // gone already; the next check will notice
+            return true;
+        } catch (IOException | OverlappingFileLockException e) {
+            return true;
+        }
+    }
+}
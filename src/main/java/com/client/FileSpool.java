@@ -0,0 +1,275 @@
+package com.client;
+
+import com.utils.Files.FileUtils;
+import com.utils.Logger.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Append-only on-disk queue of messages that could not be sent while the server was unreachable.
+ * Messages are appended to numbered segment files, and a small index file records how far the spool has been drained
+ * so that a restarted client picks up where it left off. Only the segment being written is held open, so memory use
+ * does not grow with the size of the spool.
+ * <p>
+ * Not thread safe: each spool belongs to a single sender thread.
+ *
+ * @author Howard Pearce
+ */
+public class FileSpool {
+    /**
+     * Name of the file recording the drain position
+     */
+    private static final String INDEX_FILE = "spool.index";
+    /**
+     * Extension used by segment files
+     */
+    private static final String SEGMENT_EXTENSION = ".seg";
+    /**
+     * Size of the buffer used when reading segments back
+     */
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    /**
+     * Directory holding the segments and index
+     */
+    private final Path m_directory;
+    /**
+     * Size at which a new segment is started, in bytes
+     */
+    private final long m_segmentSize;
+    /**
+     * Numbers of all segments on disk, oldest first
+     */
+    private final TreeSet<Long> m_segments = new TreeSet<>();
+    /**
+     * Segment currently being appended to
+     */
+    private long m_writeSegment;
+    /**
+     * Length of the segment currently being appended to
+     */
+    private long m_writeOffset;
+    /**
+     * Open stream to the segment currently being appended to
+     */
+    private DataOutputStream m_writer = null;
+    /**
+     * Segment currently being drained
+     */
+    private long m_readSegment;
+    /**
+     * Position of the next undrained record within the segment being drained
+     */
+    private long m_readOffset;
+    /**
+     * Lengths of the records returned by the last call to peek(), so commit() can advance past them
+     */
+    private final List<Integer> m_peekedLengths = new ArrayList<>();
+
+    /**
+     * Open a spool, recovering any segments and drain position left by a previous run
+     *
+     * @param directory   directory holding the segments and index, created if missing
+     * @param segmentSize size at which a new segment is started, in bytes
+     * @throws IOException if the directory or its index cannot be read
+     */
+    public FileSpool(String directory, long segmentSize) throws IOException {
+        this.m_directory = Path.of(directory);
+        this.m_segmentSize = segmentSize;
+        Files.createDirectories(m_directory);
+        File[] segmentFiles = m_directory.toFile().listFiles((dir, name) -> name.endsWith(SEGMENT_EXTENSION));
+        if (segmentFiles != null) {
+            for (File segment : segmentFiles) {
+                m_segments.add(Long.parseLong(segment.getName().substring(0, segment.getName().length() - SEGMENT_EXTENSION.length())));
+            }
+        }
+        if (m_segments.isEmpty()) {
+            m_segments.add(0L);
+        }
+        m_writeSegment = m_segments.last();
+        m_writeOffset = getSegmentPath(m_writeSegment).toFile().length();
+        m_readSegment = m_segments.first();
+        m_readOffset = 0;
+        Path index = m_directory.resolve(INDEX_FILE);
+        if (Files.exists(index)) {
+            String[] position = Files.readString(index).trim().split(" ");
+            if (m_segments.contains(Long.parseLong(position[0]))) {
+                m_readSegment = Long.parseLong(position[0]);
+                m_readOffset = Long.parseLong(position[1]);
+            }
+        }
+        if (!isEmpty()) {
+            Logger.logInfo("Recovered spool in '" + directory + "' with undelivered messages.");
+        }
+    }
+
+    /**
+     * Append a message to the end of the spool
+     *
+     * @param message the message to store
+     * @throws IOException if the message cannot be written
+     */
+    public void append(Serializable message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(bytes)) {
+            objectStream.writeObject(message);
+        }
+        if (m_writeOffset > 0 && m_writeOffset + bytes.size() > m_segmentSize) {
+            rollSegment();
+        }
+        if (m_writer == null) {
+            m_writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getSegmentPath(m_writeSegment).toFile(), true)));
+        }
+        m_writer.writeInt(bytes.size());
+        bytes.writeTo(m_writer);
+        m_writer.flush();
+        m_writeOffset += Integer.BYTES + bytes.size();
+    }
+
+    /**
+     * Is there anything left to drain
+     *
+     * @return true if every appended message has been drained
+     */
+    public boolean isEmpty() {
+        return m_readSegment == m_writeSegment && m_readOffset >= m_writeOffset;
+    }
+
+    /**
+     * Read the next messages in the order they were appended, without removing them.
+     * Call commit() with the number of messages that were delivered to remove them. Reads are large and sequential so
+     * a full spool can be drained at network speed, and bounded by size so that a spool of large files does not all
+     * end up on the heap at once.
+     *
+     * @param maximumBytes the most bytes of records to read. At least one record is read, however large.
+     * @return messages from the head of the spool
+     * @throws IOException if the segment cannot be read
+     */
+    public List<Object> peek(long maximumBytes) throws IOException {
+        List<Object> messages = new ArrayList<>();
+        m_peekedLengths.clear();
+        skipDrainedSegments();
+        long end = m_readSegment == m_writeSegment ? m_writeOffset : getSegmentPath(m_readSegment).toFile().length();
+        try (FileInputStream file = new FileInputStream(getSegmentPath(m_readSegment).toFile())) {
+            file.getChannel().position(m_readOffset);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(file, READ_BUFFER_SIZE));
+            long offset = m_readOffset;
+            long read = 0;
+            while ((messages.isEmpty() || read < maximumBytes) && offset < end) {
+                int length = input.readInt();
+                if (length < 0 || length > end - offset - Integer.BYTES) {
+                    // the length itself is damaged, so nothing after it can be found
+                    if (!messages.isEmpty()) {
+                        return messages;
+                    }
+                    discardRestOfSegment("Record length " + length + " at offset " + offset + " runs past the end of spool segment " + m_readSegment);
+                    return messages;
+                }
+                byte[] record = new byte[length];
+                input.readFully(record);
+                try (ObjectInputStream objectStream = new ObjectInputStream(new ByteArrayInputStream(record))) {
+                    messages.add(objectStream.readObject());
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unreadable record in spool: " + e.getMessage());
+                }
+                offset += Integer.BYTES + record.length;
+                read += Integer.BYTES + record.length;
+                m_peekedLengths.add(Integer.BYTES + record.length);
+            }
+        } catch (EOFException e) {
+            if (!messages.isEmpty()) {
+                // hand back what was read intact; the torn record is dealt with on the next call
+                return messages;
+            }
+            // a record torn by a crash while it was being appended. Nothing after it in this segment can be trusted.
+            discardRestOfSegment("Incomplete record at the end of spool segment " + m_readSegment);
+        }
+        return messages;
+    }
+
+    /**
+     * Give up on the rest of the segment being drained after finding a damaged record, and start appending to a new
+     * segment if it was the one being written
+     *
+     * @param reason what was wrong with the record, for the log
+     * @throws IOException if the segment being written cannot be closed
+     */
+    private void discardRestOfSegment(String reason) throws IOException {
+        Logger.logError(reason + ". Discarding the rest of the segment.");
+        if (m_readSegment == m_writeSegment) {
+            rollSegment();
+        }
+        m_readOffset = getSegmentPath(m_readSegment).toFile().length();
+    }
+
+    /**
+     * Remove messages from the head of the spool once they have been delivered
+     *
+     * @param delivered how many of the messages returned by the last peek() were delivered
+     * @throws IOException if the drain position cannot be saved
+     */
+    public void commit(int delivered) throws IOException {
+        for (int i = 0; i < delivered; i++) {
+            m_readOffset += m_peekedLengths.get(i);
+        }
+        m_peekedLengths.clear();
+        skipDrainedSegments();
+        FileUtils.replaceFile(m_directory.resolve(INDEX_FILE).toString(), m_readSegment + " " + m_readOffset);
+    }
+
+    /**
+     * Delete segments that have been fully drained and move on to the next one
+     *
+     * @throws IOException if a drained segment cannot be deleted
+     */
+    private void skipDrainedSegments() throws IOException {
+        while (m_readSegment != m_writeSegment && m_readOffset >= getSegmentPath(m_readSegment).toFile().length()) {
+            Files.deleteIfExists(getSegmentPath(m_readSegment));
+            m_segments.remove(m_readSegment);
+            m_readSegment = m_segments.first();
+            m_readOffset = 0;
+        }
+    }
+
+    /**
+     * Close the current segment and start appending to a new one
+     *
+     * @throws IOException if the current segment cannot be closed
+     */
+    private void rollSegment() throws IOException {
+        if (m_writer != null) {
+            m_writer.close();
+            m_writer = null;
+        }
+        m_writeSegment++;
+        m_writeOffset = 0;
+        m_segments.add(m_writeSegment);
+    }
+
+    /**
+     * Get the location of a segment file
+     *
+     * @param segment the segment number
+     * @return path of the segment file
+     */
+    private Path getSegmentPath(long segment) {
+        return m_directory.resolve(String.format("%020d", segment) + SEGMENT_EXTENSION);
+    }
+}
@@ -0,0 +1,114 @@
+package com.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Assigns file names to servers by consistent hashing. Every server is placed at a number of points on a ring of
+ * 64 bit hashes, and a name belongs to the server at the first point at or after its own hash. Adding a server only
+ * takes over the names that now fall just before its points, roughly an equal share from every other server, and
+ * removing one hands its names to whichever servers follow its points. While a server is down its names go to the
+ * next server on the ring that is up, and come back to it once it recovers.
+ * <p>
+ * Points are kept in a sorted array alongside the server owning each one, so a lookup is a single binary search.
+ *
+ * @author Howard Pearce
+ */
+public class HashRing {
+    /**
+     * Hash of every point on the ring, in ascending order
+     */
+    private final long[] m_points;
+    /**
+     * Server owning each point, by position in the list the ring was built from
+     */
+    private final int[] m_owners;
+    /**
+     * Number of servers on the ring
+     */
+    private final int m_servers;
+
+    /**
+     * Build a ring
+     *
+     * @param servers      names of the servers, such as host:port, which decide where their points fall
+     * @param virtualNodes how many points to give each server. More points spread names more evenly
+     */
+    public HashRing(String[] servers, int virtualNodes) {
+        int points = servers.length * virtualNodes;
+        long[] hashes = new long[points];
+        for (int server = 0; server < servers.length; server++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                hashes[server * virtualNodes + node] = hash(servers[server] + "#" + node);
+            }
+        }
+        // sort the points by hash and carry their owners along with them
+        Integer[] order = new Integer[points];
+        for (int i = 0; i < points; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        this.m_points = new long[points];
+        this.m_owners = new int[points];
+        for (int i = 0; i < points; i++) {
+            m_points[i] = hashes[order[i]];
+            m_owners[i] = order[i] / virtualNodes;
+        }
+        this.m_servers = servers.length;
+    }
+
+    /**
+     * Find the server a name belongs to
+     *
+     * @param name the name
+     * @param isUp whether a server, by position, can currently take names
+     * @return the first server at or after the name's hash that is up, or the server owning it if none are
+     */
+    public int getServer(String name, IntPredicate isUp) {
+        int start = Arrays.binarySearch(m_points, hash(name));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        int owner = m_owners[start % m_points.length];
+        if (m_servers == 1 || isUp.test(owner)) {
+            return owner;
+        }
+        // walk on round the ring, skipping points of servers that have already been tried
+        boolean[] tried = new boolean[m_servers];
+        tried[owner] = true;
+        int remaining = m_servers - 1;
+        for (int i = 1; i < m_points.length && remaining > 0; i++) {
+            int server = m_owners[(start + i) % m_points.length];
+            if (!tried[server]) {
+                if (isUp.test(server)) {
+                    return server;
+                }
+                tried[server] = true;
+                remaining--;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Hash a string onto the ring using 64 bit FNV-1a followed by a mixing step, so that similar names such as
+     * numbered files land far apart
+     *
+     * @param value the string
+     * @return its position on the ring
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,171 @@
+package com.client;
+
+/**
+ * A file making its way through the client's processing pipeline
+ *
+ * @author Howard Pearce
+ */
+public class PendingFile {
+    /**
+     * String path to the file
+     */
+    private final String m_path;
+    /**
+     * Directory the file was found in
+     */
+    private final String m_directory;
+    /**
+     * The watch that found the file
+     */
+    private final WatchedDirectory m_watch;
+    /**
+     * Raw contents of the file once the read stage has loaded them
+     */
+    private String m_text = null;
+    /**
+     * Modification time of the file when it was read, in ms
+     */
+    private long m_lastModified = 0;
+    /**
+     * Size of the file when it entered the pipeline, in bytes
+     */
+    private long m_size = 0;
+    /**
+     * Position in the processing order, lower first
+     */
+    private long m_priority = 0;
+    /**
+     * Order the file entered the pipeline in, used to break ties
+     */
+    private long m_sequence = 0;
+
+    /**
+     * Create a pending file
+     *
+     * @param path      String path to the file
+     * @param directory directory the file was found in
+     * @param watch     the watch that found the file
+     */
+    public PendingFile(String path, String directory, WatchedDirectory watch) {
+        this.m_path = path;
+        this.m_directory = directory;
+        this.m_watch = watch;
+    }
+
+    /**
+     * Get the path to the file
+     *
+     * @return String path to the file
+     */
+    public String getPath() {
+        return m_path;
+    }
+
+    /**
+     * Get the directory the file was found in
+     *
+     * @return String path to the directory
+     */
+    public String getDirectory() {
+        return m_directory;
+    }
+
+    /**
+     * Get the watch that found the file
+     *
+     * @return the watched directory the file belongs to
+     */
+    public WatchedDirectory getWatch() {
+        return m_watch;
+    }
+
+    /**
+     * Get the raw contents of the file
+     *
+     * @return the contents, or null if the file has not been read yet
+     */
+    public String getText() {
+        return m_text;
+    }
+
+    /**
+     * Get the modification time of the file when it was read
+     *
+     * @return modification time in ms
+     */
+    public long getLastModified() {
+        return m_lastModified;
+    }
+
+    /**
+     * Store the modification time of the file when it was read
+     *
+     * @param lastModified modification time in ms
+     */
+    public void setLastModified(long lastModified) {
+        this.m_lastModified = lastModified;
+    }
+
+    /**
+     * Get the size of the file when it entered the pipeline
+     *
+     * @return size in bytes
+     */
+    public long getSize() {
+        return m_size;
+    }
+
+    /**
+     * Store the size of the file when it entered the pipeline
+     *
+     * @param size size in bytes
+     */
+    public void setSize(long size) {
+        this.m_size = size;
+    }
+
+    /**
+     * Get the position of the file in the processing order
+     *
+     * @return priority, lower first
+     */
+    public long getPriority() {
+        return m_priority;
+    }
+
+    /**
+     * Set the position of the file in the processing order
+     *
+     * @param priority priority, lower first
+     */
+    public void setPriority(long priority) {
+        this.m_priority = priority;
+    }
+
+    /**
+     * Get the order the file entered the pipeline in
+     *
+     * @return sequence number
+     */
+    public long getSequence() {
+        return m_sequence;
+    }
+
+    /**
+     * Set the order the file entered the pipeline in
+     *
+     * @param sequence sequence number
+     */
+    public void setSequence(long sequence) {
+        this.m_sequence = sequence;
+    }
+
+    /**
+     * Store the raw contents of the file
+     *
+     * @param text the contents read from disk
+     */
+    public void setText(String text) {
+        this.m_text = text;
+    }
+}
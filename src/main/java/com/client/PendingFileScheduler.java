@@ -0,0 +1,110 @@
+package com.client;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides the order pending files are read and parsed in, and which of them count as large. Each file is given a
+ * fixed priority when it enters the pipeline, so queues can keep it in order without re-sorting as time passes.
+ *
+ * @author Howard Pearce
+ */
+public class PendingFileScheduler {
+    /**
+     * Orders pending files can be processed in
+     */
+    public enum Policy {
+        /**
+         * In the order they became ready
+         */
+        FIFO,
+        /**
+         * Smallest first, so small files never wait behind large ones
+         */
+        SMALLEST_FIRST,
+        /**
+         * Smallest first, but a file is held back by at most the age cap, so large files cannot starve. Files that
+         * became ready more than the age cap apart are always handled in order.
+         */
+        FAIR
+    }
+
+    /**
+     * Order files are processed in
+     */
+    private final Policy m_policy;
+    /**
+     * Size at which a file is considered large, in bytes
+     */
+    private final long m_largeFileThreshold;
+    /**
+     * Longest a file may be held back in favour of smaller ones under the fair policy, in ms
+     */
+    private final long m_ageCap;
+    /**
+     * Source of sequence numbers, which break ties in the order files became ready
+     */
+    private final AtomicLong m_sequence = new AtomicLong();
+
+    /**
+     * Create a scheduler
+     *
+     * @param policy             order files are processed in
+     * @param largeFileThreshold size at which a file is considered large, in bytes
+     * @param ageCap             longest a file may be held back under the fair policy, in ms
+     */
+    public PendingFileScheduler(Policy policy, long largeFileThreshold, long ageCap) {
+        this.m_policy = policy;
+        this.m_largeFileThreshold = Math.max(1, largeFileThreshold);
+        this.m_ageCap = ageCap;
+    }
+
+    /**
+     * Work out the size and priority of a file that is about to enter the pipeline
+     *
+     * @param pending the file
+     */
+    public void schedule(PendingFile pending) {
+        long size = new File(pending.getPath()).length();
+        pending.setSize(size);
+        pending.setSequence(m_sequence.getAndIncrement());
+        switch (m_policy) {
+            case FIFO -> pending.setPriority(0);
+            case SMALLEST_FIRST -> pending.setPriority(size);
+            case FAIR -> {
+                // a deadline: when the file became ready, pushed back by up to the age cap depending on its size
+                long delay = (long) (m_ageCap * Math.min(1.0, size / (double) m_largeFileThreshold));
+                pending.setPriority(System.nanoTime() / 1_000_000 + delay);
+            }
+        }
+    }
+
+    /**
+     * Check whether a scheduled file is large
+     *
+     * @param pending the file
+     * @return true if the file is at least the large file threshold
+     */
+    public boolean isLarge(PendingFile pending) {
+        return pending.getSize() >= m_largeFileThreshold;
+    }
+
+    /**
+     * Check whether files are processed in the order they became ready
+     *
+     * @return true for the FIFO policy
+     */
+    public boolean isFifo() {
+        return m_policy == Policy.FIFO;
+    }
+
+    /**
+     * Get the order scheduled files should be processed in
+     *
+     * @return comparator placing files to process first at the front
+     */
+    public Comparator<PendingFile> getOrder() {
+        return Comparator.comparingLong(PendingFile::getPriority).thenComparingLong(PendingFile::getSequence);
+    }
+}
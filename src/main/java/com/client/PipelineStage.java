@@ -0,0 +1,194 @@
+package com.client;
+
+import com.utils.Logger.Logger;
+import com.utils.Metrics.Counter;
+import com.utils.Metrics.Metrics;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * One step of the client's processing pipeline: a bounded queue drained by a fixed number of threads. Items are
+ * processed in the order they were submitted, or in a given order.
+ * Stages hand items to each other through their queues, so a slow stage pushes back on the stages before it instead
+ * of letting work pile up in memory. Keeps queue depth and service time figures for monitoring, which are published as
+ * metrics under the stage's name.
+ *
+ * @param <T> type of the items this stage processes
+ * @author Howard Pearce
+ */
+public class PipelineStage<T> {
+    /**
+     * Name of the stage, used for thread names and statistics
+     */
+    private final String m_name;
+    /**
+     * Items waiting to be processed
+     */
+    private final BlockingQueue<T> m_queue;
+    /**
+     * Space left in the queue when it cannot enforce its own bound, otherwise null
+     */
+    private final Semaphore m_space;
+    /**
+     * Processes a single item
+     */
+    private final Consumer<T> m_handler;
+    /**
+     * Number of items processed
+     */
+    private final Counter m_processed;
+    /**
+     * Total time spent processing items, in ns
+     */
+    private final LongAdder m_totalServiceTime = new LongAdder();
+    /**
+     * Longest time spent processing a single item, in ns
+     */
+    private final AtomicLong m_maxServiceTime = new AtomicLong();
+
+    /**
+     * Create the stage and start its threads
+     *
+     * @param name     name of the stage
+     * @param threads  how many items to process in parallel
+     * @param capacity how many items may wait in the queue
+     * @param handler  processes a single item
+     */
+    public PipelineStage(String name, int threads, int capacity, Consumer<T> handler) {
+        this(name, threads, capacity, null, handler);
+    }
+
+    /**
+     * Create the stage and start its threads
+     *
+     * @param name     name of the stage
+     * @param threads  how many items to process in parallel
+     * @param capacity how many items may wait in the queue
+     * @param order    order to process waiting items in, or null to process them in the order they were submitted
+     * @param handler  processes a single item
+     */
+    public PipelineStage(String name, int threads, int capacity, Comparator<? super T> order, Consumer<T> handler) {
+        this.m_name = name;
+        if (order == null) {
+            this.m_queue = new ArrayBlockingQueue<>(capacity);
+            this.m_space = null;
+        } else {
+            this.m_queue = new PriorityBlockingQueue<>(capacity, order);
+            this.m_space = new Semaphore(capacity);
+        }
+        this.m_handler = handler;
+        this.m_processed = Metrics.counter("pipeline_" + name + "_processed_total", "Items processed by the " + name + " stage");
+        Metrics.gauge("pipeline_" + name + "_queue_depth", "Items waiting for the " + name + " stage", this::getQueueDepth);
+        Metrics.gauge("pipeline_" + name + "_service_millis_mean", "Mean time the " + name + " stage takes per item, in ms", this::getAverageServiceTimeMillis);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::run, name + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queue an item for this stage, waiting for space if the queue is full
+     *
+     * @param item the item to process
+     * @return true if the item was queued, false if interrupted while waiting
+     */
+    public boolean submit(T item) {
+        try {
+            if (m_space != null) {
+                m_space.acquire();
+            }
+            m_queue.put(item);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Logger.logError("Interrupted while handing work to the " + m_name + " stage.");
+            return false;
+        }
+    }
+
+    /**
+     * Indefinitely process items from the queue. Runs on each of the stage's threads.
+     */
+    private void run() {
+        while (true) {
+            T item;
+            try {
+                item = m_queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (m_space != null) {
+                m_space.release();
+            }
+            long start = System.nanoTime();
+            try {
+                m_handler.accept(item);
+            } catch (RuntimeException e) {
+                // the stage carries on with the next item, so the trace goes through the logger in order with the rest
+                StringWriter trace = new StringWriter();
+                e.printStackTrace(new PrintWriter(trace));
+                Logger.logError("Unexpected error in the " + m_name + " stage: " + e.getMessage() + System.lineSeparator() + trace);
+            }
+            long serviceTime = System.nanoTime() - start;
+            m_processed.increment();
+            m_totalServiceTime.add(serviceTime);
+            m_maxServiceTime.accumulateAndGet(serviceTime, Math::max);
+        }
+    }
+
+    /**
+     * Get the name of this stage
+     *
+     * @return the stage name
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Get how many items are waiting to be processed
+     *
+     * @return current queue depth
+     */
+    public int getQueueDepth() {
+        return m_queue.size();
+    }
+
+    /**
+     * Get how many items this stage has processed
+     *
+     * @return number of processed items
+     */
+    public long getProcessedCount() {
+        return m_processed.get();
+    }
+
+    /**
+     * Get the mean time spent processing an item
+     *
+     * @return mean service time in ms
+     */
+    public double getAverageServiceTimeMillis() {
+        long processed = m_processed.get();
+        return processed == 0 ? 0 : m_totalServiceTime.sum() / (double) processed / 1_000_000.0;
+    }
+
+    /**
+     * Get the longest time spent processing a single item
+     *
+     * @return maximum service time in ms
+     */
+    public double getMaxServiceTimeMillis() {
+        return m_maxServiceTime.get() / 1_000_000.0;
+    }
+}
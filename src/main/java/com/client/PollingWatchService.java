@@ -0,0 +1,394 @@
+package com.client;
+
+import com.utils.Logger.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.Watchable;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WatchService that finds changes by listing directories on an interval instead of relying on the operating system.
+ * Meant for network filesystems, where native watches deliver events late or not at all. Each directory's entries are
+ * kept in an index of name to size and modification time, so a poll needs a listing and a compare but no file reads.
+ * Polls happen more often while changes are being found and back off while directories are idle.
+ *
+ * @author Howard Pearce
+ */
+public class PollingWatchService implements WatchService {
+    /**
+     * Most events held for a key before they are replaced by a single OVERFLOW event
+     */
+    private static final int MAX_PENDING_EVENTS = 512;
+    /**
+     * How long after a directory's modification time its listing is trusted to be complete, in ms. Covers filesystems
+     * that only record modification times to the second.
+     */
+    private static final long TIMESTAMP_GRANULARITY = 2000;
+    /**
+     * Keys for every registered directory
+     */
+    private final CopyOnWriteArrayList<PollingKey> m_keys = new CopyOnWriteArrayList<>();
+    /**
+     * Keys that have events waiting to be retrieved
+     */
+    private final LinkedBlockingQueue<PollingKey> m_signalled = new LinkedBlockingQueue<>();
+    /**
+     * Shortest time between polls, in ms
+     */
+    private final long m_minInterval;
+    /**
+     * Longest time between polls, in ms
+     */
+    private final long m_maxInterval;
+    /**
+     * Set once the service has been closed
+     */
+    private volatile boolean m_closed = false;
+    /**
+     * Thread that polls the registered directories
+     */
+    private final Thread m_poller;
+
+    /**
+     * Create the service and start polling
+     *
+     * @param minInterval shortest time between polls, used while changes are being found, in ms
+     * @param maxInterval longest time between polls, backed off to while directories are idle, in ms
+     */
+    public PollingWatchService(long minInterval, long maxInterval) {
+        this.m_minInterval = minInterval;
+        this.m_maxInterval = Math.max(minInterval, maxInterval);
+        this.m_poller = new Thread(this::run, "poller");
+        this.m_poller.setDaemon(true);
+        this.m_poller.start();
+    }
+
+    /**
+     * Start watching a directory. Only changes made after registration are reported.
+     *
+     * @param directory the directory to watch
+     * @param kinds     the kinds of events to report
+     * @return the key events for this directory are delivered through
+     * @throws IOException if the directory cannot be listed
+     */
+    public WatchKey register(Path directory, WatchEvent.Kind<?>... kinds) throws IOException {
+        if (m_closed) {
+            throw new ClosedWatchServiceException();
+        }
+        PollingKey key = new PollingKey(directory, Set.of(kinds));
+        key.scan(false);
+        m_keys.add(key);
+        return key;
+    }
+
+    /**
+     * Poll every registered directory until the service is closed, backing off while nothing changes
+     */
+    private void run() {
+        long interval = m_minInterval;
+        while (!m_closed) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = System.nanoTime();
+            boolean changed = false;
+            for (PollingKey key : m_keys) {
+                if (!key.isValid()) {
+                    m_keys.remove(key);
+                    continue;
+                }
+                try {
+                    changed |= key.scan(true);
+                } catch (IOException e) {
+                    // the directory is gone or unreachable, which a native watch reports by invalidating its key
+                    Logger.logError("Failed to poll directory '" + key.watchable() + "': " + e.getMessage());
+                    key.cancel();
+                    key.signal();
+                }
+            }
+            long scanTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            // poll quickly while files are arriving, but never spend more than about a third of the time scanning
+            interval = changed ? m_minInterval : Math.min(interval * 2, m_maxInterval);
+            interval = Math.max(interval, scanTime * 2);
+        }
+    }
+
+    @Override
+    public void close() {
+        m_closed = true;
+        m_poller.interrupt();
+        for (PollingKey key : m_keys) {
+            key.cancel();
+        }
+        m_keys.clear();
+    }
+
+    @Override
+    public WatchKey poll() {
+        checkOpen();
+        return m_signalled.poll();
+    }
+
+    @Override
+    public WatchKey poll(long timeout, TimeUnit unit) throws InterruptedException {
+        checkOpen();
+        return m_signalled.poll(timeout, unit);
+    }
+
+    @Override
+    public WatchKey take() throws InterruptedException {
+        checkOpen();
+        return m_signalled.take();
+    }
+
+    /**
+     * Throw if the service has been closed
+     */
+    private void checkOpen() {
+        if (m_closed) {
+            throw new ClosedWatchServiceException();
+        }
+    }
+
+    /**
+     * Last seen size and modification time of a directory entry
+     */
+    private static class EntryState {
+        /**
+         * Size in bytes
+         */
+        long m_size;
+        /**
+         * Modification time in ms
+         */
+        long m_lastModified;
+        /**
+         * Number of the last scan the entry was seen in
+         */
+        long m_generation;
+    }
+
+    /**
+     * A single event found by polling
+     *
+     * @param kind    what happened
+     * @param context name of the entry relative to the directory, or null for an overflow
+     * @param count   how many times it happened
+     * @param <T>     type of the context
+     */
+    private record PollEvent<T>(WatchEvent.Kind<T> kind, T context, int count) implements WatchEvent<T> {
+    }
+
+    /**
+     * WatchKey for a single polled directory, holding its index of entries
+     */
+    private class PollingKey implements WatchKey {
+        /**
+         * The directory being watched
+         */
+        private final Path m_directory;
+        /**
+         * Kinds of events to report
+         */
+        private final Set<WatchEvent.Kind<?>> m_kinds;
+        /**
+         * Last seen state of each entry in the directory, by name
+         */
+        private final HashMap<Path, EntryState> m_index = new HashMap<>();
+        /**
+         * Events found but not yet retrieved
+         */
+        private List<WatchEvent<?>> m_events = new ArrayList<>();
+        /**
+         * Number of the current scan
+         */
+        private long m_generation = 0;
+        /**
+         * Modification time of the directory when it was last checked, in ms
+         */
+        private long m_directoryModified = -1;
+        /**
+         * Local time the directory's current modification time was first seen, in ms. Local times are used for
+         * comparisons so that clock differences with a file server do not matter.
+         */
+        private long m_modifiedFirstSeen = 0;
+        /**
+         * Local time the directory was last listed, in ms
+         */
+        private long m_lastListed = 0;
+        /**
+         * True while the key is queued or being handled, until it is reset
+         */
+        private boolean m_queued = false;
+        /**
+         * False once the key has been cancelled
+         */
+        private volatile boolean m_valid = true;
+
+        /**
+         * Create a key for a directory
+         *
+         * @param directory the directory to watch
+         * @param kinds     kinds of events to report
+         */
+        PollingKey(Path directory, Set<WatchEvent.Kind<?>> kinds) {
+            this.m_directory = directory;
+            this.m_kinds = kinds;
+        }
+
+        /**
+         * List the directory and compare it against the index. If only creations and deletions are being watched and
+         * the directory itself has not changed, the listing is skipped entirely.
+         *
+         * @param report false to only fill the index, true to also queue events for the differences
+         * @return true if any differences were found
+         * @throws IOException if the directory cannot be listed
+         */
+        boolean scan(boolean report) throws IOException {
+            long directoryModified = Files.getLastModifiedTime(m_directory).toMillis();
+            long now = System.currentTimeMillis();
+            if (directoryModified != m_directoryModified) {
+                m_directoryModified = directoryModified;
+                m_modifiedFirstSeen = now;
+            } else if (!m_kinds.contains(StandardWatchEventKinds.ENTRY_MODIFY) && m_lastListed - m_modifiedFirstSeen > TIMESTAMP_GRANULARITY) {
+                // an entry added since the last listing would have changed the directory's modification time
+                return false;
+            }
+            long generation = ++m_generation;
+            List<WatchEvent<?>> found = new ArrayList<>();
+            // walking the tree rather than listing it lets platforms that return attributes with the listing skip a stat per entry
+            Files.walkFileTree(m_directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    Path name = file.getFileName();
+                    long size = attributes.isDirectory() ? 0 : attributes.size();
+                    long lastModified = attributes.lastModifiedTime().toMillis();
+                    EntryState state = m_index.get(name);
+                    if (state == null) {
+                        state = new EntryState();
+                        m_index.put(name, state);
+                        addEvent(found, StandardWatchEventKinds.ENTRY_CREATE, name);
+                    } else if (state.m_size != size || state.m_lastModified != lastModified) {
+                        addEvent(found, StandardWatchEventKinds.ENTRY_MODIFY, name);
+                    }
+                    state.m_size = size;
+                    state.m_lastModified = lastModified;
+                    state.m_generation = generation;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // removed between listing and reading its attributes
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            Iterator<Map.Entry<Path, EntryState>> entries = m_index.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Path, EntryState> entry = entries.next();
+                if (entry.getValue().m_generation != generation) {
+                    entries.remove();
+                    addEvent(found, StandardWatchEventKinds.ENTRY_DELETE, entry.getKey());
+                }
+            }
+            m_lastListed = now;
+            if (report && !found.isEmpty()) {
+                deliver(found);
+            }
+            return !found.isEmpty();
+        }
+
+        /**
+         * Add an event to a list if its kind is being watched
+         *
+         * @param events list to add to
+         * @param kind   what happened
+         * @param name   name of the entry
+         */
+        private void addEvent(List<WatchEvent<?>> events, WatchEvent.Kind<Path> kind, Path name) {
+            if (m_kinds.contains(kind)) {
+                events.add(new PollEvent<>(kind, name, 1));
+            }
+        }
+
+        /**
+         * Hand newly found events to whoever is waiting on the service
+         *
+         * @param found events from the latest scan
+         */
+        private synchronized void deliver(List<WatchEvent<?>> found) {
+            if (m_events.size() + found.size() > MAX_PENDING_EVENTS) {
+                m_events = new ArrayList<>(List.of(new PollEvent<>(StandardWatchEventKinds.OVERFLOW, null, m_events.size() + found.size())));
+            } else if (m_events.size() != 1 || m_events.get(0).kind() != StandardWatchEventKinds.OVERFLOW) {
+                m_events.addAll(found);
+            }
+            signal();
+        }
+
+        /**
+         * Queue the key for retrieval unless it already is
+         */
+        synchronized void signal() {
+            if (!m_queued) {
+                m_queued = true;
+                m_signalled.add(this);
+            }
+        }
+
+        @Override
+        public boolean isValid() {
+            return m_valid && !m_closed;
+        }
+
+        @Override
+        public synchronized List<WatchEvent<?>> pollEvents() {
+            List<WatchEvent<?>> events = m_events;
+            m_events = new ArrayList<>();
+            return events;
+        }
+
+        @Override
+        public synchronized boolean reset() {
+            if (!isValid()) {
+                return false;
+            }
+            m_queued = false;
+            if (!m_events.isEmpty()) {
+                signal();
+            }
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            m_valid = false;
+        }
+
+        @Override
+        public Watchable watchable() {
+            return m_directory;
+        }
+    }
+}
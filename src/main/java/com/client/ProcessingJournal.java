@@ -0,0 +1,232 @@
+package com.client;
+
+import com.utils.Logger.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only record of how far each file got through the pipeline, so a restarted client knows which files were
+ * already delivered and only needs deleting. Each state change is appended as a small record and flushed, and the
+ * journal is rewritten with only the files still in progress once it has grown well past that.
+ * <p>
+ * Thread safe.
+ *
+ * @author Howard Pearce
+ */
+public class ProcessingJournal {
+    /**
+     * Steps a file goes through, in order
+     */
+    public enum State {
+        /**
+         * Read from disk
+         */
+        DETECTED,
+        /**
+         * Handed to the sender
+         */
+        SENT,
+        /**
+         * Delivered to the server or its spool, and safe to delete
+         */
+        ACKED,
+        /**
+         * Deleted from the watched directory
+         */
+        DELETED
+    }
+
+    /**
+     * Extension of the file a compacted journal is written to before it replaces the old one
+     */
+    private static final String COMPACT_EXTENSION = ".compact";
+    /**
+     * Where the journal is kept
+     */
+    private final Path m_path;
+    /**
+     * Number of records after which the journal is compacted, if most of them are stale
+     */
+    private final int m_compactThreshold;
+    /**
+     * Latest state of every file that has not been deleted, with its modification time when it was read
+     */
+    private final HashMap<String, Entry> m_live = new HashMap<>();
+    /**
+     * Open stream to the end of the journal
+     */
+    private DataOutputStream m_writer;
+    /**
+     * Number of records in the journal file
+     */
+    private int m_records = 0;
+
+    /**
+     * Open a journal, replaying whatever an earlier run left in it
+     *
+     * @param path             String path to the journal file
+     * @param compactThreshold number of records after which the journal is compacted
+     * @throws IOException if the journal cannot be read or written
+     */
+    public ProcessingJournal(String path, int compactThreshold) throws IOException {
+        this.m_path = Path.of(path);
+        this.m_compactThreshold = compactThreshold;
+        if (m_path.getParent() != null) {
+            Files.createDirectories(m_path.getParent());
+        }
+        long start = System.nanoTime();
+        replay();
+        Logger.logInfo("Replayed processing journal in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        compact();
+    }
+
+    /**
+     * Rebuild the latest state of every file from the journal file. A record cut short by a crash ends the replay.
+     *
+     * @throws IOException if the journal cannot be read
+     */
+    private void replay() throws IOException {
+        if (!Files.exists(m_path)) {
+            return;
+        }
+        State[] states = State.values();
+        try (DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(m_path.toFile())))) {
+            while (true) {
+                int state = reader.readByte();
+                long lastModified = reader.readLong();
+                String path = reader.readUTF();
+                if (state < 0 || state >= states.length) {
+                    Logger.logError("Processing journal is corrupt. Ignoring the rest of it.");
+                    return;
+                }
+                apply(states[state], path, lastModified);
+            }
+        } catch (EOFException e) {
+            // reached the end, or a record cut short by a crash
+        }
+    }
+
+    /**
+     * Record that a file has reached a state
+     *
+     * @param state        the state the file reached
+     * @param path         String path to the file
+     * @param lastModified modification time of the file when it was read
+     */
+    public synchronized void record(State state, String path, long lastModified) {
+        try {
+            write(m_writer, state, path, lastModified);
+            m_writer.flush();
+            m_records++;
+        } catch (IOException e) {
+            Logger.logError("Failed to write to processing journal: " + e.getMessage());
+        }
+        apply(state, path, lastModified);
+        if (m_records > m_compactThreshold && m_records > 2 * m_live.size()) {
+            try {
+                compact();
+            } catch (IOException e) {
+                Logger.logError("Failed to compact processing journal: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop tracking a file that left the pipeline without being delivered. Nothing is written, since only delivered
+     * files are acted on after a restart.
+     *
+     * @param path String path to the file
+     */
+    public synchronized void forget(String path) {
+        m_live.remove(path);
+    }
+
+    /**
+     * Get the files that were delivered but not yet deleted
+     *
+     * @return modification time of each delivered file when it was read, by path
+     */
+    public synchronized Map<String, Long> getAcknowledged() {
+        Map<String, Long> acknowledged = new HashMap<>();
+        m_live.forEach((path, entry) -> {
+            if (entry.state() == State.ACKED) {
+                acknowledged.put(path, entry.lastModified());
+            }
+        });
+        return acknowledged;
+    }
+
+    /**
+     * Update the in-memory state of a file
+     *
+     * @param state        the state the file reached
+     * @param path         String path to the file
+     * @param lastModified modification time of the file when it was read
+     */
+    private void apply(State state, String path, long lastModified) {
+        if (state == State.DELETED) {
+            m_live.remove(path);
+        } else {
+            m_live.put(path, new Entry(state, lastModified));
+        }
+    }
+
+    /**
+     * Replace the journal file with one holding only the latest state of each file not yet deleted
+     *
+     * @throws IOException if the journal cannot be rewritten
+     */
+    private void compact() throws IOException {
+        Path compacted = Path.of(m_path + COMPACT_EXTENSION);
+        try (FileOutputStream file = new FileOutputStream(compacted.toFile());
+             DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(file))) {
+            for (Map.Entry<String, Entry> live : m_live.entrySet()) {
+                write(writer, live.getValue().state(), live.getKey(), live.getValue().lastModified());
+            }
+            writer.flush();
+            file.getFD().sync();
+        }
+        if (m_writer != null) {
+            m_writer.close();
+        }
+        Files.move(compacted, m_path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        m_writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_path.toFile(), true)));
+        m_records = m_live.size();
+    }
+
+    /**
+     * Write a single record
+     *
+     * @param writer       stream to write to
+     * @param state        the state the file reached
+     * @param path         String path to the file
+     * @param lastModified modification time of the file when it was read
+     * @throws IOException if the record cannot be written
+     */
+    private static void write(DataOutputStream writer, State state, String path, long lastModified) throws IOException {
+        writer.writeByte(state.ordinal());
+        writer.writeLong(lastModified);
+        writer.writeUTF(path);
+    }
+
+    /**
+     * Latest state of a single file
+     *
+     * @param state        the state the file reached
+     * @param lastModified modification time of the file when it was read
+     */
+    private record Entry(State state, long lastModified) {
+    }
+}
@@ -0,0 +1,75 @@
+package com.client;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the last filtered contents sent for each file, and the server they were sent to, so that later
+ * modifications can be sent to the same server as a delta.
+ * Bounded so that the cache cannot grow without limit; the least recently used files are forgotten first.
+ *
+ * @author Howard Pearce
+ */
+public class SnapshotCache {
+    /**
+     * File path mapped to the contents last sent for it, kept in access order
+     */
+    private final LinkedHashMap<String, Snapshot> m_snapshots;
+
+    /**
+     * Create an empty cache
+     *
+     * @param capacity maximum number of files to remember
+     */
+    public SnapshotCache(int capacity) {
+        this.m_snapshots = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get the contents last sent for a file
+     *
+     * @param path path of the file
+     * @return the last sent contents and where they went, or null if we do not remember the file
+     */
+    public synchronized Snapshot get(String path) {
+        return m_snapshots.get(path);
+    }
+
+    /**
+     * Record the contents about to be queued for sending for a file, and get what was recorded before them in the
+     * same step, so a failed send forgetting the file can never fall between the two
+     *
+     * @param path     path of the file
+     * @param contents the contents about to be sent
+     * @param server   position of the server they are about to be sent to
+     * @return what was previously recorded, or null if we did not remember the file
+     */
+    public synchronized Snapshot swap(String path, Map<String, String> contents, int server) {
+        return m_snapshots.put(path, new Snapshot(new HashMap<>(contents), server));
+    }
+
+    /**
+     * Forget a file, whatever was last recorded for it, so that the next send is a full copy. Used when a send fails:
+     * any change queued after it was computed against contents the server never received.
+     *
+     * @param path path of the file
+     */
+    public synchronized void remove(String path) {
+        m_snapshots.remove(path);
+    }
+
+    /**
+     * Contents sent for a file
+     *
+     * @param contents the filtered contents
+     * @param server   position of the server they were sent to
+     */
+    public record Snapshot(Map<String, String> contents, int server) {
+    }
+}
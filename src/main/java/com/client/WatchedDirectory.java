@@ -0,0 +1,99 @@
+package com.client;
+
+import com.utils.Files.PropertiesFile.BaseFilter;
+
+/**
+ * Describes a directory the client watches for properties files, and how files found there are handled
+ *
+ * @author Howard Pearce
+ */
+public class WatchedDirectory {
+    /**
+     * Name of the watch, used in log messages
+     */
+    private final String m_name;
+    /**
+     * The directory being watched
+     */
+    private final String m_directory;
+    /**
+     * Filter applied to every file found in this directory
+     */
+    private final BaseFilter m_filter;
+    /**
+     * Whether subdirectories are watched as well, including ones created later
+     */
+    private final boolean m_recursive;
+    /**
+     * Subdirectory of the server's directory that files are written into, or null for the server's directory itself
+     */
+    private final String m_destination;
+
+    /**
+     * Describe a watched directory
+     *
+     * @param name        name of the watch
+     * @param directory   the directory to watch
+     * @param filter      filter applied to every file found
+     * @param recursive   whether subdirectories are watched as well
+     * @param destination subdirectory of the server's directory to write into, or null
+     */
+    public WatchedDirectory(String name, String directory, BaseFilter filter, boolean recursive, String destination) {
+        this.m_name = name;
+        this.m_directory = directory;
+        this.m_filter = filter;
+        this.m_recursive = recursive;
+        this.m_destination = destination;
+    }
+
+    /**
+     * Get the name of the watch
+     *
+     * @return the watch name
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Get the watched directory
+     *
+     * @return String path to the directory
+     */
+    public String getDirectory() {
+        return m_directory;
+    }
+
+    /**
+     * Get the filter applied to files in this directory
+     *
+     * @return the filter
+     */
+    public BaseFilter getFilter() {
+        return m_filter;
+    }
+
+    /**
+     * Check whether subdirectories are watched as well
+     *
+     * @return true if the watch is recursive
+     */
+    public boolean isRecursive() {
+        return m_recursive;
+    }
+
+    /**
+     * Work out where on the server files from a directory under this watch are written. Files in subdirectories keep
+     * their path relative to the watched directory.
+     *
+     * @param directory the directory a file was found in, this watch's directory or one below it
+     * @return the destination relative to the server's directory, or null for the server's directory itself
+     */
+    public String getDestinationFor(String directory) {
+        String relative = directory.length() > m_directory.length() ? directory.substring(m_directory.length() + 1) : "";
+        if (m_destination == null) {
+            return relative.isEmpty() ? null : relative;
+        }
+        return relative.isEmpty() ? m_destination : m_destination + "/" + relative;
+    }
+}
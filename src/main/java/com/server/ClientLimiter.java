@@ -0,0 +1,157 @@
+package com.server;
+
+import com.utils.Logger.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limits shared by every connection from one client. Connections pause their reads when a client goes over its
+ * limits, which lets TCP push back on the client rather than dropping anything it sent. Connections tell the limiter
+ * how long they pause for, so time spent paused is not mistaken for the client being idle.
+ *
+ * @author Howard Pearce
+ */
+public class ClientLimiter {
+    /**
+     * Least time between messages saying a client is being throttled, in ns
+     */
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+    /**
+     * The client these limits apply to
+     */
+    private final String m_client;
+    /**
+     * Files and deltas the client may send per second, or null for no limit
+     */
+    private final TokenBucket m_files;
+    /**
+     * Bytes the client may send per second, or null for no limit
+     */
+    private final TokenBucket m_bytes;
+    /**
+     * Number of times reads have been paused
+     */
+    private final LongAdder m_pauses = new LongAdder();
+    /**
+     * Total time reads have been paused, in ns
+     */
+    private final LongAdder m_pausedTime = new LongAdder();
+    /**
+     * Time the client was last reported as throttled, in ns
+     */
+    private final AtomicLong m_lastReported = new AtomicLong(System.nanoTime() - REPORT_INTERVAL);
+    /**
+     * Number of open connections from the client. Only changed while the connection manager holds the client's entry
+     */
+    private int m_connections = 0;
+
+    /**
+     * Create limits for a client
+     *
+     * @param client         the client these limits apply to
+     * @param filesPerSecond files and deltas the client may send per second, or 0 for no limit
+     * @param bytesPerSecond bytes the client may send per second, or 0 for no limit
+     */
+    public ClientLimiter(String client, int filesPerSecond, int bytesPerSecond) {
+        this.m_client = client;
+        this.m_files = filesPerSecond > 0 ? new TokenBucket(filesPerSecond) : null;
+        this.m_bytes = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond) : null;
+    }
+
+    /**
+     * Check whether the client has a byte rate limit
+     *
+     * @return true if reads need to be counted against a byte rate
+     */
+    public boolean limitsBytes() {
+        return m_bytes != null;
+    }
+
+    /**
+     * Account for a file or delta received
+     *
+     * @return how long to pause for to keep the client within its file rate, in ns. 0 or less to carry on
+     */
+    public long fileReceived() {
+        return m_files == null ? 0 : m_files.take(1);
+    }
+
+    /**
+     * Account for bytes read
+     *
+     * @param bytes number of bytes read
+     * @return how long to pause for to keep the client within its byte rate, in ns. 0 or less to carry on
+     */
+    public long bytesRead(long bytes) {
+        return m_bytes == null ? 0 : m_bytes.take(bytes);
+    }
+
+    /**
+     * Pause the calling connection, recording that the client was throttled
+     *
+     * @param nanos how long to pause for, in ns
+     */
+    public void pause(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        m_pauses.increment();
+        m_pausedTime.add(nanos);
+        long now = System.nanoTime();
+        long lastReported = m_lastReported.get();
+        if (now - lastReported >= REPORT_INTERVAL && m_lastReported.compareAndSet(lastReported, now)) {
+            Logger.logInfo("Throttling client " + m_client + ": paused " + m_pauses.sum() + " time(s) for "
+                    + TimeUnit.NANOSECONDS.toMillis(m_pausedTime.sum()) + " ms in total.");
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the client these limits apply to
+     *
+     * @return address of the client
+     */
+    public String getClient() {
+        return m_client;
+    }
+
+    /**
+     * Count a connection opened by the client
+     */
+    void connectionOpened() {
+        m_connections++;
+    }
+
+    /**
+     * Count a connection from the client closing
+     *
+     * @return number of connections from the client still open
+     */
+    int connectionClosed() {
+        return --m_connections;
+    }
+
+    /**
+     * Get the number of times reads from this client have been paused
+     *
+     * @return number of pauses
+     */
+    public long getPauses() {
+        return m_pauses.sum();
+    }
+
+    /**
+     * Get the total time reads from this client have been paused
+     *
+     * @return time in ms
+     */
+    public long getPausedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(m_pausedTime.sum());
+    }
+}
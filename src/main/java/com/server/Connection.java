@@ -1,17 +1,55 @@
 package com.server;
 
+import com.utils.Files.PropertiesFile.PropertiesDelta;
 import com.utils.Files.PropertiesFile.PropertiesFile;
 import com.utils.Logger.Logger;
+import com.utils.Metrics.Counter;
+import com.utils.Metrics.Histogram;
+import com.utils.Metrics.Metrics;
+import com.utils.Network.FileOfferMessage;
+import com.utils.Network.FileOfferResponse;
+import com.utils.Network.PingMessage;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
 
 public class Connection extends Thread {
+    /**
+     * Time taken to act on each message, including writing received files
+     */
+    private static final Histogram MESSAGE_TIME = Metrics.histogram("server_message_seconds", "Time taken to act on a message from a client");
+    /**
+     * Bytes read from all clients
+     */
+    private static final Counter BYTES_RECEIVED = Metrics.counter("server_bytes_received_total", "Bytes received from clients");
+    /**
+     * Files received from all clients
+     */
+    private static final Counter FILES_RECEIVED = Metrics.counter("server_files_received_total", "Files received from clients");
+    /**
+     * Deltas received from all clients
+     */
+    private static final Counter DELTAS_RECEIVED = Metrics.counter("server_deltas_received_total", "Deltas received from clients");
+    /**
+     * File offers received from all clients
+     */
+    private static final Counter OFFERS_RECEIVED = Metrics.counter("server_offers_received_total", "File offers received from clients");
     /**
      * Responsible for deserializing data
      */
     private ObjectInputStream m_input;
+    /**
+     * Responsible for serializing replies to the client
+     */
+    private ObjectOutputStream m_output;
     /**
      * Socket representing our connection to the client
      */
@@ -24,6 +62,46 @@ public class Connection extends Thread {
      * Unique identifier for this thread
      */
     private String m_id;
+    /**
+     * Registry this connection removes itself from when it exits
+     */
+    private final ServerConnectionManager m_connectionManager;
+    /**
+     * Rate limits of the client, or null if it is not limited
+     */
+    private final ClientLimiter m_limiter;
+    /**
+     * Counts bytes as they are read from the client
+     */
+    private CountingInputStream m_counter;
+    /**
+     * Pauses reads when the client goes over its byte rate, or null if it has none
+     */
+    private ThrottledInputStream m_throttle;
+    /**
+     * How many of the bytes read so far have been added to the total for all clients
+     */
+    private long m_bytesCounted = 0;
+    /**
+     * Number of files received
+     */
+    private volatile long m_filesReceived = 0;
+    /**
+     * Number of deltas received
+     */
+    private volatile long m_deltasReceived = 0;
+    /**
+     * Time the connection was accepted, in ms
+     */
+    private final long m_connectedSince = System.currentTimeMillis();
+    /**
+     * Time a message was last acted on, in ms, or the time a pause for the client's file rate ends
+     */
+    private volatile long m_lastActivity = System.currentTimeMillis();
+    /**
+     * Set once the connection has been asked to close
+     */
+    private volatile boolean m_closed = false;
     /**
      * Number of times this thread has failed to connect
      */
@@ -37,12 +115,15 @@ public class Connection extends Thread {
      * Create a connection reference
      *
      * @param serverApplication allows callback to the server application
+     * @param connectionManager registry this connection removes itself from when it exits
      * @param socket connection with the client
-     * @param input data stream coming form the client
      * @param id unique id for this connection
+     * @param limiter rate limits of the client, or null if it is not limited
      */
-    public Connection(ServerApplication serverApplication, Socket socket, ObjectInputStream input, String id) {
-        this.m_input = input;
+    public Connection(ServerApplication serverApplication, ServerConnectionManager connectionManager, Socket socket, String id, ClientLimiter limiter) {
+        super("connection-" + id);
+        this.m_limiter = limiter;
+        this.m_connectionManager = connectionManager;
         this.m_server = serverApplication;
         this.m_socket = socket;
         this.m_id = id;
@@ -53,13 +134,45 @@ public class Connection extends Thread {
      */
     @Override
     public void run() {
+        try {
+            // send our stream header first so the client is not left waiting on it
+            m_output = new ObjectOutputStream(new BufferedOutputStream(m_socket.getOutputStream()));
+            m_output.flush();
+            InputStream input = new BufferedInputStream(m_socket.getInputStream());
+            if (m_limiter != null && m_limiter.limitsBytes()) {
+                m_throttle = new ThrottledInputStream(input, m_limiter);
+                input = m_throttle;
+            }
+            m_counter = new CountingInputStream(input);
+            m_input = new ObjectInputStream(m_counter);
+        } catch (IOException e) {
+            Logger.logError("Failed to open streams for connection '" + m_id + "': " + e.getMessage());
+            shutdown();
+            return;
+        }
         Logger.logInfo("Listening for messages on thread '" + m_id + "'");
         while (true) {
             try {
-                PropertiesFile file = (PropertiesFile) m_input.readObject();
-                System.out.println("Received message on thread '" + m_id + "'");
-                m_server.writeFile(file);
+                Object message = m_input.readObject();
+                Logger.logDebug(() -> "Received message on thread '" + m_id + "'");
+                long start = System.nanoTime();
+                handleMessage(message);
+                MESSAGE_TIME.recordSince(start);
+                // acting on a message can take a while, none of which the client spent idle
+                m_lastActivity = Math.max(m_lastActivity, System.currentTimeMillis());
+                long read = m_counter.getCount();
+                BYTES_RECEIVED.add(read - m_bytesCounted);
+                m_bytesCounted = read;
+            } catch (EOFException | SocketException e) {
+                // the client went away or we closed the socket, neither of which a retry can fix
+                if (!m_closed) {
+                    Logger.logInfo("Client disconnected from connection '" + m_id + "'");
+                }
+                break;
             } catch (ClassNotFoundException | IOException e) {
+                if (m_closed) {
+                    break;
+                }
                 if(m_connectionsLost > MAX_CONNECTION_LOSS) {
                     Logger.logError("Exceeding " + MAX_CONNECTION_LOSS + " connection errors. Closing connection '" + m_id + "'");
                     break;
@@ -68,7 +181,7 @@ public class Connection extends Thread {
                 try {
                     Thread.sleep(2000);
                 } catch (InterruptedException ex) {
-                    // do nothing
+                    break;
                 }
                 m_connectionsLost+=1;
             }
@@ -80,10 +193,55 @@ public class Connection extends Thread {
         shutdown();
     }
 
+    /**
+     * Act on a single message received from the client
+     *
+     * @param message the deserialized message
+     * @throws IOException if a reply cannot be sent to the client
+     */
+    private void handleMessage(Object message) throws IOException {
+        if (message instanceof FileOfferMessage offer) {
+            OFFERS_RECEIVED.increment();
+            boolean required = m_server.isFileRequired(offer.getFileName(), offer.getContentHash());
+            if (!required) {
+                Logger.logInfo(() -> "Already holding identical copy of '" + offer.getFileName() + "'. Skipping transfer.");
+            }
+            m_output.writeObject(new FileOfferResponse(required));
+            m_output.flush();
+        } else if (message instanceof PropertiesFile file) {
+            m_filesReceived++;
+            FILES_RECEIVED.increment();
+            m_server.writeFile(file);
+            throttleFile();
+        } else if (message instanceof PropertiesDelta delta) {
+            m_deltasReceived++;
+            DELTAS_RECEIVED.increment();
+            m_server.applyDelta(delta);
+            throttleFile();
+        } else if (message instanceof PingMessage) {
+            m_output.writeObject(new PingMessage());
+            m_output.flush();
+        } else {
+            Logger.logError("Ignoring unknown message type on connection '" + m_id + "'");
+        }
+    }
+
+    /**
+     * Charge a received file to the client's file rate. Pausing here holds off reading the next message.
+     */
+    private void throttleFile() {
+        long pause = m_limiter == null ? 0 : m_limiter.fileReceived();
+        if (pause > 0) {
+            m_lastActivity = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(pause);
+            m_limiter.pause(pause);
+        }
+    }
+
     /**
      * Clean up the resources in this thread before closing it.
      */
     public void shutdown() {
+        m_connectionManager.removeConnection(this);
         try {
             if (m_socket != null) {
                 m_socket.close();
@@ -91,11 +249,94 @@ public class Connection extends Thread {
             if (m_input != null) {
                 m_input.close();
             }
+            if (m_output != null) {
+                m_output.close();
+            }
+        } catch (IOException e) {
+            Logger.logError("Error occurred while closing connection '" + m_id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ask the connection to close. Closing the socket wakes the thread from any blocking read.
+     */
+    public void close() {
+        m_closed = true;
+        try {
+            m_socket.close();
         } catch (IOException e) {
             Logger.logError("Error occurred while closing connection '" + m_id + ": " + e.getMessage());
         }
     }
 
+    /**
+     * Get the address of the client
+     *
+     * @return the remote address of the socket
+     */
+    public String getRemoteAddress() {
+        return String.valueOf(m_socket.getRemoteSocketAddress());
+    }
+
+    /**
+     * Get the number of bytes received from the client
+     *
+     * @return bytes read from the socket
+     */
+    public long getBytesReceived() {
+        CountingInputStream counter = m_counter;
+        return counter == null ? 0 : counter.getCount();
+    }
+
+    /**
+     * Get the number of files received from the client
+     *
+     * @return number of files
+     */
+    public long getFilesReceived() {
+        return m_filesReceived;
+    }
+
+    /**
+     * Get the number of deltas received from the client
+     *
+     * @return number of deltas
+     */
+    public long getDeltasReceived() {
+        return m_deltasReceived;
+    }
+
+    /**
+     * Get the rate limits of the client
+     *
+     * @return the client's limits, or null if it is not limited
+     */
+    public ClientLimiter getLimiter() {
+        return m_limiter;
+    }
+
+    /**
+     * Get the time the connection was accepted
+     *
+     * @return time in ms
+     */
+    public long getConnectedSince() {
+        return m_connectedSince;
+    }
+
+    /**
+     * Get the time anything was last received from the client. Time the connection spent acting on messages or paused
+     * to keep the client within its rate limits counts as activity.
+     *
+     * @return time in ms, in the future while the connection is paused
+     */
+    public long getLastActivity() {
+        CountingInputStream counter = m_counter;
+        ThrottledInputStream throttle = m_throttle;
+        long lastActivity = Math.max(m_lastActivity, counter == null ? 0 : counter.getLastRead());
+        return throttle == null ? lastActivity : Math.max(lastActivity, throttle.getPausedUntil());
+    }
+
     /**
      * Get the ID of this connection
      */
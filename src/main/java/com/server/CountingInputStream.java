@@ -0,0 +1,85 @@
+package com.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Passes reads through to another stream, counting the bytes read and noting when they were read. Only the thread
+ * reading the stream updates either, so they can be read from other threads without locking.
+ *
+ * @author Howard Pearce
+ */
+public class CountingInputStream extends FilterInputStream {
+    /**
+     * Number of bytes read so far
+     */
+    private volatile long m_count = 0;
+    /**
+     * Time bytes were last read, in ms
+     */
+    private volatile long m_lastRead = System.currentTimeMillis();
+
+    /**
+     * Wrap a stream
+     *
+     * @param input the stream to read from
+     */
+    public CountingInputStream(InputStream input) {
+        super(input);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value >= 0) {
+            m_count++;
+            m_lastRead = System.currentTimeMillis();
+        }
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+            m_count += read;
+            m_lastRead = System.currentTimeMillis();
+        }
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        m_count += skipped;
+        return skipped;
+    }
+
+    /**
+     * Get the number of bytes read so far
+     *
+     * @return bytes read
+     */
+    public long getCount() {
+        return m_count;
+    }
+
+    /**
+     * Get the time bytes were last read
+     *
+     * @return time in ms
+     */
+    public long getLastRead() {
+        return m_lastRead;
+    }
+}
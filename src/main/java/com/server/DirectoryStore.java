@@ -0,0 +1,186 @@
+package com.server;
+
+import com.utils.Files.FileUtils;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Stores every file as an ordinary properties file in a directory. Files can be spread over levels of 256
+ * subdirectories chosen by a hash of their name, so no single directory grows too large, and an in-memory index of
+ * stored names answers existence checks without touching the filesystem.
+ *
+ * @author Howard Pearce
+ */
+public class DirectoryStore implements PropertiesStore {
+    /**
+     * Most levels of hashed subdirectories, one per byte of the hash
+     */
+    private static final int MAX_SHARD_LEVELS = 4;
+    /**
+     * The directory files are written into
+     */
+    private final Path m_root;
+    /**
+     * Number of levels of hashed subdirectories files are spread over. 0 to store files directly in the directory
+     */
+    private final int m_shardLevels;
+    /**
+     * Names of every file held in the directory
+     */
+    private final StoredNameIndex m_names;
+    /**
+     * Subdirectories known to exist, so they are not checked for on every write
+     */
+    private final Set<Path> m_createdDirectories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Open a directory, indexing the files already in it
+     *
+     * @param root         the directory files are written into
+     * @param shardLevels  number of levels of hashed subdirectories to spread files over, up to 4. 0 to store files
+     *                     directly in the directory
+     * @param indexThreads how many directories to list in parallel while building the name index
+     */
+    public DirectoryStore(Path root, int shardLevels, int indexThreads) {
+        this.m_root = root;
+        this.m_shardLevels = Math.max(0, Math.min(MAX_SHARD_LEVELS, shardLevels));
+        this.m_names = new StoredNameIndex(m_root, m_shardLevels, indexThreads);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean exists(String name) {
+        // only names in the index can exist, and those are confirmed on disk in case the file was since removed
+        return m_names.contains(name) && FileUtils.doesFileExist(pathOf(name).toString());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void create(String name, String contents) throws IOException {
+        FileUtils.createFile(prepare(name), contents);
+        m_names.add(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void replace(String name, String contents) throws IOException {
+        FileUtils.replaceFile(prepare(name), contents);
+        m_names.add(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String read(String name) throws IOException {
+        if (!exists(name)) {
+            return null;
+        }
+        // FileUtils writes with the default charset
+        return Files.readString(pathOf(name), Charset.defaultCharset());
+    }
+
+    /**
+     * {@inheritDoc}
+     * Decided from each file's modification time, so only the listing and a stat per file are needed for files that
+     * have not changed.
+     */
+    @Override
+    public void forEachChangedSince(long since, BiConsumer<String, String> consumer) throws IOException {
+        Files.walkFileTree(m_root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                String name = m_names.nameOf(file);
+                if (name != null && attributes.lastModifiedTime().toMillis() >= since) {
+                    consumer.accept(name, Files.readString(file, Charset.defaultCharset()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // removed or replaced while we were walking
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        // every write is complete by the time it returns
+    }
+
+    /**
+     * Get the path of a file, creating the subdirectories it needs
+     *
+     * @param name name of the file
+     * @return String path to the file
+     * @throws IOException if its subdirectories cannot be created
+     */
+    private String prepare(String name) throws IOException {
+        Path target = pathOf(name);
+        Path parent = target.getParent();
+        if (!parent.equals(m_root) && !m_createdDirectories.contains(parent)) {
+            try {
+                Files.createDirectories(parent);
+            } catch (IOException e) {
+                // a subdirectory may have been removed from under us
+                m_createdDirectories.clear();
+                throw e;
+            }
+            m_createdDirectories.add(parent);
+        }
+        return target.toString();
+    }
+
+    /**
+     * Get the path a file is stored at
+     *
+     * @param name name of the file
+     * @return the path inside the directory
+     */
+    private Path pathOf(String name) {
+        return m_root.resolve(shardOf(name)).resolve(name);
+    }
+
+    /**
+     * Work out which hashed subdirectories a file belongs in. The hash only depends on the name, so a file always
+     * lands in the same place.
+     *
+     * @param name name of the file
+     * @return relative path of the subdirectories, or an empty string when files are not spread out
+     */
+    private String shardOf(String name) {
+        if (m_shardLevels == 0) {
+            return "";
+        }
+        CRC32 crc = new CRC32();
+        crc.update(name.getBytes(StandardCharsets.UTF_8));
+        long hash = crc.getValue();
+        StringBuilder shard = new StringBuilder(m_shardLevels * 3);
+        for (int level = 0; level < m_shardLevels; level++) {
+            shard.append(String.format("%02x/", (hash >>> (24 - 8 * level)) & 0xff));
+        }
+        return shard.toString();
+    }
+}
@@ -0,0 +1,322 @@
+package com.server;
+
+import com.utils.Files.PropertiesFile.PropertiesDelta;
+import com.utils.Files.PropertiesFile.PropertiesFile;
+import com.utils.Files.PropertiesFile.RegexFilter;
+import com.utils.Logger.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which destinations each received file is written to, from rules made of an optional file name pattern, an
+ * optional key pattern and a destination, and writes it to all of them. A rule applies when its name pattern matches
+ * the file name and its key pattern matches at least one key; a rule with neither applies to every file. Files no rule
+ * applies to go to the default destination. A rule can also filter the keys written to its destination; a file its
+ * filter leaves empty is not written there, and does not fall back to the default destination.
+ * <p>
+ * A delta only carries the keys that changed, so it is not matched against the rules itself. It is applied at the
+ * destinations its file was last written to, and only matched when the file has not been seen recently, either since
+ * the server started or since it was forgotten to make room for other files, or the delta replaces the whole file.
+ * <p>
+ * Each distinct pattern is compiled once and, however many rules share it, tested at most once per file. Keys are
+ * walked in a single pass that stops as soon as every key pattern has matched. When a file goes to several
+ * destinations they are written in parallel, and the file is only done once every write has finished, so files from
+ * one connection are still stored in the order they arrived.
+ *
+ * @author Howard Pearce
+ */
+public class FileRouter {
+    /**
+     * Destination for files no rule applies to
+     */
+    private final ServerDirectoryManager m_defaultDestination;
+    /**
+     * Hashes of recently written files, shared by every destination
+     */
+    private final PersistedHashIndex m_hashIndex;
+    /**
+     * Rules, in the order they were added
+     */
+    private final List<Route> m_routes = new ArrayList<>();
+    /**
+     * Distinct file name patterns
+     */
+    private final List<Pattern> m_namePatterns = new ArrayList<>();
+    /**
+     * Distinct key patterns
+     */
+    private final List<Pattern> m_keyPatterns = new ArrayList<>();
+    /**
+     * Position of each name pattern in m_namePatterns, by expression
+     */
+    private final Map<String, Integer> m_namePatternIds = new HashMap<>();
+    /**
+     * Position of each key pattern in m_keyPatterns, by expression
+     */
+    private final Map<String, Integer> m_keyPatternIds = new HashMap<>();
+    /**
+     * Rules each recently seen file was last written by, by file name, kept in access order. Files that went to the
+     * default destination map to an empty list. Lists are shared between files routed the same way. Guarded by itself.
+     */
+    private final LinkedHashMap<String, List<Route>> m_fileRoutes;
+    /**
+     * One copy of each combination of rules seen so far, so m_fileRoutes does not hold a list per file
+     */
+    private final ConcurrentHashMap<List<Route>, List<Route>> m_routeLists = new ConcurrentHashMap<>();
+    /**
+     * Writes to destinations in parallel
+     */
+    private final ExecutorService m_writers;
+
+    /**
+     * Create a router with no rules, sending every file to the default destination
+     *
+     * @param defaultDestination destination for files no rule applies to
+     * @param hashIndex          hashes of recently written files, shared by every destination
+     * @param threads            how many destinations to write to at once
+     * @param capacity           most files to remember the rules of, for routing their deltas
+     */
+    public FileRouter(ServerDirectoryManager defaultDestination, PersistedHashIndex hashIndex, int threads, int capacity) {
+        this.m_defaultDestination = defaultDestination;
+        this.m_hashIndex = hashIndex;
+        this.m_fileRoutes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Route>> eldest) {
+                return size() > capacity;
+            }
+        };
+        AtomicInteger count = new AtomicInteger();
+        this.m_writers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "route-writer-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add a rule
+     *
+     * @param name        name of the rule, for messages
+     * @param namePattern expression the file name must match, or null to match any name
+     * @param keyPattern  expression at least one key must match, or null to match any file
+     * @param filter      filter applied to the keys written to this destination, or null to write every key
+     * @param destination where files the rule applies to are written
+     */
+    public void addRoute(String name, String namePattern, String keyPattern, RegexFilter filter, ServerDirectoryManager destination) {
+        int nameId = namePattern == null ? -1 : m_namePatternIds.computeIfAbsent(namePattern, expression -> {
+            m_namePatterns.add(Pattern.compile(expression));
+            return m_namePatterns.size() - 1;
+        });
+        int keyId = keyPattern == null ? -1 : m_keyPatternIds.computeIfAbsent(keyPattern, expression -> {
+            m_keyPatterns.add(Pattern.compile(expression));
+            return m_keyPatterns.size() - 1;
+        });
+        m_routes.add(new Route(name, nameId, keyId, filter, destination));
+        Logger.logInfo("Routing files" + (namePattern == null ? "" : " named '" + namePattern + "'")
+                + (keyPattern == null ? "" : " with keys matching '" + keyPattern + "'") + " by rule '" + name + "'.");
+    }
+
+    /**
+     * Write a received file to every destination whose rule applies to it
+     *
+     * @param file the file
+     */
+    public void writeFile(PropertiesFile file) {
+        List<Route> routes = remember(file.getDestinationName(), match(file.getDestinationName(), file.getContents().keySet()));
+        if (routes.isEmpty()) {
+            m_defaultDestination.writeFile(file);
+            return;
+        }
+        List<Runnable> writes = new ArrayList<>(routes.size());
+        for (Route route : routes) {
+            PropertiesFile routed = file;
+            if (route.filter() != null) {
+                routed = new PropertiesFile(new HashMap<>(file.getContents()), file.getFilepath());
+                routed.setDestination(file.getDestination());
+                route.filter().applyFilter(routed);
+                if (routed.getContents().isEmpty()) {
+                    continue;
+                }
+            }
+            PropertiesFile toWrite = routed;
+            writes.add(() -> route.destination().writeFile(toWrite));
+        }
+        runAll(writes);
+        // destinations record the hash of what they wrote, which a filter may have changed from what was offered
+        m_hashIndex.record(file.getDestinationName(), file.getContentHash());
+    }
+
+    /**
+     * Apply a received delta at the destinations its file was last written to. A delta replacing the whole file, or for
+     * a file not seen since the server started, is routed by matching rules against the keys it changes or removes.
+     *
+     * @param delta the changes
+     */
+    public void applyDelta(PropertiesDelta delta) {
+        List<Route> routes = null;
+        if (!delta.isReplace()) {
+            synchronized (m_fileRoutes) {
+                routes = m_fileRoutes.get(delta.getFileName());
+            }
+        }
+        if (routes == null) {
+            HashSet<String> keys = new HashSet<>(delta.getChanged().keySet());
+            keys.addAll(delta.getRemoved());
+            routes = remember(delta.getFileName(), match(delta.getFileName(), keys));
+        }
+        if (routes.isEmpty()) {
+            m_defaultDestination.applyDelta(delta);
+            return;
+        }
+        List<Runnable> writes = new ArrayList<>(routes.size());
+        for (Route route : routes) {
+            PropertiesDelta routed = delta;
+            if (route.filter() != null) {
+                PropertiesFile changed = new PropertiesFile(new HashMap<>(delta.getChanged()), delta.getFileName());
+                route.filter().applyFilter(changed);
+                PropertiesFile removed = new PropertiesFile(new HashMap<>(), delta.getFileName());
+                delta.getRemoved().forEach(key -> removed.getContents().put(key, ""));
+                route.filter().applyFilter(removed);
+                routed = new PropertiesDelta(delta.getFileName(), new HashMap<>(changed.getContents()),
+                        new HashSet<>(removed.getContents().keySet()), delta.isReplace());
+                if (routed.isEmpty() && !routed.isReplace()) {
+                    continue;
+                }
+            }
+            PropertiesDelta toApply = routed;
+            writes.add(() -> route.destination().applyDelta(toApply));
+        }
+        runAll(writes);
+    }
+
+    /**
+     * Find the rules that apply to a file
+     *
+     * @param name name of the file
+     * @param keys keys in the file
+     * @return the rules, in the order they were added
+     */
+    private List<Route> match(String name, Collection<String> keys) {
+        if (m_routes.isEmpty()) {
+            return List.of();
+        }
+        boolean[] nameMatches = new boolean[m_namePatterns.size()];
+        for (int i = 0; i < nameMatches.length; i++) {
+            nameMatches[i] = m_namePatterns.get(i).matcher(name).matches();
+        }
+        boolean[] keyMatches = new boolean[m_keyPatterns.size()];
+        int unmatched = keyMatches.length;
+        for (String key : keys) {
+            if (unmatched == 0) {
+                break;
+            }
+            for (int i = 0; i < keyMatches.length; i++) {
+                if (!keyMatches[i] && m_keyPatterns.get(i).matcher(key).matches()) {
+                    keyMatches[i] = true;
+                    unmatched--;
+                }
+            }
+        }
+        List<Route> matched = new ArrayList<>();
+        for (Route route : m_routes) {
+            if ((route.namePattern() < 0 || nameMatches[route.namePattern()])
+                    && (route.keyPattern() < 0 || keyMatches[route.keyPattern()])) {
+                matched.add(route);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Record the rules a file is being written by, so later deltas to it go to the same destinations
+     *
+     * @param name   name of the file
+     * @param routes the rules
+     * @return the shared copy of the rules
+     */
+    private List<Route> remember(String name, List<Route> routes) {
+        if (m_routes.isEmpty()) {
+            return routes;
+        }
+        List<Route> shared = m_routeLists.computeIfAbsent(routes, List::copyOf);
+        synchronized (m_fileRoutes) {
+            m_fileRoutes.put(name, shared);
+        }
+        return shared;
+    }
+
+    /**
+     * Run writes to different destinations, in parallel when there is more than one, and wait for all of them
+     *
+     * @param writes the writes
+     */
+    private void runAll(List<Runnable> writes) {
+        if (writes.size() == 1) {
+            writes.get(0).run();
+            return;
+        }
+        List<Future<?>> pending = new ArrayList<>(writes.size());
+        for (Runnable write : writes) {
+            pending.add(m_writers.submit(write));
+        }
+        for (Future<?> write : pending) {
+            try {
+                write.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                Logger.logError("Failed to write routed file: " + e.getCause().getMessage());
+            }
+        }
+    }
+
+    /**
+     * Decide whether a client needs to send the body of a file it offered
+     *
+     * @param fileName    name of the offered file
+     * @param contentHash hash of the offered file contents
+     * @return false if identical contents were recently written under the same name
+     */
+    public boolean isFileRequired(String fileName, String contentHash) {
+        return !m_hashIndex.contains(fileName, contentHash);
+    }
+
+    /**
+     * Close every destination, making sure everything written is on disk
+     */
+    public void close() {
+        m_defaultDestination.close();
+        HashSet<ServerDirectoryManager> closed = new HashSet<>();
+        for (Route route : m_routes) {
+            if (route.destination() != m_defaultDestination && closed.add(route.destination())) {
+                route.destination().close();
+            }
+        }
+    }
+
+    /**
+     * A single rule
+     *
+     * @param name        name of the rule, for messages
+     * @param namePattern position of its name pattern in m_namePatterns, or -1 to match any name
+     * @param keyPattern  position of its key pattern in m_keyPatterns, or -1 to match any file
+     * @param filter      filter applied to the keys written, or null to write every key
+     * @param destination where files the rule applies to are written
+     */
+    private record Route(String name, int namePattern, int keyPattern, RegexFilter filter, ServerDirectoryManager destination) {
+    }
+}
@@ -0,0 +1,119 @@
+package com.server;
+
+import com.utils.Logger.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Accepts client connections on a single address for as long as the server runs. The listening socket is opened once
+ * and kept open, with a deep backlog so that a burst of reconnecting clients is queued by the operating system
+ * rather than refused. Accepted sockets are handed straight to the connection manager, which sets them up on their
+ * own threads so a slow client never holds up the next accept.
+ *
+ * @author Howard Pearce
+ */
+public class Listener extends Thread {
+    /**
+     * Address to listen on
+     */
+    private final InetSocketAddress m_address;
+    /**
+     * How many pending connections the operating system may queue for us
+     */
+    private final int m_backlog;
+    /**
+     * Sets up accepted connections
+     */
+    private final ServerConnectionManager m_connectionManager;
+    /**
+     * How long to wait before trying again after a failure, in ms
+     */
+    private final Integer m_retryPeriod;
+    /**
+     * Socket accepting connections, once bound
+     */
+    private volatile ServerSocket m_serverSocket = null;
+    /**
+     * Set once the listener has been asked to stop
+     */
+    private volatile boolean m_closed = false;
+
+    /**
+     * Create a listener. Call start() to begin accepting.
+     *
+     * @param address           address to listen on
+     * @param backlog           how many pending connections the operating system may queue
+     * @param connectionManager sets up accepted connections
+     * @param retryPeriod       how long to wait before trying again after a failure, in ms
+     */
+    public Listener(InetSocketAddress address, int backlog, ServerConnectionManager connectionManager, Integer retryPeriod) {
+        super("listener-" + address.getPort());
+        this.m_address = address;
+        this.m_backlog = backlog;
+        this.m_connectionManager = connectionManager;
+        this.m_retryPeriod = retryPeriod;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+        while (!m_closed && m_serverSocket == null) {
+            try {
+                ServerSocket serverSocket = new ServerSocket();
+                // lets a restarted server bind while connections from the previous run are still closing
+                serverSocket.setReuseAddress(true);
+                serverSocket.bind(m_address, m_backlog);
+                m_serverSocket = serverSocket;
+            } catch (IOException e) {
+                Logger.logError("Cannot listen on " + m_address + ". Do you have another server running? " + e.getMessage());
+                pause();
+            }
+        }
+        Logger.logInfo("Waiting for connections on " + m_address);
+        while (!m_closed) {
+            try {
+                Socket clientSocket = m_serverSocket.accept();
+                m_connectionManager.createNewConnection(clientSocket);
+            } catch (IOException e) {
+                if (m_closed) {
+                    break;
+                }
+                // typically out of file descriptors; the socket stays open and queued clients wait for us
+                Logger.logError("Error occurred while accepting a connection on " + m_address + ": " + e.getMessage());
+                pause();
+            }
+        }
+        Logger.logInfo("Stopped listening on " + m_address);
+    }
+
+    /**
+     * Wait for the retry period before trying again
+     */
+    private void pause() {
+        try {
+            Thread.sleep(m_retryPeriod);
+        } catch (InterruptedException e) {
+            // checked by the caller through m_closed
+        }
+    }
+
+    /**
+     * Stop accepting connections and close the listening socket
+     */
+    public void close() {
+        m_closed = true;
+        interrupt();
+        try {
+            if (m_serverSocket != null) {
+                m_serverSocket.close();
+            }
+        } catch (IOException e) {
+            Logger.logError("Error occurred while closing listener on " + m_address + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.server;
+
+import com.utils.Files.PropertiesFile.PropertiesFile;
+import com.utils.Files.PropertiesFile.PropertiesParser;
+import com.utils.Logger.Logger;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the current contents of recently merged files, so a file updated many times between flushes is
+ * only written once. Files are loaded from the store the first time they are merged into, changes are applied in
+ * memory, and changed files are written back when flushed or when they are evicted as the least recently used.
+ * <p>
+ * Not thread safe; the owner serializes access.
+ *
+ * @author Howard Pearce
+ */
+public class MergeCache {
+    /**
+     * Where merged files are loaded from and written back to
+     */
+    private final PropertiesStore m_store;
+    /**
+     * Cached files by name, in access order
+     */
+    private final LinkedHashMap<String, Entry> m_entries;
+    /**
+     * Number of changes applied since the last flush
+     */
+    private long m_changes = 0;
+
+    /**
+     * Create an empty cache
+     *
+     * @param store    where merged files are loaded from and written back to
+     * @param capacity most files to keep in memory
+     */
+    public MergeCache(PropertiesStore store, int capacity) {
+        this.m_store = store;
+        this.m_entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                // keep a file that cannot be written, so the next flush tries again
+                return !eldest.getValue().m_dirty || write(eldest.getKey(), eldest.getValue());
+            }
+        };
+    }
+
+    /**
+     * Get the current contents of a file for changing, loading them from the store if they are not cached. The file
+     * is marked as changed.
+     *
+     * @param name name of the file
+     * @return the contents, which the caller may change until it next calls into the cache
+     * @throws IOException if the file cannot be loaded
+     */
+    public HashMap<String, String> edit(String name) throws IOException {
+        Entry entry = m_entries.get(name);
+        if (entry == null) {
+            String stored = m_store.read(name);
+            entry = new Entry(stored == null ? new HashMap<>() : new PropertiesParser(stored).parse());
+            m_entries.put(name, entry);
+        }
+        entry.m_dirty = true;
+        m_changes++;
+        return entry.m_contents;
+    }
+
+    /**
+     * Write every changed file back to the store
+     */
+    public void flush() {
+        long start = System.nanoTime();
+        int written = 0;
+        for (Map.Entry<String, Entry> entry : m_entries.entrySet()) {
+            if (entry.getValue().m_dirty && write(entry.getKey(), entry.getValue())) {
+                written++;
+            }
+        }
+        if (written > 0) {
+            Logger.logDebug("Flushed " + written + " merged file(s) covering " + m_changes + " change(s) in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        }
+        m_changes = 0;
+    }
+
+    /**
+     * Write a cached file back to the store
+     *
+     * @param name  name of the file
+     * @param entry the cached file
+     * @return true if it was written
+     */
+    private boolean write(String name, Entry entry) {
+        try {
+            m_store.replace(name, new PropertiesFile(entry.m_contents, name).renderAsFile());
+            entry.m_dirty = false;
+            return true;
+        } catch (IOException e) {
+            Logger.logError("Failed to write merged file '" + name + "': " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * A single cached file
+     */
+    private static class Entry {
+        /**
+         * Current contents of the file
+         */
+        final HashMap<String, String> m_contents;
+        /**
+         * True if the contents have changed since they were last written
+         */
+        boolean m_dirty = false;
+
+        /**
+         * Cache a file
+         *
+         * @param contents current contents of the file
+         */
+        Entry(HashMap<String, String> contents) {
+            this.m_contents = contents;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the content hash of recently persisted files so duplicate offers can be turned away before the body is sent.
+ * Bounded so that the index cannot grow without limit; the least recently used entries are forgotten first.
+ *
+ * @author Howard Pearce
+ */
+public class PersistedHashIndex {
+    /**
+     * File name mapped to the hash of the contents last persisted under that name, kept in access order
+     */
+    private final LinkedHashMap<String, String> m_hashes;
+
+    /**
+     * Create an empty index
+     *
+     * @param capacity maximum number of file names to remember
+     */
+    public PersistedHashIndex(int capacity) {
+        this.m_hashes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Record that contents with the given hash were persisted under the given name
+     *
+     * @param fileName    name the contents were written under
+     * @param contentHash hash of the persisted contents
+     */
+    public synchronized void record(String fileName, String contentHash) {
+        m_hashes.put(fileName, contentHash);
+    }
+
+    /**
+     * Check if identical contents were recently persisted under the given name
+     *
+     * @param fileName    name of the offered file
+     * @param contentHash hash of the offered contents
+     * @return true if the same contents are already stored under that name
+     */
+    public synchronized boolean contains(String fileName, String contentHash) {
+        return contentHash != null && contentHash.equals(m_hashes.get(fileName));
+    }
+}
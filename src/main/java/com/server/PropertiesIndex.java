@@ -0,0 +1,509 @@
+package com.server;
+
+import com.utils.Files.PropertiesFile.PropertiesParser;
+import com.utils.Logger.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index from property keys to the stored files that set them, kept up to date as files are stored.
+ * File names and keys are each stored once and referred to by number, and each key's postings are a sorted array of
+ * file numbers, so the index stays small enough for tens of millions of entries. For each key the value most recently
+ * stored is also kept.
+ * <p>
+ * The index is checkpointed to disk on an interval and when the server stops. At startup the checkpoint is loaded and
+ * only files the store reports as changed since it was taken are read again.
+ * <p>
+ * Thread safe. Queries share a read lock, so they only wait on updates.
+ *
+ * @author Howard Pearce
+ */
+public class PropertiesIndex {
+    /**
+     * Version written at the start of a checkpoint, changed whenever its layout does
+     */
+    private static final int CHECKPOINT_VERSION = 1;
+    /**
+     * How far before a checkpoint was taken to look for changed files, in ms. Covers filesystems that only record
+     * modification times to the second, and writes still in progress when the checkpoint was taken.
+     */
+    private static final long CATCH_UP_MARGIN = 5000;
+    /**
+     * Guards everything below
+     */
+    private final ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
+    /**
+     * Number of each file name
+     */
+    private final HashMap<String, Integer> m_fileIds = new HashMap<>();
+    /**
+     * File names, by number
+     */
+    private final ArrayList<String> m_fileNames = new ArrayList<>();
+    /**
+     * Sorted numbers of the keys each file sets, by file number
+     */
+    private final ArrayList<int[]> m_fileKeys = new ArrayList<>();
+    /**
+     * Number of each key
+     */
+    private final HashMap<String, Integer> m_keyIds = new HashMap<>();
+    /**
+     * Keys, by number
+     */
+    private final ArrayList<String> m_keys = new ArrayList<>();
+    /**
+     * Files setting each key, by key number
+     */
+    private final ArrayList<Postings> m_postings = new ArrayList<>();
+    /**
+     * Where the index is checkpointed to
+     */
+    private final Path m_checkpointPath;
+
+    /**
+     * Open the index, loading its last checkpoint and reading any files stored since
+     *
+     * @param checkpointPath     where the index is checkpointed to
+     * @param store              the store to catch up from
+     * @param checkpointInterval how often to checkpoint the index, in ms. 0 to only checkpoint when the server stops
+     * @throws IOException if the store cannot be read
+     */
+    public PropertiesIndex(Path checkpointPath, PropertiesStore store, long checkpointInterval) throws IOException {
+        this.m_checkpointPath = checkpointPath;
+        long start = System.nanoTime();
+        long since = Long.MIN_VALUE;
+        if (Files.exists(checkpointPath)) {
+            try {
+                since = loadCheckpoint() - CATCH_UP_MARGIN;
+            } catch (IOException e) {
+                Logger.logError("Failed to load index checkpoint. Rebuilding the index: " + e.getMessage());
+                clear();
+            }
+        }
+        int[] changed = new int[1];
+        store.forEachChangedSince(since, (name, contents) -> {
+            try {
+                update(name, new PropertiesParser(contents).parse());
+                changed[0]++;
+            } catch (FileNotFoundException e) {
+                // cannot happen when parsing text that has already been read
+            }
+        });
+        Logger.logInfo("Indexed " + m_keys.size() + " key(s) over " + m_fileNames.size() + " file(s), reading "
+                + changed[0] + " file(s), in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        if (checkpointInterval > 0) {
+            Thread checkpointer = new Thread(() -> runCheckpointer(checkpointInterval), "index-checkpointer");
+            checkpointer.setDaemon(true);
+            checkpointer.start();
+        }
+    }
+
+    /**
+     * Record the contents of a file that was just stored, replacing whatever it held before
+     *
+     * @param name     name of the file
+     * @param contents keys and values now in the file
+     */
+    public void update(String name, Map<String, String> contents) {
+        m_lock.writeLock().lock();
+        try {
+            int file = m_fileIds.computeIfAbsent(name, added -> {
+                m_fileNames.add(added);
+                m_fileKeys.add(new int[0]);
+                return m_fileNames.size() - 1;
+            });
+            int[] keys = new int[contents.size()];
+            int count = 0;
+            for (Map.Entry<String, String> entry : contents.entrySet()) {
+                int key = m_keyIds.computeIfAbsent(keyOf(entry.getKey()), added -> {
+                    m_keys.add(added);
+                    m_postings.add(new Postings());
+                    return m_keys.size() - 1;
+                });
+                Postings postings = m_postings.get(key);
+                postings.add(file);
+                postings.m_latestFile = file;
+                postings.m_latestValue = entry.getValue();
+                keys[count++] = key;
+            }
+            Arrays.sort(keys);
+            for (int key : m_fileKeys.get(file)) {
+                if (Arrays.binarySearch(keys, key) < 0) {
+                    Postings postings = m_postings.get(key);
+                    postings.remove(file);
+                    if (postings.m_latestFile == file) {
+                        // the value the key held in other files is not kept
+                        postings.m_latestFile = -1;
+                        postings.m_latestValue = null;
+                    }
+                }
+            }
+            m_fileKeys.set(file, keys);
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the files that set a key
+     *
+     * @param key   the key
+     * @param limit most file names to return
+     * @return names of the files, in the order they were first stored
+     */
+    public List<String> getFiles(String key, int limit) {
+        m_lock.readLock().lock();
+        try {
+            Integer id = m_keyIds.get(key);
+            if (id == null) {
+                return List.of();
+            }
+            Postings postings = m_postings.get(id);
+            List<String> files = new ArrayList<>(Math.min(limit, postings.m_size));
+            for (int i = 0; i < postings.m_size && files.size() < limit; i++) {
+                files.add(m_fileNames.get(postings.m_files[i]));
+            }
+            return files;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count the files that set a key
+     *
+     * @param key the key
+     * @return number of files
+     */
+    public int countFiles(String key) {
+        m_lock.readLock().lock();
+        try {
+            Integer id = m_keyIds.get(key);
+            return id == null ? 0 : m_postings.get(id).m_size;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the value most recently stored for a key
+     *
+     * @param key the key
+     * @return the name of the file and the value, or null if not known
+     */
+    public Map.Entry<String, String> getLatest(String key) {
+        m_lock.readLock().lock();
+        try {
+            Integer id = m_keyIds.get(key);
+            if (id == null || m_postings.get(id).m_latestFile < 0) {
+                return null;
+            }
+            Postings postings = m_postings.get(id);
+            return Map.entry(m_fileNames.get(postings.m_latestFile), postings.m_latestValue);
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the size of the index
+     *
+     * @return the number of files and the number of keys
+     */
+    public int[] getCounts() {
+        m_lock.readLock().lock();
+        try {
+            return new int[]{m_fileNames.size(), m_keys.size()};
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checkpoint the index on an interval. Runs on its own thread.
+     *
+     * @param interval how often to checkpoint, in ms
+     */
+    private void runCheckpointer(long interval) {
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            checkpoint();
+        }
+    }
+
+    /**
+     * Write the whole index to disk, replacing the last checkpoint once the new one is complete. The index is copied
+     * under the read lock and written out after releasing it, so updates only wait for the copy and not for the disk.
+     * The copy is shallow: the key arrays of files are replaced rather than changed by updates, so they can be shared.
+     * Only one checkpoint is written at a time, since they share a temporary file.
+     */
+    public synchronized void checkpoint() {
+        long start = System.currentTimeMillis();
+        List<String> fileNames;
+        List<int[]> fileKeys;
+        List<String> keys;
+        int[] latestFiles;
+        String[] latestValues;
+        m_lock.readLock().lock();
+        try {
+            fileNames = new ArrayList<>(m_fileNames);
+            fileKeys = new ArrayList<>(m_fileKeys);
+            keys = new ArrayList<>(m_keys);
+            latestFiles = new int[m_postings.size()];
+            latestValues = new String[m_postings.size()];
+            for (int key = 0; key < latestFiles.length; key++) {
+                latestFiles[key] = m_postings.get(key).m_latestFile;
+                latestValues[key] = m_postings.get(key).m_latestValue;
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+        Path temporary = Path.of(m_checkpointPath + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temporary.toFile());
+             DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(output, 1 << 16))) {
+            writer.writeInt(CHECKPOINT_VERSION);
+            writer.writeLong(start);
+            writer.writeInt(fileNames.size());
+            for (int file = 0; file < fileNames.size(); file++) {
+                writeString(writer, fileNames.get(file));
+                int[] fileKeyIds = fileKeys.get(file);
+                writer.writeInt(fileKeyIds.length);
+                for (int key : fileKeyIds) {
+                    writer.writeInt(key);
+                }
+            }
+            writer.writeInt(keys.size());
+            for (int key = 0; key < keys.size(); key++) {
+                writeString(writer, keys.get(key));
+                writer.writeInt(latestFiles[key]);
+                writeString(writer, latestValues[key] == null ? "" : latestValues[key]);
+            }
+            writer.flush();
+            output.getFD().sync();
+        } catch (IOException e) {
+            Logger.logError("Failed to checkpoint index: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temporary, m_checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Logger.logDebug("Checkpointed index in " + (System.currentTimeMillis() - start) + " ms.");
+        } catch (IOException e) {
+            Logger.logError("Failed to checkpoint index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load the last checkpoint, rebuilding the postings from the keys each file sets
+     *
+     * @return the time the checkpoint was taken, in ms
+     * @throws IOException if the checkpoint cannot be read
+     */
+    private long loadCheckpoint() throws IOException {
+        // no count or length read from a sound checkpoint can describe more bytes than the whole file holds
+        long size = Files.size(m_checkpointPath);
+        try (DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(m_checkpointPath.toFile()), 1 << 16))) {
+            if (reader.readInt() != CHECKPOINT_VERSION) {
+                throw new IOException("Checkpoint was written by a different version.");
+            }
+            long taken = reader.readLong();
+            int files = readCount(reader, Integer.BYTES, size);
+            for (int file = 0; file < files; file++) {
+                String name = readString(reader, size);
+                int[] keys = new int[readCount(reader, Integer.BYTES, size)];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = reader.readInt();
+                }
+                m_fileIds.put(name, file);
+                m_fileNames.add(name);
+                m_fileKeys.add(keys);
+            }
+            int keys = readCount(reader, Integer.BYTES, size);
+            for (int key = 0; key < keys; key++) {
+                String name = readString(reader, size);
+                Postings postings = new Postings();
+                postings.m_latestFile = reader.readInt();
+                String value = readString(reader, size);
+                postings.m_latestValue = postings.m_latestFile < 0 ? null : value;
+                m_keyIds.put(name, key);
+                m_keys.add(name);
+                m_postings.add(postings);
+            }
+            // files are visited in number order, so every postings array is built already sorted
+            for (int file = 0; file < files; file++) {
+                for (int key : m_fileKeys.get(file)) {
+                    m_postings.get(key).append(file);
+                }
+            }
+            return taken;
+        } catch (RuntimeException e) {
+            // a key or file number that points nowhere
+            throw new IOException("Checkpoint is corrupt: " + e);
+        }
+    }
+
+    /**
+     * Get a key as queries refer to it. Parsed keys keep the = or : that separated them from their value.
+     *
+     * @param parsedKey the key as parsed
+     * @return the key without its separator
+     */
+    private static String keyOf(String parsedKey) {
+        if (parsedKey.endsWith("=") || parsedKey.endsWith(":")) {
+            return parsedKey.substring(0, parsedKey.length() - 1).trim();
+        }
+        return parsedKey.trim();
+    }
+
+    /**
+     * Empty the index
+     */
+    private void clear() {
+        m_fileIds.clear();
+        m_fileNames.clear();
+        m_fileKeys.clear();
+        m_keyIds.clear();
+        m_keys.clear();
+        m_postings.clear();
+    }
+
+    /**
+     * Write a string of any length
+     *
+     * @param writer stream to write to
+     * @param value  the string
+     * @throws IOException if it cannot be written
+     */
+    private static void writeString(DataOutputStream writer, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writer.writeInt(bytes.length);
+        writer.write(bytes);
+    }
+
+    /**
+     * Read a count or length from a checkpoint, checking it could fit in the file
+     *
+     * @param reader    stream to read from
+     * @param bytesEach smallest number of bytes each counted item takes up
+     * @param size      size of the checkpoint file, in bytes
+     * @return the count
+     * @throws IOException if it cannot be read, or is negative or too large to be genuine
+     */
+    private static int readCount(DataInputStream reader, int bytesEach, long size) throws IOException {
+        int count = reader.readInt();
+        if (count < 0 || (long) count * bytesEach > size) {
+            throw new IOException("Checkpoint is corrupt: count " + count + " does not fit in " + size + " byte(s).");
+        }
+        return count;
+    }
+
+    /**
+     * Read a string written by writeString
+     *
+     * @param reader stream to read from
+     * @param size   size of the checkpoint file, in bytes
+     * @return the string
+     * @throws IOException if it cannot be read, or its length is damaged
+     */
+    private static String readString(DataInputStream reader, long size) throws IOException {
+        byte[] bytes = new byte[readCount(reader, 1, size)];
+        reader.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Files setting a single key, and the value it was last stored with
+     */
+    private static class Postings {
+        /**
+         * Sorted numbers of the files setting the key. Only the first m_size are in use.
+         */
+        int[] m_files = new int[2];
+        /**
+         * Number of files setting the key
+         */
+        int m_size = 0;
+        /**
+         * Number of the file the key was last stored in, or -1 if not known
+         */
+        int m_latestFile = -1;
+        /**
+         * Value the key was last stored with
+         */
+        String m_latestValue = null;
+
+        /**
+         * Add a file, keeping the array sorted. New files have the highest numbers, so this is usually an append.
+         *
+         * @param file number of the file
+         */
+        void add(int file) {
+            if (m_size > 0 && m_files[m_size - 1] < file) {
+                append(file);
+                return;
+            }
+            int position = Arrays.binarySearch(m_files, 0, m_size, file);
+            if (position >= 0) {
+                return;
+            }
+            position = -position - 1;
+            grow();
+            System.arraycopy(m_files, position, m_files, position + 1, m_size - position);
+            m_files[position] = file;
+            m_size++;
+        }
+
+        /**
+         * Add a file known to have a higher number than any already present
+         *
+         * @param file number of the file
+         */
+        void append(int file) {
+            grow();
+            m_files[m_size++] = file;
+        }
+
+        /**
+         * Remove a file if present
+         *
+         * @param file number of the file
+         */
+        void remove(int file) {
+            int position = Arrays.binarySearch(m_files, 0, m_size, file);
+            if (position >= 0) {
+                System.arraycopy(m_files, position + 1, m_files, position, m_size - position - 1);
+                m_size--;
+            }
+        }
+
+        /**
+         * Make room for one more file
+         */
+        private void grow() {
+            if (m_size == m_files.length) {
+                m_files = Arrays.copyOf(m_files, m_size + (m_size >> 1) + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.server;
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+
+/**
+ * Somewhere the server keeps the properties files it receives, by name. Names are relative to the store and use / as
+ * the separator. Callers serialize writes to the same name.
+ *
+ * @author Howard Pearce
+ */
+public interface PropertiesStore {
+    /**
+     * Check whether a file is held under a name
+     *
+     * @param name name of the file
+     * @return true if a file is held under the name
+     */
+    boolean exists(String name);
+
+    /**
+     * Store a new file. The caller has checked that no file is held under the name.
+     *
+     * @param name     name of the file
+     * @param contents contents of the file
+     * @throws IOException if the file cannot be stored
+     */
+    void create(String name, String contents) throws IOException;
+
+    /**
+     * Store a file, replacing whatever is held under the name
+     *
+     * @param name     name of the file
+     * @param contents new contents of the file
+     * @throws IOException if the file cannot be stored
+     */
+    void replace(String name, String contents) throws IOException;
+
+    /**
+     * Get the contents of a file
+     *
+     * @param name name of the file
+     * @return the contents, or null if no file is held under the name
+     * @throws IOException if the file cannot be read
+     */
+    String read(String name) throws IOException;
+
+    /**
+     * Hand the name and contents of every file that may have changed since a given time to a consumer. May include
+     * files that have not changed, but never leaves out one that has.
+     *
+     * @param since    time in ms, or Long.MIN_VALUE for every file
+     * @param consumer given the name and contents of each file
+     * @throws IOException if the store cannot be read
+     */
+    void forEachChangedSince(long since, BiConsumer<String, String> consumer) throws IOException;
+
+    /**
+     * Make sure everything stored so far is on disk and release any resources held
+     */
+    void close();
+}
@@ -0,0 +1,157 @@
+package com.server;
+
+import com.utils.Logger.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers queries against the properties index over a line based protocol on the loopback interface. Each request is
+ * a single line, and each response is a status line followed by the number of lines it gives:
+ * <pre>
+ * FILES key [limit]  -&gt; OK shown total, then one file name per line
+ * LATEST key         -&gt; OK 1, then the file name and value separated by a tab, or OK 0 if not known
+ * COUNT key          -&gt; OK count
+ * STATS              -&gt; OK files keys
+ * anything else      -&gt; ERROR message
+ * </pre>
+ * Values have backslashes, carriage returns and newlines escaped so every result fits on one line.
+ *
+ * @author Howard Pearce
+ */
+public class QueryServer extends Thread {
+    /**
+     * Most file names returned when a request does not give a limit
+     */
+    private static final int DEFAULT_LIMIT = 1000;
+    /**
+     * The index to answer queries from
+     */
+    private final PropertiesIndex m_index;
+    /**
+     * Port to listen on
+     */
+    private final int m_port;
+    /**
+     * Source of ids for query connections
+     */
+    private final AtomicLong m_nextId = new AtomicLong();
+
+    /**
+     * Create a query server. Call start() to begin listening.
+     *
+     * @param index the index to answer queries from
+     * @param port  port to listen on
+     */
+    public QueryServer(PropertiesIndex index, int port) {
+        super("query-listener");
+        setDaemon(true);
+        this.m_index = index;
+        this.m_port = port;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+        try (ServerSocket serverSocket = new ServerSocket()) {
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), m_port));
+            Logger.logInfo("Answering index queries on " + serverSocket.getLocalSocketAddress());
+            while (true) {
+                Socket socket = serverSocket.accept();
+                Thread handler = new Thread(() -> handle(socket), "query-" + m_nextId.getAndIncrement());
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (IOException e) {
+            Logger.logError("Stopped answering index queries: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Answer requests from a single connection until it closes
+     *
+     * @param socket the connection
+     */
+    private void handle(Socket socket) {
+        try (socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String request;
+            while ((request = reader.readLine()) != null) {
+                if (!request.isBlank()) {
+                    answer(request.trim(), writer);
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            Logger.logDebug("Query connection closed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Answer a single request
+     *
+     * @param request the request line
+     * @param writer  where to write the response
+     * @throws IOException if the response cannot be written
+     */
+    private void answer(String request, Writer writer) throws IOException {
+        String[] parts = request.split("\\s+");
+        String command = parts[0].toUpperCase();
+        if (command.equals("STATS") && parts.length == 1) {
+            int[] counts = m_index.getCounts();
+            writer.write("OK " + counts[0] + " " + counts[1] + "\n");
+        } else if (command.equals("COUNT") && parts.length == 2) {
+            writer.write("OK " + m_index.countFiles(parts[1]) + "\n");
+        } else if (command.equals("LATEST") && parts.length == 2) {
+            Map.Entry<String, String> latest = m_index.getLatest(parts[1]);
+            if (latest == null) {
+                writer.write("OK 0\n");
+            } else {
+                writer.write("OK 1\n" + latest.getKey() + "\t" + escape(latest.getValue()) + "\n");
+            }
+        } else if (command.equals("FILES") && (parts.length == 2 || parts.length == 3)) {
+            int limit;
+            try {
+                limit = parts.length == 3 ? Integer.parseInt(parts[2]) : DEFAULT_LIMIT;
+            } catch (NumberFormatException e) {
+                writer.write("ERROR Limit must be a number.\n");
+                return;
+            }
+            List<String> files = m_index.getFiles(parts[1], Math.max(0, limit));
+            StringBuilder response = new StringBuilder();
+            response.append("OK ").append(files.size()).append(' ').append(m_index.countFiles(parts[1])).append('\n');
+            for (String file : files) {
+                response.append(file).append('\n');
+            }
+            writer.write(response.toString());
+        } else {
+            writer.write("ERROR Unknown request. Expected FILES key [limit], LATEST key, COUNT key or STATS.\n");
+        }
+    }
+
+    /**
+     * Escape a value so it fits on one line
+     *
+     * @param value the value
+     * @return the escaped value
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n");
+    }
+}
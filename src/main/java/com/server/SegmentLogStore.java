@@ -0,0 +1,640 @@
+package com.server;
+
+import com.utils.Logger.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Stores files as records appended to large segment files, so that storing a file costs a single write instead of
+ * creating, writing and closing a file of its own. An in-memory index maps each name to where its latest record is.
+ * <p>
+ * Each record is a length, a CRC32 of the rest of the record, the length of the name, the name and the contents, with
+ * the name and contents in UTF-8. Once the active segment reaches the configured size it is synced, an index of the
+ * records it holds is written next to it so it never needs scanning again, and a new segment is started. A background
+ * thread rewrites sealed segments that are mostly stale records, keeping only the records still in use. At startup the
+ * sealed segments' indexes are loaded and the active segment is scanned, dropping any record cut short by a crash.
+ * <p>
+ * Each segment also keeps the names whose latest record it holds, so sealing, compacting or catching up on a segment
+ * only looks at its own names rather than walking the whole index under the lock.
+ * <p>
+ * Thread safe.
+ *
+ * @author Howard Pearce
+ */
+public class SegmentLogStore implements PropertiesStore {
+    /**
+     * Start of every segment's file name, followed by its number
+     */
+    private static final String SEGMENT_PREFIX = "segment-";
+    /**
+     * Extension of segment files
+     */
+    private static final String SEGMENT_EXTENSION = ".log";
+    /**
+     * Extension of the index written next to a sealed segment
+     */
+    private static final String INDEX_EXTENSION = ".idx";
+    /**
+     * Extension of a file being written to replace another
+     */
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    /**
+     * Bytes before the body of a record: its length and CRC
+     */
+    private static final int HEADER_SIZE = 8;
+    /**
+     * Largest record body written. Anything bigger found when scanning is taken to be corruption.
+     */
+    private static final int MAX_BODY_SIZE = 256 * 1024 * 1024;
+    /**
+     * The directory segments are kept in
+     */
+    private final Path m_directory;
+    /**
+     * Size at which the active segment is sealed and a new one started, in bytes
+     */
+    private final long m_segmentSize;
+    /**
+     * True if the store was opened only to be read, and must not change anything on disk
+     */
+    private final boolean m_readOnly;
+    /**
+     * Where the latest record for each name is
+     */
+    private final HashMap<String, Location> m_index = new HashMap<>();
+    /**
+     * Every segment, by number
+     */
+    private final TreeMap<Long, Segment> m_segments = new TreeMap<>();
+    /**
+     * The segment records are appended to
+     */
+    private Segment m_active;
+    /**
+     * Open channel to the end of the active segment
+     */
+    private FileChannel m_writer;
+    /**
+     * Thread that compacts sealed segments, or null if compaction is off
+     */
+    private Thread m_compactor = null;
+    /**
+     * Set once the store has been closed
+     */
+    private volatile boolean m_closed = false;
+
+    /**
+     * Open a store, loading the index of every segment already in the directory
+     *
+     * @param directory       the directory segments are kept in
+     * @param segmentSize     size at which the active segment is sealed and a new one started, in bytes
+     * @param compactInterval how often to look for segments worth compacting, in ms. 0 to never compact
+     * @param readOnly        true to only read the store, leaving everything on disk as it is. Not safe while a
+     *                        server is writing to the same directory, since compaction rewrites sealed segments in
+     *                        place.
+     * @throws IOException if the directory or its segments cannot be read
+     */
+    public SegmentLogStore(Path directory, long segmentSize, long compactInterval, boolean readOnly) throws IOException {
+        this.m_directory = directory;
+        this.m_segmentSize = segmentSize;
+        this.m_readOnly = readOnly;
+        long start = System.nanoTime();
+        load();
+        Logger.logInfo("Loaded " + m_index.size() + " record(s) from " + m_segments.size() + " segment(s) in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        if (!readOnly) {
+            m_writer = FileChannel.open(m_active.m_path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            m_writer.position(m_active.m_size);
+            if (compactInterval > 0) {
+                m_compactor = new Thread(() -> runCompactor(compactInterval), "log-compactor");
+                m_compactor.setDaemon(true);
+                m_compactor.start();
+            }
+        }
+    }
+
+    /**
+     * Find the segments in the directory and rebuild the index from them
+     *
+     * @throws IOException if the segments cannot be read
+     */
+    private void load() throws IOException {
+        if (!m_readOnly) {
+            Files.createDirectories(m_directory);
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(m_directory, SEGMENT_PREFIX + "*")) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.endsWith(TEMPORARY_EXTENSION) && !m_readOnly) {
+                    // left behind by a compaction or index write that never finished
+                    Files.delete(entry);
+                } else if (name.endsWith(SEGMENT_EXTENSION)) {
+                    long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_EXTENSION.length()));
+                    m_segments.put(id, new Segment(id));
+                }
+            }
+        }
+        if (m_segments.isEmpty()) {
+            m_segments.put(0L, new Segment(0));
+        }
+        m_active = m_segments.lastEntry().getValue();
+        // later segments hold later records, so loading in order leaves the index pointing at the latest of each
+        for (Segment segment : m_segments.values()) {
+            if (segment != m_active && Files.exists(indexPathOf(segment))) {
+                loadIndex(segment);
+            } else {
+                scan(segment);
+            }
+        }
+        for (Map.Entry<String, Location> entry : m_index.entrySet()) {
+            Segment segment = m_segments.get(entry.getValue().segment());
+            segment.m_live += entry.getValue().length();
+            segment.m_names.add(entry.getKey());
+        }
+    }
+
+    /**
+     * Add the records listed in a sealed segment's index to the index
+     *
+     * @param segment the segment
+     * @throws IOException if the index cannot be read
+     */
+    private void loadIndex(Segment segment) throws IOException {
+        segment.m_size = Files.size(segment.m_path);
+        try (DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(indexPathOf(segment).toFile())))) {
+            while (true) {
+                String name = reader.readUTF();
+                long offset = reader.readLong();
+                int length = reader.readInt();
+                m_index.put(name, new Location(segment.m_id, offset, length));
+            }
+        } catch (EOFException e) {
+            // reached the end
+        }
+    }
+
+    /**
+     * Read every record in a segment and add it to the index. A record that is cut short or fails its CRC ends the
+     * scan, and is cut off the active segment so appends carry on from the last good record.
+     *
+     * @param segment the segment
+     * @throws IOException if the segment cannot be read
+     */
+    private void scan(Segment segment) throws IOException {
+        if (!Files.exists(segment.m_path)) {
+            return;
+        }
+        long offset = 0;
+        try (DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.m_path.toFile())))) {
+            while (true) {
+                int bodyLength;
+                try {
+                    bodyLength = reader.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int crc = reader.readInt();
+                if (bodyLength < 4 || bodyLength > MAX_BODY_SIZE) {
+                    throw new IOException("Invalid record length " + bodyLength);
+                }
+                byte[] body = new byte[bodyLength];
+                reader.readFully(body);
+                if (crcOf(body, 0, bodyLength) != crc) {
+                    throw new IOException("CRC mismatch");
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(body);
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                m_index.put(new String(name, StandardCharsets.UTF_8), new Location(segment.m_id, offset, HEADER_SIZE + bodyLength));
+                offset += HEADER_SIZE + bodyLength;
+            }
+        } catch (IOException | RuntimeException e) {
+            Logger.logError("Segment '" + segment.m_path + "' ends in a damaged record at offset " + offset + ". Ignoring the rest of it: "
+                    + (e instanceof EOFException ? "record is cut short" : e.getMessage()));
+            if (segment == m_active && !m_readOnly) {
+                try (FileChannel channel = FileChannel.open(segment.m_path, StandardOpenOption.WRITE)) {
+                    channel.truncate(offset);
+                }
+            }
+        }
+        segment.m_size = offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean exists(String name) {
+        return m_index.containsKey(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void create(String name, String contents) throws IOException {
+        append(name, contents);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void replace(String name, String contents) throws IOException {
+        append(name, contents);
+    }
+
+    /**
+     * Append a record to the active segment and point the index at it, sealing the segment first if the record would
+     * take it past the segment size
+     *
+     * @param name     name of the file
+     * @param contents contents of the file
+     * @throws IOException if the record cannot be written
+     */
+    private synchronized void append(String name, String contents) throws IOException {
+        if (m_readOnly || m_closed) {
+            throw new IOException("Log store is not open for writing.");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] contentBytes = contents.getBytes(StandardCharsets.UTF_8);
+        long bodyLength = 4L + nameBytes.length + contentBytes.length;
+        if (bodyLength > MAX_BODY_SIZE) {
+            // a longer record would be taken for a damaged one, and cut off with everything after it, on the next start
+            throw new IOException("'" + name + "' is too large for the log store: " + bodyLength + " byte(s), at most " + MAX_BODY_SIZE + " allowed.");
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + (int) bodyLength);
+        record.putInt((int) bodyLength).putInt(0).putInt(nameBytes.length).put(nameBytes).put(contentBytes);
+        record.putInt(4, crcOf(record.array(), HEADER_SIZE, (int) bodyLength));
+        record.flip();
+        if (m_active.m_size > 0 && m_active.m_size + record.remaining() > m_segmentSize) {
+            roll();
+        }
+        long offset = m_active.m_size;
+        try {
+            while (record.hasRemaining()) {
+                m_writer.write(record);
+            }
+        } catch (IOException e) {
+            // leave the next record where this one should have started, so a partial write is overwritten
+            m_writer.position(offset);
+            throw e;
+        }
+        m_active.m_size += record.limit();
+        Location previous = m_index.put(name, new Location(m_active.m_id, offset, record.limit()));
+        if (previous != null) {
+            Segment segment = m_segments.get(previous.segment());
+            segment.m_live -= previous.length();
+            segment.m_names.remove(name);
+        }
+        m_active.m_live += record.limit();
+        m_active.m_names.add(name);
+    }
+
+    /**
+     * Seal the active segment and start a new one. The new segment is created before anything is changed, and if the
+     * active segment cannot be sealed it stays active, so a failure leaves the store able to carry on appending.
+     *
+     * @throws IOException if the segment cannot be synced or the new one created
+     */
+    private void roll() throws IOException {
+        Segment next = new Segment(m_active.m_id + 1);
+        FileChannel nextWriter = FileChannel.open(next.m_path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            m_writer.force(true);
+            writeIndex(m_active);
+        } catch (IOException e) {
+            nextWriter.close();
+            Files.deleteIfExists(next.m_path);
+            throw e;
+        }
+        try {
+            m_writer.close();
+        } catch (IOException e) {
+            // everything in it has already been synced
+            Logger.logError("Failed to close log segment " + m_active.m_id + ": " + e.getMessage());
+        }
+        m_segments.put(next.m_id, next);
+        m_active = next;
+        m_writer = nextWriter;
+        Logger.logDebug("Started log segment " + next.m_id + ".");
+    }
+
+    /**
+     * Write the index of a sealed segment, listing the records in it that are still in use
+     *
+     * @param segment the segment
+     * @throws IOException if the index cannot be written
+     */
+    private void writeIndex(Segment segment) throws IOException {
+        Path temporary = Path.of(indexPathOf(segment) + TEMPORARY_EXTENSION);
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+             DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(file))) {
+            for (String name : segment.m_names) {
+                Location location = m_index.get(name);
+                writer.writeUTF(name);
+                writer.writeLong(location.offset());
+                writer.writeInt(location.length());
+            }
+            writer.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, indexPathOf(segment), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String read(String name) throws IOException {
+        Location location = m_index.get(name);
+        if (location == null) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(location.length());
+        FileChannel reader = m_segments.get(location.segment()).reader();
+        while (record.hasRemaining()) {
+            if (reader.read(record, location.offset() + record.position()) < 0) {
+                throw new IOException("Record for '" + name + "' is cut short.");
+            }
+        }
+        int nameLength = record.getInt(HEADER_SIZE);
+        int contentStart = HEADER_SIZE + 4 + nameLength;
+        return new String(record.array(), contentStart, location.length() - contentStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Decided from the modification time of each segment, so records in segments untouched since are skipped.
+     */
+    @Override
+    public void forEachChangedSince(long since, BiConsumer<String, String> consumer) throws IOException {
+        List<String> changed = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : m_segments.values()) {
+                if (!Files.exists(segment.m_path) || Files.getLastModifiedTime(segment.m_path).toMillis() >= since) {
+                    changed.addAll(segment.m_names);
+                }
+            }
+        }
+        for (String name : changed) {
+            String contents = read(name);
+            if (contents != null) {
+                consumer.accept(name, contents);
+            }
+        }
+    }
+
+    /**
+     * Get the name of every file in the store
+     *
+     * @return the names, in no particular order
+     */
+    public synchronized List<String> getNames() {
+        return new ArrayList<>(m_index.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close() {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        if (m_compactor != null) {
+            m_compactor.interrupt();
+        }
+        try {
+            if (m_writer != null) {
+                m_writer.force(true);
+                m_writer.close();
+            }
+        } catch (IOException e) {
+            Logger.logError("Failed to sync log segment: " + e.getMessage());
+        }
+        for (Segment segment : m_segments.values()) {
+            segment.closeReader();
+        }
+    }
+
+    /**
+     * Compact sealed segments on an interval until the store is closed. Runs on its own thread.
+     *
+     * @param interval how often to look for segments worth compacting, in ms
+     */
+    private void runCompactor(long interval) {
+        while (!m_closed) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<Segment> candidates = new ArrayList<>();
+            synchronized (this) {
+                for (Segment segment : m_segments.values()) {
+                    if (segment != m_active && segment.m_live * 2 < segment.m_size) {
+                        candidates.add(segment);
+                    }
+                }
+            }
+            for (Segment segment : candidates) {
+                try {
+                    compact(segment);
+                } catch (IOException e) {
+                    Logger.logError("Failed to compact log segment " + segment.m_id + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrite a sealed segment with only the records still in use. The copy is made without holding the lock, since
+     * sealed segments never change, and swapped in under it; records replaced during the copy are left stale.
+     *
+     * @param segment the segment
+     * @throws IOException if the segment cannot be rewritten
+     */
+    private void compact(Segment segment) throws IOException {
+        List<Map.Entry<String, Location>> live = new ArrayList<>();
+        synchronized (this) {
+            for (String name : segment.m_names) {
+                live.add(Map.entry(name, m_index.get(name)));
+            }
+            if (live.isEmpty()) {
+                // nothing can be added to a sealed segment, so it is safe to remove
+                segment.closeReader();
+                Files.deleteIfExists(indexPathOf(segment));
+                Files.deleteIfExists(segment.m_path);
+                m_segments.remove(segment.m_id);
+                Logger.logInfo("Removed log segment " + segment.m_id + ", which held no records in use.");
+                return;
+            }
+        }
+        live.sort(Comparator.comparingLong(entry -> entry.getValue().offset()));
+        Path temporary = Path.of(segment.m_path + TEMPORARY_EXTENSION);
+        HashMap<String, Location> moved = new HashMap<>();
+        long size = 0;
+        try (FileChannel input = FileChannel.open(segment.m_path, StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Location> entry : live) {
+                Location location = entry.getValue();
+                long copied = 0;
+                while (copied < location.length()) {
+                    copied += input.transferTo(location.offset() + copied, location.length() - copied, output);
+                }
+                moved.put(entry.getKey(), new Location(segment.m_id, size, location.length()));
+                size += location.length();
+            }
+            output.force(true);
+        }
+        synchronized (this) {
+            if (m_closed) {
+                Files.deleteIfExists(temporary);
+                return;
+            }
+            long before = segment.m_size;
+            segment.closeReader();
+            // without its index a segment is scanned at startup, so a crash part way through the swap loses nothing
+            Files.deleteIfExists(indexPathOf(segment));
+            Files.move(temporary, segment.m_path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            segment.m_size = size;
+            segment.m_live = 0;
+            for (Map.Entry<String, Location> entry : live) {
+                if (entry.getValue().equals(m_index.get(entry.getKey()))) {
+                    Location location = moved.get(entry.getKey());
+                    m_index.put(entry.getKey(), location);
+                    segment.m_live += location.length();
+                }
+            }
+            writeIndex(segment);
+            Logger.logInfo("Compacted log segment " + segment.m_id + " from " + before + " to " + size + " byte(s).");
+        }
+    }
+
+    /**
+     * Get the path of a segment's index
+     *
+     * @param segment the segment
+     * @return path to its index
+     */
+    private Path indexPathOf(Segment segment) {
+        return m_directory.resolve(SEGMENT_PREFIX + segment.m_id + INDEX_EXTENSION);
+    }
+
+    /**
+     * Calculate the CRC32 of part of an array
+     *
+     * @param bytes  the array
+     * @param offset where to start
+     * @param length how many bytes to include
+     * @return the CRC, truncated to an int
+     */
+    private static int crcOf(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Where a record is
+     *
+     * @param segment number of the segment it is in
+     * @param offset  where it starts in the segment
+     * @param length  length of the whole record, in bytes
+     */
+    private record Location(long segment, long offset, int length) {
+    }
+
+    /**
+     * A single segment file
+     */
+    private class Segment {
+        /**
+         * Number of the segment. Later segments hold later records.
+         */
+        final long m_id;
+        /**
+         * Path to the segment file
+         */
+        final Path m_path;
+        /**
+         * Size of the segment, in bytes
+         */
+        long m_size = 0;
+        /**
+         * Bytes of the segment taken up by records still in use
+         */
+        long m_live = 0;
+        /**
+         * Names whose latest record is in this segment
+         */
+        final HashSet<String> m_names = new HashSet<>();
+        /**
+         * Channel used to read records, opened when first needed
+         */
+        private FileChannel m_reader = null;
+
+        /**
+         * Refer to a segment
+         *
+         * @param id number of the segment
+         */
+        Segment(long id) {
+            this.m_id = id;
+            this.m_path = m_directory.resolve(SEGMENT_PREFIX + id + SEGMENT_EXTENSION);
+        }
+
+        /**
+         * Get a channel to read records with
+         *
+         * @return an open channel
+         * @throws IOException if the segment cannot be opened
+         */
+        FileChannel reader() throws IOException {
+            if (m_reader == null) {
+                m_reader = FileChannel.open(m_path, StandardOpenOption.READ);
+            }
+            return m_reader;
+        }
+
+        /**
+         * Close the channel used to read records, if open
+         */
+        void closeReader() {
+            if (m_reader != null) {
+                try {
+                    m_reader.close();
+                } catch (IOException e) {
+                    Logger.logError("Failed to close log segment " + m_id + ": " + e.getMessage());
+                }
+                m_reader = null;
+            }
+        }
+    }
+}
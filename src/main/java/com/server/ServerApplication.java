@@ -2,13 +2,21 @@ package com.server;
 
 import com.utils.BaseApplication;
 import com.utils.Files.FileUtils;
+import com.utils.Files.PropertiesFile.PropertiesDelta;
 import com.utils.Files.PropertiesFile.PropertiesFile;
+import com.utils.Files.PropertiesFile.RegexFilter;
 import com.utils.Logger.Logger;
 import com.utils.Config.ConfigurationException;
 
-import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Manages dependency injection and application lifecycle for server
@@ -20,6 +28,30 @@ public class ServerApplication extends BaseApplication {
      * Port we will listen for connections on
      */
     private Integer m_port = null;
+    /**
+     * Every address we listen for connections on, starting with the configured port
+     */
+    private List<InetSocketAddress> m_listenAddresses = null;
+    /**
+     * How many pending connections the operating system may queue per address
+     */
+    private Integer m_acceptBacklog = null;
+    /**
+     * How long a connection may go without receiving anything before it is closed, in ms. 0 to never close idle connections
+     */
+    private Integer m_idleTimeout = null;
+    /**
+     * Most connections open at once. 0 for no limit
+     */
+    private Integer m_maxConnections = null;
+    /**
+     * Files and deltas each client may send per second. 0 for no limit
+     */
+    private Integer m_clientFilesPerSecond = null;
+    /**
+     * Bytes each client may send per second. 0 for no limit
+     */
+    private Integer m_clientBytesPerSecond = null;
     /**
      * Manages network communications for us
      */
@@ -30,9 +62,74 @@ public class ServerApplication extends BaseApplication {
     private Integer m_retryPeriod = null;
 
     /**
-     * Manage state if connection is lost so we can retry to connect
+     * Persists received files for us
      */
-    private boolean m_lostConnection = false;
+    private ServerDirectoryManager m_directoryManager = null;
+    /**
+     * Decides which directories each received file is written to
+     */
+    private FileRouter m_router = null;
+    /**
+     * Names of the routing rules to read from configuration
+     */
+    private List<String> m_routeNames = null;
+    /**
+     * How many destinations to write a routed file to at once
+     */
+    private Integer m_routeThreads = null;
+    /**
+     * How many files to remember the routing rules of, so their deltas follow them
+     */
+    private Integer m_routeMemory = null;
+    /**
+     * How many file hashes to remember for duplicate detection
+     */
+    private Integer m_hashIndexSize = null;
+    /**
+     * Number of levels of hashed subdirectories to spread stored files over. 0 to store them directly in the directory
+     */
+    private Integer m_shardLevels = null;
+    /**
+     * How many directories to list in parallel while indexing stored files at startup
+     */
+    private Integer m_indexThreads = null;
+    /**
+     * How received files are stored: files, for one properties file each, or log, for records in segment files
+     */
+    private String m_storage = null;
+    /**
+     * Size at which a log segment is sealed and a new one started, in bytes
+     */
+    private Long m_logSegmentSize = null;
+    /**
+     * How often to look for log segments worth compacting, in ms. 0 to never compact
+     */
+    private Integer m_logCompactInterval = null;
+    /**
+     * Port on the loopback interface to answer index queries on. 0 to not index stored files
+     */
+    private Integer m_queryPort = null;
+    /**
+     * Where the index of stored files is checkpointed to
+     */
+    private String m_indexFile = null;
+    /**
+     * How often to checkpoint the index of stored files, in ms
+     */
+    private Integer m_indexCheckpointInterval = null;
+    /**
+     * What to do with a received file whose name is already stored: reject, to refuse it, or merge, to apply its keys
+     * and values onto the stored file
+     */
+    private String m_writeMode = null;
+    /**
+     * Most merged files to keep in memory between flushes
+     */
+    private Integer m_mergeCacheSize = null;
+    /**
+     * How often to write merged files back to the store, in ms
+     */
+    private Integer m_mergeFlushInterval = null;
 
     /**
      * Constructor to read in service configuration
@@ -58,10 +155,17 @@ public class ServerApplication extends BaseApplication {
         try {
             ServerApplication application = new ServerApplication(args[0]);
             application.readConfiguration();
+            // one-shot export of stored records instead of serving
+            if (args.length > 1) {
+                System.exit(application.runExport(args[2], args.length == 4 ? args[3] : ".*") ? 0 : 1);
+            }
+            application.startMetrics();
             application.initializeServerNetworkManager();
             application.run();
         } catch (ConfigurationException e) {
-            System.out.println("Unable to open/read configuration file. Cannot start: " + e.getMessage());
+            Logger.logError("Unable to open/read configuration file. Cannot start: " + e.getMessage());
+        } catch (IOException e) {
+            Logger.logError("Unable to open storage. Cannot start: " + e.getMessage());
         }
     }
 
@@ -69,42 +173,159 @@ public class ServerApplication extends BaseApplication {
      * Start the primary execution loop for the ServerApplication
      */
     public void run() {
-        while (true) {
-            m_networkManager.waitForConnection();
-            if (m_lostConnection) {
-                m_networkManager.closeConnection();
-                Logger.logInfo("Re-opening connection.");
-                m_networkManager.waitForConnection();
-                m_lostConnection = false;
-            }
+        try {
+            m_networkManager.awaitListeners();
+        } catch (InterruptedException e) {
+            Logger.logError("Application execution interrupted: " + e.getMessage());
+            m_networkManager.closeConnection();
         }
     }
 
     /**
      * Write the properties file we received into our configured directory.
-     * Normally this would go into its own 'ServerDirectoryManager' class, but only this function would go inside. Refactor to do so if more directory functionality comes up.
      *
      * @param file the PropertiesFile to write to disk
      */
-    public synchronized void writeFile(PropertiesFile file) {
-        Logger.logInfo("Attempting to write file to disk.");
+    public void writeFile(PropertiesFile file) {
+        m_router.writeFile(file);
+    }
+
+    /**
+     * Apply changes to a properties file we previously received
+     *
+     * @param delta the changes to apply
+     */
+    public void applyDelta(PropertiesDelta delta) {
+        m_router.applyDelta(delta);
+    }
+
+    /**
+     * Decide whether a client needs to send the body of a file it offered
+     *
+     * @param fileName    name of the offered file
+     * @param contentHash hash of the offered file contents
+     * @return false if identical contents were recently written under the same name
+     */
+    public boolean isFileRequired(String fileName, String contentHash) {
+        return m_router.isFileRequired(fileName, contentHash);
+    }
+
+    /**
+     * Write every stored record whose name matches a pattern out as an ordinary properties file. Only meaningful for
+     * the log store; the log is opened read only, so this is safe while a server is running.
+     *
+     * @param directory   directory to write the files into
+     * @param namePattern regular expression names must match to be exported
+     * @return true if every matching record was exported
+     */
+    public boolean runExport(String directory, String namePattern) {
+        if (!m_storage.equals("log")) {
+            Logger.logError("Files are already stored as properties files. Nothing to export.");
+            return false;
+        }
+        Pattern pattern = Pattern.compile(namePattern);
+        Path root = Path.of(directory).toAbsolutePath().normalize();
+        SegmentLogStore store;
         try {
-            if (!FileUtils.doesFileExist(m_directory + "/" + file.getFileName())) {
-                FileUtils.createFile(m_directory + "/" + file.getFileName(), file.renderAsFile());
-            } else {
-                Logger.logError("File with that name already exists. Cannot write. ");
-            }
+            store = new SegmentLogStore(Path.of(m_directory), m_logSegmentSize, 0, true);
         } catch (IOException e) {
-            Logger.logError("Failed to create new properties file: " + e.getMessage());
+            Logger.logError("Failed to open log store: " + e.getMessage());
+            return false;
+        }
+        long exported = 0;
+        boolean succeeded = true;
+        for (String name : store.getNames()) {
+            if (!pattern.matcher(name).matches()) {
+                continue;
+            }
+            try {
+                String contents = store.read(name);
+                Path target = root.resolve(name).normalize();
+                if (!target.startsWith(root)) {
+                    throw new IOException("Refusing to export outside of '" + root + "'.");
+                }
+                Files.createDirectories(target.getParent());
+                FileUtils.createFile(target.toString(), contents);
+                exported++;
+            } catch (IOException e) {
+                Logger.logError("Failed to export '" + name + "': " + e.getMessage());
+                succeeded = false;
+            }
         }
+        store.close();
+        Logger.logInfo("Exported " + exported + " file(s) to '" + root + "'.");
+        return succeeded;
     }
 
     /**
      * Generate required resources to create a serverNetworkManager instance
      *
+     * @throws IOException if the store cannot be opened
      */
-    public void initializeServerNetworkManager() {
-        m_networkManager = new ServerNetworkManager(m_port, this, m_retryPeriod);
+    public void initializeServerNetworkManager() throws IOException, ConfigurationException {
+        PersistedHashIndex hashIndex = new PersistedHashIndex(m_hashIndexSize);
+        PropertiesStore store = openStore(m_directory);
+        PropertiesIndex propertiesIndex = null;
+        if (m_queryPort > 0) {
+            propertiesIndex = new PropertiesIndex(Path.of(m_indexFile), store, m_indexCheckpointInterval);
+            new QueryServer(propertiesIndex, m_queryPort).start();
+        }
+        m_directoryManager = createDirectoryManager(m_directory, store, hashIndex, propertiesIndex);
+        m_router = new FileRouter(m_directoryManager, hashIndex, m_routeThreads, m_routeMemory);
+        // rules sharing a directory share its manager, so writes to it stay serialized
+        HashMap<Path, ServerDirectoryManager> destinations = new HashMap<>();
+        destinations.put(Path.of(m_directory).toAbsolutePath().normalize(), m_directoryManager);
+        for (String route : m_routeNames) {
+            String prefix = m_applicationName + ".route." + route;
+            String directory = m_configurationManager.getConfigItemAsString(prefix + ".directory");
+            ServerDirectoryManager destination = destinations.get(Path.of(directory).toAbsolutePath().normalize());
+            if (destination == null) {
+                Files.createDirectories(Path.of(directory));
+                destination = createDirectoryManager(directory, openStore(directory), hashIndex, null);
+                destinations.put(Path.of(directory).toAbsolutePath().normalize(), destination);
+            }
+            String filterPattern = m_configurationManager.getConfigItemAsString(prefix + ".filterPattern", null);
+            try {
+                m_router.addRoute(route, m_configurationManager.getConfigItemAsString(prefix + ".namePattern", null),
+                        m_configurationManager.getConfigItemAsString(prefix + ".keyPattern", null),
+                        filterPattern == null ? null : new RegexFilter(filterPattern), destination);
+            } catch (PatternSyntaxException e) {
+                throw new ConfigurationException("Cannot use a pattern of route '" + route + "'. Is invalid: " + e.getMessage());
+            }
+        }
+        // appended records are already with the operating system, but sync them on the way out
+        Runtime.getRuntime().addShutdownHook(new Thread(m_router::close, "store-shutdown"));
+        m_networkManager = new ServerNetworkManager(m_listenAddresses, m_acceptBacklog, this, m_retryPeriod, m_idleTimeout,
+                m_maxConnections, m_clientFilesPerSecond, m_clientBytesPerSecond);
+    }
+
+    /**
+     * Open the configured kind of store in a directory
+     *
+     * @param directory the directory
+     * @return the store
+     * @throws IOException if the store cannot be opened
+     */
+    private PropertiesStore openStore(String directory) throws IOException {
+        if (m_storage.equals("log")) {
+            return new SegmentLogStore(Path.of(directory), m_logSegmentSize, m_logCompactInterval, false);
+        }
+        return new DirectoryStore(Path.of(directory).toAbsolutePath().normalize(), m_shardLevels, m_indexThreads);
+    }
+
+    /**
+     * Create the manager that persists files into a directory, with the configured write mode
+     *
+     * @param directory       the directory
+     * @param store           the store in the directory
+     * @param hashIndex       hashes of recently written files
+     * @param propertiesIndex index of the keys in stored files, or null to not keep one
+     * @return the manager
+     */
+    private ServerDirectoryManager createDirectoryManager(String directory, PropertiesStore store, PersistedHashIndex hashIndex,
+                                                          PropertiesIndex propertiesIndex) {
+        MergeCache mergeCache = m_writeMode.equals("merge") ? new MergeCache(store, m_mergeCacheSize) : null;
+        return new ServerDirectoryManager(directory, store, hashIndex, propertiesIndex, mergeCache, m_mergeFlushInterval);
     }
 
     /**
@@ -116,6 +337,64 @@ public class ServerApplication extends BaseApplication {
         super.readConfiguration(m_configurationManager);
         m_port = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".port");
         m_retryPeriod = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".retryPeriod");
+        m_hashIndexSize = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".hashIndexSize", 10000);
+        m_storage = m_configurationManager.getConfigItemAsString(m_applicationName + ".storage", "files");
+        if (!m_storage.equals("files") && !m_storage.equals("log")) {
+            throw new ConfigurationException("Unknown storage '" + m_storage + "'. Must be files or log.");
+        }
+        m_logSegmentSize = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".logSegmentMegabytes", 64) * 1024L * 1024L;
+        m_logCompactInterval = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".logCompactInterval", 60000);
+        m_writeMode = m_configurationManager.getConfigItemAsString(m_applicationName + ".writeMode", "reject");
+        if (!m_writeMode.equals("reject") && !m_writeMode.equals("merge")) {
+            throw new ConfigurationException("Unknown write mode '" + m_writeMode + "'. Must be reject or merge.");
+        }
+        m_mergeCacheSize = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".mergeCacheSize", 10000);
+        m_mergeFlushInterval = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".mergeFlushInterval", 1000);
+        m_routeNames = new ArrayList<>();
+        for (String route : m_configurationManager.getConfigItemAsString(m_applicationName + ".routes", "").split(",")) {
+            if (!route.isBlank()) {
+                m_routeNames.add(route.trim());
+            }
+        }
+        m_routeThreads = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".routeThreads", 4);
+        m_routeMemory = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".routeMemory", 100000);
+        m_queryPort = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".queryPort", 0);
+        m_indexFile = m_configurationManager.getConfigItemAsString(m_applicationName + ".indexFile", "properties.index");
+        m_indexCheckpointInterval = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".indexCheckpointInterval", 300000);
+        m_shardLevels = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".shardLevels", 0);
+        m_indexThreads = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".indexThreads", 4);
+        m_acceptBacklog = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".acceptBacklog", 1024);
+        m_idleTimeout = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".idleTimeout", 0);
+        m_maxConnections = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".maxConnections", 0);
+        m_clientFilesPerSecond = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".clientFilesPerSecond", 0);
+        m_clientBytesPerSecond = m_configurationManager.getConfigItemAsInteger(m_applicationName + ".clientBytesPerSecond", 0);
+        m_listenAddresses = new ArrayList<>();
+        m_listenAddresses.add(new InetSocketAddress(m_port));
+        for (String listener : m_configurationManager.getConfigItemAsString(m_applicationName + ".listeners", "").split(",")) {
+            if (!listener.isBlank()) {
+                m_listenAddresses.add(parseListenAddress(listener.trim()));
+            }
+        }
+    }
+
+    /**
+     * Parse a listen address given as a port, or as a host and port separated by a colon
+     *
+     * @param listener the configured address
+     * @return the address to listen on
+     * @throws ConfigurationException if the address cannot be parsed
+     */
+    private InetSocketAddress parseListenAddress(String listener) throws ConfigurationException {
+        int separator = listener.lastIndexOf(':');
+        try {
+            int port = Integer.parseInt(listener.substring(separator + 1).trim());
+            if (separator < 0) {
+                return new InetSocketAddress(port);
+            }
+            return new InetSocketAddress(listener.substring(0, separator).trim(), port);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Cannot listen on '" + listener + "'. Must be a port or host:port.");
+        }
     }
 
     /**
@@ -125,9 +404,12 @@ public class ServerApplication extends BaseApplication {
      * @return A string that describes what is wrong with the arguments provided.
      */
     public static String areArgumentsValid(String[] args) {
-        if (args.length != 1) {
+        if (args.length != 1 && args.length != 3 && args.length != 4) {
             return "Invalid number of arguments provided. See readme for more info on how to run.";
         }
+        if (args.length > 1 && !args[1].equals("--export")) {
+            return "Unknown option '" + args[1] + "'. See readme for more info on how to run.";
+        }
         return "";
     }
 }
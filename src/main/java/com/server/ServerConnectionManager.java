@@ -1,63 +1,236 @@
 package com.server;
 
 import com.utils.Logger.Logger;
+import com.utils.Metrics.Counter;
+import com.utils.Metrics.Metrics;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Manages all connection threads that are currently open
+ * Keeps a registry of all connection threads that are currently open. Connections remove themselves when they exit,
+ * and connections that have been idle for too long are closed by a background reaper. New connections are refused
+ * once the connection limit is reached, and every connection from a client shares that client's rate limits.
+ *
  * @author Howard Pearce
  */
 public class ServerConnectionManager {
-
     /**
-     * List of all connections. Could be a map but might be overkill
+     * How long to wait for a connection thread to finish once it has been closed, in ms
+     */
+    private static final long CLOSE_TIMEOUT = 5000;
+    /**
+     * Connections accepted from clients
+     */
+    private static final Counter ACCEPTED = Metrics.counter("server_connections_accepted_total", "Connections accepted from clients");
+    /**
+     * Connections refused for being over the limit
+     */
+    private static final Counter REFUSED = Metrics.counter("server_connections_refused_total", "Connections refused for being over the connection limit");
+    /**
+     * Open connections by id
      */
-    private ArrayList<Connection> m_connections = new ArrayList<>();
+    private final ConcurrentHashMap<String, Connection> m_connections = new ConcurrentHashMap<>();
     /**
-     * Count the number of connections we have
+     * Source of connection ids
      */
-    private Integer m_numberOfConnections = 0;
+    private final AtomicLong m_nextId = new AtomicLong();
     /**
      * Reference to serverApplication to give to connections to callback
      */
     private ServerApplication m_serverApplication;
+    /**
+     * How long a connection may go without receiving anything before it is closed, in ms. 0 to never close idle connections
+     */
+    private final long m_idleTimeout;
+    /**
+     * Most connections open at once. 0 for no limit
+     */
+    private final int m_maxConnections;
+    /**
+     * Files and deltas a client may send per second. 0 for no limit
+     */
+    private final int m_clientFilesPerSecond;
+    /**
+     * Bytes a client may send per second. 0 for no limit
+     */
+    private final int m_clientBytesPerSecond;
+    /**
+     * Rate limits of each client with an open connection, by address
+     */
+    private final ConcurrentHashMap<String, ClientLimiter> m_limiters = new ConcurrentHashMap<>();
 
     /**
      * Constructs a reference to the server connection manager
+     *
      * @param serverApplication callback reference to the server application for the Connections to use
+     * @param idleTimeout       how long a connection may go without receiving anything before it is closed, in ms.
+     *                          0 to never close idle connections
+     * @param maxConnections    most connections open at once. 0 for no limit
+     * @param filesPerSecond    files and deltas a client may send per second. 0 for no limit
+     * @param bytesPerSecond    bytes a client may send per second. 0 for no limit
      */
-    public ServerConnectionManager(ServerApplication serverApplication) {
+    public ServerConnectionManager(ServerApplication serverApplication, long idleTimeout, int maxConnections,
+                                   int filesPerSecond, int bytesPerSecond) {
         this.m_serverApplication = serverApplication;
+        this.m_idleTimeout = idleTimeout;
+        this.m_maxConnections = maxConnections;
+        this.m_clientFilesPerSecond = filesPerSecond;
+        this.m_clientBytesPerSecond = bytesPerSecond;
+        Metrics.gauge("server_connections", "Client connections currently open", m_connections::size);
+        if (idleTimeout > 0) {
+            Thread reaper = new Thread(this::reapIdleConnections, "connection-reaper");
+            reaper.setDaemon(true);
+            reaper.start();
+        }
     }
 
-
     /**
-     * Generate dependencies for a new thread that handles a client connection
+     * Start a new thread that handles a client connection. Streams are opened on that thread, so a client that is slow
+     * to complete its handshake does not hold up the listener that accepted it.
      *
      * @param clientSocket the client connection we received earlier
-     * @throws IOException if we are unable to open an input stream from the client
-     */
-    public void createNewConnection(Socket clientSocket) throws IOException {
-        ObjectInputStream newStream = new ObjectInputStream(clientSocket.getInputStream());
-        Logger.logInfo("Creating thread with ID: '" + m_numberOfConnections.toString() + "'");
-        Connection newClient = new Connection(m_serverApplication, clientSocket, newStream, m_numberOfConnections.toString());
-        newClient.start();
-        m_connections.add(newClient);
-        m_numberOfConnections += 1;
+     * @throws IOException if the connection cannot be set up, in which case the socket is closed
+     */
+    public synchronized void createNewConnection(Socket clientSocket) throws IOException {
+        if (m_maxConnections > 0 && m_connections.size() >= m_maxConnections) {
+            // the client reconnects with backoff, by which time a slot may have freed up
+            Logger.logError("Refusing connection from " + clientSocket.getRemoteSocketAddress() + ": already at the limit of " + m_maxConnections + " connections.");
+            clientSocket.close();
+            REFUSED.increment();
+            return;
+        }
+        String id = Long.toString(m_nextId.getAndIncrement());
+        ClientLimiter limiter = null;
+        Connection newClient = null;
+        try {
+            // replies are small and the client waits on each one, so they must not be held back waiting for an ACK
+            clientSocket.setTcpNoDelay(true);
+            Logger.logInfo("Creating thread with ID: '" + id + "'");
+            if (m_clientFilesPerSecond > 0 || m_clientBytesPerSecond > 0) {
+                String client = clientSocket.getInetAddress().getHostAddress();
+                limiter = m_limiters.compute(client, (address, existing) -> {
+                    ClientLimiter shared = existing == null ? new ClientLimiter(address, m_clientFilesPerSecond, m_clientBytesPerSecond) : existing;
+                    shared.connectionOpened();
+                    return shared;
+                });
+            }
+            newClient = new Connection(m_serverApplication, this, clientSocket, id, limiter);
+            m_connections.put(id, newClient);
+        } catch (IOException e) {
+            abandonConnection(clientSocket, id, newClient, limiter);
+            throw e;
+        } catch (RuntimeException e) {
+            abandonConnection(clientSocket, id, newClient, limiter);
+            // the listener only expects IOExceptions, and must keep accepting
+            throw new IOException("Failed to set up connection '" + id + "': " + e, e);
+        }
+        try {
+            newClient.start();
+        } catch (OutOfMemoryError e) {
+            // the thread could not be created. Give back what was taken for it, then let the error carry on
+            abandonConnection(clientSocket, id, newClient, limiter);
+            throw e;
+        }
+        ACCEPTED.increment();
+    }
+
+    /**
+     * Give back the slot, limits and socket taken for a connection that could not be started, so the client can retry
+     *
+     * @param clientSocket the accepted socket
+     * @param id           id given to the connection
+     * @param newClient    the connection, or null if it was not created
+     * @param limiter      rate limits of the client, or null if it is not limited or they were not taken yet
+     */
+    private void abandonConnection(Socket clientSocket, String id, Connection newClient, ClientLimiter limiter) {
+        if (newClient != null) {
+            m_connections.remove(id, newClient);
+        }
+        releaseLimiter(limiter);
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            Logger.logError("Failed to close socket of connection '" + id + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forget a connection whose thread is exiting
+     *
+     * @param connection the connection that closed
+     */
+    void removeConnection(Connection connection) {
+        if (m_connections.remove(connection.getConnectionId(), connection)) {
+            releaseLimiter(connection.getLimiter());
+            Logger.logInfo("Closed connection '" + connection.getConnectionId() + "' from " + connection.getRemoteAddress()
+                    + " after "
+                    + (System.currentTimeMillis() - connection.getConnectedSince()) / 1000 + " s: received " + connection.getFilesReceived() + " file(s), "
+                    + connection.getDeltasReceived() + " delta(s), " + connection.getBytesReceived() + " byte(s)."
+                    + (connection.getLimiter() == null ? "" : " Client throttled " + connection.getLimiter().getPauses()
+                    + " time(s) for " + connection.getLimiter().getPausedMillis() + " ms in total."));
+        }
+    }
+
+    /**
+     * Give back a connection's share of its client's limits, forgetting the limits once the client has no connections
+     *
+     * @param limiter rate limits of the client, or null if it is not limited
+     */
+    private void releaseLimiter(ClientLimiter limiter) {
+        if (limiter != null) {
+            // a client that connects again later starts with fresh limits
+            m_limiters.computeIfPresent(limiter.getClient(), (address, shared) -> shared.connectionClosed() == 0 ? null : shared);
+        }
+    }
+
+    /**
+     * Get every open connection, for reporting
+     *
+     * @return a live view of the open connections
+     */
+    public Collection<Connection> getConnections() {
+        return m_connections.values();
+    }
+
+    /**
+     * Periodically close connections that have not received anything within the idle timeout. Runs on its own thread.
+     */
+    private void reapIdleConnections() {
+        long interval = Math.max(1000, Math.min(m_idleTimeout / 2, 30000));
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Connection connection : m_connections.values()) {
+                if (!connection.isAlive() && connection.getState() == Thread.State.TERMINATED) {
+                    // exited without removing itself, which should not happen
+                    removeConnection(connection);
+                } else if (now - connection.getLastActivity() > m_idleTimeout) {
+                    Logger.logInfo("Closing connection '" + connection.getConnectionId() + "' after " + (now - connection.getLastActivity()) + " ms without activity.");
+                    connection.close();
+                }
+            }
+        }
     }
 
     /**
      * Clean up and close all remaining connection threads
      */
     public void closeAllConnections() {
+        for (Connection threadToClose : m_connections.values()) {
+            Logger.logInfo("Closing connection '" + threadToClose.getConnectionId() + "'");
+            threadToClose.close();
+        }
         try {
-            for (Connection threadToClose : m_connections) {
-                Logger.logInfo("Closing connection '" + threadToClose.getConnectionId());
-                threadToClose.join();
+            for (Connection threadToClose : m_connections.values()) {
+                threadToClose.join(CLOSE_TIMEOUT);
             }
         } catch (InterruptedException e) {
             Logger.logError("Error occurred while closing connection: " + e.getMessage());
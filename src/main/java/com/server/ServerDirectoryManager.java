@@ -0,0 +1,204 @@
+package com.server;
+
+import com.utils.Files.PropertiesFile.PropertiesDelta;
+import com.utils.Files.PropertiesFile.PropertiesFile;
+import com.utils.Files.PropertiesFile.PropertiesParser;
+import com.utils.Logger.Logger;
+import com.utils.Metrics.Counter;
+import com.utils.Metrics.Histogram;
+import com.utils.Metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Responsible for persisting received properties files into the ServerApplication's store
+ *
+ * @author Howard Pearce
+ */
+public class ServerDirectoryManager {
+    /**
+     * Time taken to write each received file
+     */
+    private static final Histogram WRITE_TIME = Metrics.histogram("server_write_seconds", "Time taken to write a received file");
+    /**
+     * Files refused because one of the same name is already stored
+     */
+    private static final Counter WRITE_CONFLICTS = Metrics.counter("server_write_conflicts_total", "Files refused because one of the same name is already stored");
+    /**
+     * The directory names are resolved against
+     */
+    private final Path m_root;
+    /**
+     * Where received files are kept
+     */
+    private final PropertiesStore m_store;
+    /**
+     * Hashes of recently written files, used to turn away duplicate offers
+     */
+    private final PersistedHashIndex m_hashIndex;
+    /**
+     * Index of the keys in stored files, or null if not kept
+     */
+    private final PropertiesIndex m_propertiesIndex;
+    /**
+     * Cache files are merged in, or null if files with an existing name are refused
+     */
+    private final MergeCache m_mergeCache;
+
+    /**
+     * Construct a ServerDirectoryManager for a single directory
+     *
+     * @param directory the directory names are resolved against
+     * @param store     where received files are kept
+     * @param hashIndex index of recently written file hashes
+     * @param propertiesIndex index of the keys in stored files, or null to not keep one
+     * @param mergeCache cache to merge received files into files of the same name, or null to refuse files whose name
+     *                   is already stored
+     * @param flushInterval how often to write merged files back to the store, in ms
+     */
+    public ServerDirectoryManager(String directory, PropertiesStore store, PersistedHashIndex hashIndex, PropertiesIndex propertiesIndex,
+                                  MergeCache mergeCache, long flushInterval) {
+        this.m_root = Path.of(directory).toAbsolutePath().normalize();
+        this.m_store = store;
+        this.m_hashIndex = hashIndex;
+        this.m_propertiesIndex = propertiesIndex;
+        this.m_mergeCache = mergeCache;
+        if (mergeCache != null) {
+            Thread flusher = new Thread(() -> runFlusher(flushInterval), "merge-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Write the properties file we received into our store. Refuses to overwrite an existing file, unless merging, in
+     * which case its keys and values are applied onto the file already stored under the name.
+     *
+     * @param file the PropertiesFile to write to disk
+     */
+    public synchronized void writeFile(PropertiesFile file) {
+        Logger.logInfo("Attempting to write file to disk.");
+        long start = System.nanoTime();
+        try {
+            String name = normalize(file.getDestinationName());
+            if (m_mergeCache != null) {
+                HashMap<String, String> merged = m_mergeCache.edit(name);
+                merged.putAll(file.getContents());
+                m_hashIndex.record(file.getDestinationName(), file.getContentHash());
+                if (m_propertiesIndex != null) {
+                    m_propertiesIndex.update(name, merged);
+                }
+            } else if (!m_store.exists(name)) {
+                m_store.create(name, file.renderAsFile());
+                m_hashIndex.record(file.getDestinationName(), file.getContentHash());
+                if (m_propertiesIndex != null) {
+                    m_propertiesIndex.update(name, file.getContents());
+                }
+            } else {
+                Logger.logError("File with that name already exists. Cannot write. ");
+                WRITE_CONFLICTS.increment();
+            }
+        } catch (IOException e) {
+            Logger.logError("Failed to create new properties file: " + e.getMessage());
+        }
+        WRITE_TIME.recordSince(start);
+    }
+
+    /**
+     * Apply a delta onto the stored copy of a file, creating the file if we do not hold it yet
+     *
+     * @param delta the changes sent by the client
+     */
+    public synchronized void applyDelta(PropertiesDelta delta) {
+        Logger.logInfo(() -> "Applying changes to '" + delta.getFileName() + "'.");
+        try {
+            String name = normalize(delta.getFileName());
+            if (m_mergeCache != null) {
+                // the cached copy may be newer than the stored one
+                HashMap<String, String> merged = m_mergeCache.edit(name);
+                if (delta.isReplace()) {
+                    merged.clear();
+                }
+                delta.applyTo(merged);
+                m_hashIndex.record(delta.getFileName(), new PropertiesFile(merged, name).getContentHash());
+                if (m_propertiesIndex != null) {
+                    m_propertiesIndex.update(name, merged);
+                }
+                return;
+            }
+            HashMap<String, String> contents = new HashMap<>();
+            String stored = delta.isReplace() ? null : m_store.read(name);
+            if (stored != null) {
+                contents = new PropertiesParser(stored).parse();
+            }
+            delta.applyTo(contents);
+            PropertiesFile updated = new PropertiesFile(contents, name);
+            m_store.replace(name, updated.renderAsFile());
+            m_hashIndex.record(delta.getFileName(), updated.getContentHash());
+            if (m_propertiesIndex != null) {
+                m_propertiesIndex.update(name, contents);
+            }
+        } catch (IOException e) {
+            Logger.logError("Failed to apply changes to properties file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Turn a name sent by a client into the name the file is stored under
+     *
+     * @param name file name relative to our directory, possibly including subdirectories
+     * @return the name with any redundant parts removed, using / as the separator
+     * @throws IOException if the name points outside of our directory
+     */
+    private String normalize(String name) throws IOException {
+        Path target = m_root.resolve(name).normalize();
+        if (!target.startsWith(m_root) || target.equals(m_root)) {
+            throw new IOException("Refusing to write '" + name + "' outside of directory.");
+        }
+        return m_root.relativize(target).toString().replace('\\', '/');
+    }
+
+    /**
+     * Decide whether a client needs to send the body of a file it offered
+     *
+     * @param fileName    name of the offered file
+     * @param contentHash hash of the offered file contents
+     * @return false if identical contents were recently written under the same name
+     */
+    public boolean isFileRequired(String fileName, String contentHash) {
+        return !m_hashIndex.contains(fileName, contentHash);
+    }
+
+    /**
+     * Write merged files back to the store on an interval. Runs on its own thread.
+     *
+     * @param interval how often to write merged files, in ms
+     */
+    private void runFlusher(long interval) {
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                m_mergeCache.flush();
+            }
+        }
+    }
+
+    /**
+     * Make sure every received file is on disk, and checkpoint the index of their keys
+     */
+    public synchronized void close() {
+        if (m_mergeCache != null) {
+            m_mergeCache.flush();
+        }
+        m_store.close();
+        if (m_propertiesIndex != null) {
+            m_propertiesIndex.checkpoint();
+        }
+    }
+}
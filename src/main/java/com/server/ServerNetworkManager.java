@@ -1,93 +1,74 @@
 package com.server;
 
-import com.utils.Files.PropertiesFile.PropertiesFile;
 import com.utils.Logger.Logger;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Manages network communications for the ServerApplication
+ * Manages network communications for the ServerApplication. Keeps one persistent listener per configured address,
+ * all feeding the same connection manager.
  *
  * @author Howard Pearce
  */
 public class ServerNetworkManager {
     /**
-     * Port that we will listen on
+     * Accepts connections, one per configured address
      */
-    private Integer m_port;
-    /**
-     * Socket for receiving data
-     */
-    private ServerSocket m_serverSocket = null;
+    private final List<Listener> m_listeners = new ArrayList<>();
     /**
      * Callback reference to ServerApplication to call methods from
      */
     private final ServerApplication m_serverApplication;
     /**
-     * How long to wait before re-opening connection
+     * Sets up and tracks client connections
      */
-    private final Integer m_retryPeriod;
-
     private ServerConnectionManager m_connectionManager;
 
     /**
-     * Constructs a ServerNetworkManager via injected dependencies
+     * Constructs a ServerNetworkManager via injected dependencies and starts listening
      *
-     * @param port              Port number to listen on
+     * @param addresses         addresses to listen on
+     * @param backlog           how many pending connections the operating system may queue per address
      * @param serverApplication callback reference to the serverapplication to handle message receive events
+     * @param retryPeriod       how long to wait before trying again after a failure to listen or accept, in ms
+     * @param idleTimeout       how long a connection may go without receiving anything before it is closed, in ms.
+     *                          0 to never close idle connections
+     * @param maxConnections    most connections open at once. 0 for no limit
+     * @param filesPerSecond    files and deltas a client may send per second. 0 for no limit
+     * @param bytesPerSecond    bytes a client may send per second. 0 for no limit
      */
-    public ServerNetworkManager(Integer port, ServerApplication serverApplication, Integer retryPeriod) {
-        this.m_port = port;
+    public ServerNetworkManager(List<InetSocketAddress> addresses, int backlog, ServerApplication serverApplication, Integer retryPeriod,
+                                long idleTimeout, int maxConnections, int filesPerSecond, int bytesPerSecond) {
         this.m_serverApplication = serverApplication;
-        this.m_retryPeriod = retryPeriod;
-        this.m_connectionManager = new ServerConnectionManager(serverApplication);
-        waitForConnection();
+        this.m_connectionManager = new ServerConnectionManager(serverApplication, idleTimeout, maxConnections, filesPerSecond, bytesPerSecond);
+        for (InetSocketAddress address : addresses) {
+            Listener listener = new Listener(address, backlog, m_connectionManager, retryPeriod);
+            listener.start();
+            m_listeners.add(listener);
+        }
     }
 
     /**
-     * Open up sockets and wait for client to connect. Build inputStream once connection is made.
+     * Wait until every listener has stopped
+     *
+     * @throws InterruptedException if interrupted while waiting
      */
-    public void waitForConnection() {
-        while (true) {
-            try {
-                m_serverSocket = new ServerSocket(m_port);
-                Logger.logInfo("Waiting for a connection on port " + m_port);
-                Socket clientSocket = m_serverSocket.accept();
-                Logger.logInfo("Got a connection!");
-                m_connectionManager.createNewConnection(clientSocket);
-                // close connection to allow a new one in
-                m_serverSocket.close();
-            } catch (IOException e) {
-                if (e.getMessage().contains("bind")) {
-                    Logger.logError("Port " + m_port + " is already in use. Do you have another server running?");
-                } else {
-                    Logger.logError("Error ocurred while waiting for client to connect: " + e.getMessage());
-                }
-                try {
-                    Thread.sleep(m_retryPeriod);
-                } catch (InterruptedException ie) {
-                    // do nothing
-                }
-            }
+    public void awaitListeners() throws InterruptedException {
+        for (Listener listener : m_listeners) {
+            listener.join();
         }
     }
 
     /**
-     * Close old sockets in order to open new ones
+     * Stop listening and close all client connections
      */
     public void closeConnection() {
-        Logger.logInfo("Closing old server connections.");
-        try {
-            if (m_serverSocket != null) {
-                m_serverSocket.close();
-            }
-            m_connectionManager.closeAllConnections();
-        } catch (IOException e) {
-            Logger.logError("Error occurred while closing server connection: " + e.getMessage());
+        Logger.logInfo("Closing server connections.");
+        for (Listener listener : m_listeners) {
+            listener.close();
         }
+        m_connectionManager.closeAllConnections();
     }
 }
@@ -0,0 +1,156 @@
+package com.server;
+
+import com.utils.Logger.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * In-memory set of the names of every file held in the server's directory, so that checking for a name collision
+ * does not need to touch the filesystem. Built at startup by listing the directory tree on a fork-join pool, and kept
+ * up to date as files are written. Assumes nothing other than the server adds files to the directory; files removed
+ * by something else are noticed when a collision is confirmed on disk.
+ * <p>
+ * Thread safe.
+ *
+ * @author Howard Pearce
+ */
+public class StoredNameIndex {
+    /**
+     * Names of stored files, relative to the directory and without any shard subdirectories
+     */
+    private final Set<String> m_names = ConcurrentHashMap.newKeySet();
+    /**
+     * The directory files are stored in
+     */
+    private final Path m_root;
+    /**
+     * Number of levels of shard subdirectories files are stored under
+     */
+    private final int m_shardLevels;
+
+    /**
+     * Build the index by listing the directory tree
+     *
+     * @param root        the directory files are stored in
+     * @param shardLevels number of levels of shard subdirectories files are stored under
+     * @param parallelism how many directories to list in parallel
+     */
+    public StoredNameIndex(Path root, int shardLevels, int parallelism) {
+        this.m_root = root;
+        this.m_shardLevels = shardLevels;
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DirectoryTask(root));
+        } finally {
+            pool.shutdown();
+        }
+        Logger.logInfo("Indexed " + m_names.size() + " stored file(s) in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+    }
+
+    /**
+     * Check whether a file is held under a name
+     *
+     * @param name name of the file relative to the directory
+     * @return true if a file was stored under the name
+     */
+    public boolean contains(String name) {
+        return m_names.contains(name);
+    }
+
+    /**
+     * Record that a file was stored under a name
+     *
+     * @param name name of the file relative to the directory
+     */
+    public void add(String name) {
+        m_names.add(name);
+    }
+
+    /**
+     * Record that a file is no longer held under a name
+     *
+     * @param name name of the file relative to the directory
+     */
+    public void remove(String name) {
+        m_names.remove(name);
+    }
+
+    /**
+     * Turn the path of a stored file back into the name it was stored under
+     *
+     * @param file the stored file
+     * @return its name, or null if it is not a stored file
+     */
+    String nameOf(Path file) {
+        Path relative = m_root.relativize(file);
+        if (relative.toString().endsWith(".tmp")) {
+            // left behind by a replacement that never finished
+            return null;
+        }
+        if (m_shardLevels > 0) {
+            if (relative.getNameCount() <= m_shardLevels) {
+                return null;
+            }
+            relative = relative.subpath(m_shardLevels, relative.getNameCount());
+        }
+        return relative.toString().replace('\\', '/');
+    }
+
+    /**
+     * Lists a directory, forking a task for each subdirectory
+     */
+    private class DirectoryTask extends RecursiveAction {
+        /**
+         * Version of the serialized form. Tasks are never serialized, but RecursiveAction is Serializable.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The directory to list
+         */
+        private final Path m_directory;
+
+        /**
+         * Create a task for a directory
+         *
+         * @param directory the directory to list
+         */
+        DirectoryTask(Path directory) {
+            this.m_directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(m_directory)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry)) {
+                        DirectoryTask task = new DirectoryTask(entry);
+                        task.fork();
+                        tasks.add(task);
+                    } else {
+                        String name = nameOf(entry);
+                        if (name != null) {
+                            m_names.add(name);
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                Logger.logError("Failed to index '" + m_directory + "': " + e.getMessage());
+            }
+            for (DirectoryTask task : tasks) {
+                task.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes reads through to another stream, charging the bytes read to a client's byte rate. A read that takes the
+ * client over its rate pauses before returning, so nothing more is read from the socket until the rate allows it.
+ * Only the thread reading the stream pauses, so when the current pause ends can be read from other threads.
+ *
+ * @author Howard Pearce
+ */
+public class ThrottledInputStream extends FilterInputStream {
+    /**
+     * Limits of the client the stream belongs to
+     */
+    private final ClientLimiter m_limiter;
+    /**
+     * Time the last pause ends, in ms
+     */
+    private volatile long m_pausedUntil = 0;
+
+    /**
+     * Wrap a stream
+     *
+     * @param input   the stream to read from
+     * @param limiter limits of the client the stream belongs to
+     */
+    public ThrottledInputStream(InputStream input, ClientLimiter limiter) {
+        super(input);
+        this.m_limiter = limiter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value >= 0) {
+            throttle(1);
+        }
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+            throttle(read);
+        }
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        throttle(skipped);
+        return skipped;
+    }
+
+    /**
+     * Charge bytes to the client's byte rate, pausing if it is over
+     *
+     * @param bytes number of bytes read
+     */
+    private void throttle(long bytes) {
+        long pause = m_limiter.bytesRead(bytes);
+        if (pause > 0) {
+            m_pausedUntil = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(pause);
+            m_limiter.pause(pause);
+        }
+    }
+
+    /**
+     * Get the time the last pause ends
+     *
+     * @return time in ms, in the future while a pause is underway
+     */
+    public long getPausedUntil() {
+        return m_pausedUntil;
+    }
+}
@@ -0,0 +1,49 @@
+package com.server;
+
+/**
+ * Token bucket that refills at a fixed rate up to one second's worth of tokens. Tokens can be taken on credit, in
+ * which case the caller is told how long to wait for the bucket to pay the debt back, so a single large take is
+ * allowed but is followed by a pause proportional to its size.
+ * <p>
+ * Thread safe.
+ *
+ * @author Howard Pearce
+ */
+public class TokenBucket {
+    /**
+     * Tokens added per second, and the most the bucket holds
+     */
+    private final double m_rate;
+    /**
+     * Tokens currently available. Negative while in debt.
+     */
+    private double m_tokens;
+    /**
+     * Time the bucket was last refilled, in ns
+     */
+    private long m_lastRefill = System.nanoTime();
+
+    /**
+     * Create a full bucket
+     *
+     * @param rate tokens added per second
+     */
+    public TokenBucket(double rate) {
+        this.m_rate = rate;
+        this.m_tokens = rate;
+    }
+
+    /**
+     * Take tokens from the bucket, going into debt if there are not enough
+     *
+     * @param tokens number of tokens to take
+     * @return how long the caller should pause before taking more, in ns. 0 if the bucket is not in debt
+     */
+    public synchronized long take(long tokens) {
+        long now = System.nanoTime();
+        m_tokens = Math.min(m_rate, m_tokens + (now - m_lastRefill) * m_rate / 1_000_000_000.0);
+        m_lastRefill = now;
+        m_tokens -= tokens;
+        return m_tokens >= 0 ? 0 : (long) (-m_tokens / m_rate * 1_000_000_000.0);
+    }
+}
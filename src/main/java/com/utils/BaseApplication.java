@@ -3,6 +3,7 @@ package com.utils;
 import com.client.ClientApplication;
 import com.utils.Files.FileUtils;
 import com.utils.Logger.Logger;
+import com.utils.Metrics.Metrics;
 import com.utils.Config.ConfigLoader;
 import com.utils.Config.Configurable;
 import com.utils.Config.ConfigurationException;
@@ -32,6 +33,10 @@ public abstract class BaseApplication implements Configurable {
      * Wrapper for accessing configuration, parses and handles validity checking.
      */
     protected ConfigurationManager m_configurationManager;
+    /**
+     * Port of the loopback interface to serve metrics on, or 0 to not serve them
+     */
+    protected int m_metricsPort = 0;
 
     /**
      * Creates a Common.BaseApplication
@@ -79,5 +84,44 @@ public abstract class BaseApplication implements Configurable {
         if (!FileUtils.doesDirectoryExist(m_directory)) {
             throw new ConfigurationException("Provided watch directory '" + m_directory +  "' does not exist.");
         }
+        String level = configuration.getConfigItemAsString(m_applicationName + ".logLevel", "info");
+        String policy = configuration.getConfigItemAsString(m_applicationName + ".logOverflowPolicy", "block");
+        Logger.Level logLevel;
+        Logger.OverflowPolicy overflowPolicy;
+        try {
+            logLevel = Logger.Level.valueOf(level.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Cannot use log level '" + level + "'. Must be 'debug', 'info' or 'error'.");
+        }
+        try {
+            overflowPolicy = Logger.OverflowPolicy.valueOf(policy.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Cannot use log overflow policy '" + policy + "'. Must be 'block' or 'drop'.");
+        }
+        String logFile = configuration.getConfigItemAsString(m_applicationName + ".logFile", null);
+        int logFileSize = configuration.getConfigItemAsInteger(m_applicationName + ".logFileSize", 10 * 1024 * 1024);
+        int logFiles = configuration.getConfigItemAsInteger(m_applicationName + ".logFiles", 5);
+        int logBufferSize = configuration.getConfigItemAsInteger(m_applicationName + ".logBufferSize", 8192);
+        if (logFileSize < 1 || logFiles < 1 || logBufferSize < 1) {
+            throw new ConfigurationException("Config items '" + m_applicationName + ".logFileSize', '" + m_applicationName + ".logFiles' and '" + m_applicationName + ".logBufferSize' must be at least 1.");
+        }
+        try {
+            Logger.configure(logLevel, logFile, logFileSize, logFiles, logBufferSize, overflowPolicy);
+        } catch (IOException e) {
+            throw new ConfigurationException("Unable to open log file '" + logFile + "': " + e.getMessage());
+        }
+        m_metricsPort = configuration.getConfigItemAsInteger(m_applicationName + ".metricsPort", 0);
+    }
+
+    /**
+     * Serve metrics on the configured port, if there is one. Only called when running as a service, so one-shot runs
+     * do not fight a running service for the port.
+     *
+     * @throws ConfigurationException if the port cannot be bound
+     */
+    protected void startMetrics() throws ConfigurationException {
+        if (m_metricsPort > 0 && !Metrics.serve(m_metricsPort)) {
+            throw new ConfigurationException("Unable to serve metrics on port " + m_metricsPort + ".");
+        }
     }
 }
@@ -33,6 +33,17 @@ public class ConfigurationManager {
         return (String) this.getConfigItem(key);
     }
 
+    /**
+     * Provides an optional configuration item as a String
+     *
+     * @param key          The configuration item name
+     * @param defaultValue The value to use if the configuration item is not present
+     * @return the value of that configuration item, or the default if it is not present
+     */
+    public String getConfigItemAsString(String key, String defaultValue) {
+        return m_configuration.containsKey(key) ? (String) m_configuration.get(key) : defaultValue;
+    }
+
     /**
      * Provides a configuration item as an Integer
      *
@@ -45,6 +56,44 @@ public class ConfigurationManager {
         return Integer.valueOf((String) this.getConfigItem(key));
     }
 
+    /**
+     * Provides an optional configuration item as an Integer
+     *
+     * @param key          The configuration item name
+     * @param defaultValue The value to use if the configuration item is not present
+     * @return The value of that configuration item, or the default if it is not present
+     * @throws ConfigurationException If the configuration item could not be parsed into an Integer
+     */
+    public Integer getConfigItemAsInteger(String key, Integer defaultValue) throws ConfigurationException {
+        if (!m_configuration.containsKey(key)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.valueOf(((String) this.getConfigItem(key)).trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Config item '" + key + "' is not a valid number.");
+        }
+    }
+
+    /**
+     * Provides an optional configuration item as a Boolean
+     *
+     * @param key          The configuration item name
+     * @param defaultValue The value to use if the configuration item is not present
+     * @return The value of that configuration item, or the default if it is not present
+     * @throws ConfigurationException If the configuration item is not 'true' or 'false'
+     */
+    public Boolean getConfigItemAsBoolean(String key, Boolean defaultValue) throws ConfigurationException {
+        if (!m_configuration.containsKey(key)) {
+            return defaultValue;
+        }
+        String value = ((String) this.getConfigItem(key)).trim();
+        if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+            throw new ConfigurationException("Config item '" + key + "' must be either 'true' or 'false'.");
+        }
+        return Boolean.valueOf(value);
+    }
+
     /**
      * Directly accesses configuration and validates config item exists
      *
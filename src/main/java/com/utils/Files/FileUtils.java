@@ -7,6 +7,7 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -73,6 +74,20 @@ public final class FileUtils {
         fileWriter.close();
     }
 
+    /**
+     * Replace the contents of a file, creating it if needed. Contents are written to a temporary file first and moved
+     * into place so readers never observe a half written file.
+     *
+     * @param path     the path of the file we are replacing
+     * @param contents the new contents of the file
+     * @throws IOException if the file cannot be written
+     */
+    public static void replaceFile(String path, String contents) throws IOException {
+        String temporaryPath = path + ".tmp";
+        createFile(temporaryPath, contents);
+        Files.move(Path.of(temporaryPath), Path.of(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     /**
      * Check if the file provided is readable and accessible
      *
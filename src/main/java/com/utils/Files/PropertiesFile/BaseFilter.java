@@ -1,15 +1,46 @@
 package com.utils.Files.PropertiesFile;
 
+import com.utils.Metrics.Counter;
+import com.utils.Metrics.Histogram;
+import com.utils.Metrics.Metrics;
+
 /**
- * Abstract class for objects that can have filters applied to their contents
+ * Abstract class for objects that can have filters applied to their contents. Records how long filtering takes and
+ * how many keys are kept, which gives the selectivity of the filters in use.
  *
  * @author Howard Pearce
  */
 public abstract class BaseFilter {
+    /**
+     * Time taken to filter each file
+     */
+    private static final Histogram FILTER_TIME = Metrics.histogram("filter_seconds", "Time taken to filter a properties file");
+    /**
+     * Keys offered to filters
+     */
+    private static final Counter KEYS_IN = Metrics.counter("filter_keys_in_total", "Keys offered to filters");
+    /**
+     * Keys kept by filters
+     */
+    private static final Counter KEYS_OUT = Metrics.counter("filter_keys_out_total", "Keys kept by filters");
+
     /**
      * Filter the provided PropertiesFile
      *
      * @param fileToFilter the file the filter will be applied on
      */
-    public abstract void applyFilter(PropertiesFile fileToFilter);
+    public final void applyFilter(PropertiesFile fileToFilter) {
+        long start = System.nanoTime();
+        KEYS_IN.add(fileToFilter.getContents().size());
+        filter(fileToFilter);
+        KEYS_OUT.add(fileToFilter.getContents().size());
+        FILTER_TIME.recordSince(start);
+    }
+
+    /**
+     * Filter the provided PropertiesFile in place
+     *
+     * @param fileToFilter the file the filter will be applied on
+     */
+    protected abstract void filter(PropertiesFile fileToFilter);
 }
@@ -0,0 +1,144 @@
+package com.utils.Files.PropertiesFile;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Data Container describing the changes between two versions of the same properties file
+ *
+ * @author Howard Pearce
+ */
+public class PropertiesDelta implements Serializable {
+    /**
+     * Version of the serialized form. Change it whenever a change to the fields stops old and new versions reading
+     * each other's messages
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Name of the file the changes apply to, relative to the receiver's directory
+     */
+    private final String m_fileName;
+    /**
+     * Keys that were added or whose value changed, with their new values
+     */
+    private final HashMap<String, String> m_changed;
+    /**
+     * Keys that no longer exist in the file
+     */
+    private final HashSet<String> m_removed;
+    /**
+     * True if the receiver should discard its stored copy before applying the changes
+     */
+    private final boolean m_replace;
+
+    /**
+     * Create a delta
+     *
+     * @param fileName name of the file the changes apply to
+     * @param changed  keys that were added or changed
+     * @param removed  keys that were removed
+     * @param replace  true if the changes are the complete file contents
+     */
+    public PropertiesDelta(String fileName, HashMap<String, String> changed, HashSet<String> removed, boolean replace) {
+        this.m_fileName = fileName;
+        this.m_changed = changed;
+        this.m_removed = removed;
+        this.m_replace = replace;
+    }
+
+    /**
+     * Compute the changes needed to turn a previously sent snapshot into the current file
+     *
+     * @param previous contents that were last sent for this file
+     * @param current  the newly filtered file
+     * @return a delta holding only the added, changed and removed keys
+     */
+    public static PropertiesDelta between(Map<String, String> previous, PropertiesFile current) {
+        HashMap<String, String> changed = new HashMap<>();
+        HashSet<String> removed = new HashSet<>();
+        current.getContents().forEach((key, value) -> {
+            if (!value.equals(previous.get(key))) {
+                changed.put(key, value);
+            }
+        });
+        for (String key : previous.keySet()) {
+            if (!current.getContents().containsKey(key)) {
+                removed.add(key);
+            }
+        }
+        return new PropertiesDelta(current.getDestinationName(), changed, removed, false);
+    }
+
+    /**
+     * Create a delta that replaces whatever the receiver holds with the given file
+     *
+     * @param file the complete file to send
+     * @return a delta holding every key in the file
+     */
+    public static PropertiesDelta replacing(PropertiesFile file) {
+        return new PropertiesDelta(file.getDestinationName(), new HashMap<>(file.getContents()), new HashSet<>(), true);
+    }
+
+    /**
+     * Apply these changes onto stored file contents
+     *
+     * @param contents the stored contents, modified in place
+     */
+    public void applyTo(Map<String, String> contents) {
+        if (m_replace) {
+            contents.clear();
+        }
+        for (String key : m_removed) {
+            contents.remove(key);
+        }
+        contents.putAll(m_changed);
+    }
+
+    /**
+     * Does this delta change anything
+     *
+     * @return true if there are no changes to apply
+     */
+    public boolean isEmpty() {
+        return !m_replace && m_changed.isEmpty() && m_removed.isEmpty();
+    }
+
+    /**
+     * Get the name of the file the changes apply to
+     *
+     * @return the file name without its path
+     */
+    public String getFileName() {
+        return m_fileName;
+    }
+
+    /**
+     * Get the keys that were added or changed
+     *
+     * @return map of key to new value
+     */
+    public Map<String, String> getChanged() {
+        return m_changed;
+    }
+
+    /**
+     * Get the keys that were removed
+     *
+     * @return set of removed keys
+     */
+    public Set<String> getRemoved() {
+        return m_removed;
+    }
+
+    /**
+     * Should the receiver discard its stored copy first
+     *
+     * @return true if this delta carries the complete file
+     */
+    public boolean isReplace() {
+        return m_replace;
+    }
+}
@@ -1,8 +1,13 @@
 package com.utils.Files.PropertiesFile;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Data Container for properties file information
@@ -20,6 +25,11 @@ public class PropertiesFile implements Serializable {
      */
     private String m_filepath;
 
+    /**
+     * Directory the file should be written into, relative to the receiver's directory. Null for the receiver's directory itself
+     */
+    private String m_destination;
+
     /**
      * Returns reference to a new PropertiesFile object
      *
@@ -75,6 +85,33 @@ public class PropertiesFile implements Serializable {
         return m_filepath.substring(m_filepath.lastIndexOf("/") + 1);
     }
 
+    /**
+     * Get the directory the file should be written into
+     *
+     * @return path relative to the receiver's directory, or null for the receiver's directory itself
+     */
+    public String getDestination() {
+        return m_destination;
+    }
+
+    /**
+     * Set the directory the file should be written into
+     *
+     * @param destination path relative to the receiver's directory, or null for the receiver's directory itself
+     */
+    public void setDestination(String destination) {
+        this.m_destination = destination;
+    }
+
+    /**
+     * Get the name the file should be written under, relative to the receiver's directory
+     *
+     * @return the file name, prefixed with the destination if there is one
+     */
+    public String getDestinationName() {
+        return m_destination == null ? getFileName() : m_destination + "/" + getFileName();
+    }
+
     /**
      * Returns a String representation of the file so that it can be re-built
      *
@@ -88,4 +125,27 @@ public class PropertiesFile implements Serializable {
         });
         return renderedFile.toString();
     }
+
+    /**
+     * Computes a hash of the file contents so identical files can be recognized without comparing them in full.
+     * Keys are hashed in sorted order so the result does not depend on map iteration order.
+     *
+     * @return hex encoded SHA-256 digest of the contents
+     */
+    public String getContentHash() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException("SHA-256 is not available: " + e.getMessage());
+        }
+        new TreeMap<>(m_contents).forEach((key, value) -> {
+            digest.update(key.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        });
+        return HexFormat.of().formatHex(digest.digest());
+    }
 }
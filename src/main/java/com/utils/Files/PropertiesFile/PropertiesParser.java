@@ -1,5 +1,8 @@
 package com.utils.Files.PropertiesFile;
 
+import com.utils.Metrics.Histogram;
+import com.utils.Metrics.Metrics;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.HashMap;
@@ -11,10 +14,18 @@ import java.util.Scanner;
  * @author Howard Pearce
  */
 public class PropertiesParser {
+    /**
+     * Time taken to parse each file or text
+     */
+    private static final Histogram PARSE_TIME = Metrics.histogram("properties_parse_seconds", "Time taken to parse a properties file");
     /**
      * file that we will be parsing
      */
     public File m_inputFile;
+    /**
+     * contents already read from a file, parsed instead of the file when set
+     */
+    public String m_inputText;
 
     /**
      * Create a PropertiesParser object
@@ -26,15 +37,25 @@ public class PropertiesParser {
     }
 
     /**
-     * Parses our internal file into a hashmap. Removes code comments and erroneous lines.
+     * Create a PropertiesParser object for contents that have already been read
+     *
+     * @param inputText the contents that will be parsed
+     */
+    public PropertiesParser(String inputText) {
+        this.m_inputText = inputText;
+    }
+
+    /**
+     * Parses our internal file or text into a hashmap. Removes code comments and erroneous lines.
      *
      * @return A hashmap containing the key-value pairs in the properties file.
      * @throws FileNotFoundException if file cannot be opened to parse
      */
     public HashMap<String, String> parse() throws FileNotFoundException {
+        long start = System.nanoTime();
         HashMap<String, String> parsedFile = new HashMap<>();
         // iterate over every line in the file
-        Scanner scan = new Scanner(m_inputFile);
+        Scanner scan = m_inputText != null ? new Scanner(m_inputText) : new Scanner(m_inputFile);
         while (scan.hasNextLine()) {
             String line = scan.nextLine();
             Property parsedLine = parsePropertiesFileLine(line);
@@ -43,6 +64,7 @@ public class PropertiesParser {
             }
         }
         scan.close();
+        PARSE_TIME.recordSince(start);
         return parsedFile;
     }
 
@@ -16,13 +16,15 @@ public class RegexFilter extends BaseFilter {
     /**
      * Regular expression to apply on keys
      */
-    private final String m_regex;
+    private final Pattern m_regex;
 
     /**
-     * Create an instance of this filter
+     * Create an instance of this filter. The expression is compiled once here rather than for every key.
+     *
+     * @throws PatternSyntaxException if the expression is not valid
      */
     public RegexFilter(String regex) {
-        this.m_regex = regex;
+        this.m_regex = Pattern.compile(regex);
     }
 
     /**
@@ -30,13 +32,14 @@ public class RegexFilter extends BaseFilter {
      *
      * @param fileToFilter the file the filter will be applied on
      */
-    public void applyFilter(PropertiesFile fileToFilter) {
+    @Override
+    protected void filter(PropertiesFile fileToFilter) {
         // will replace the old Properties
         HashMap<String, String> filteredProperties = new HashMap<>();
         // iterate over all keys and only include those that match the provided regex
         fileToFilter.getContents().forEach((key, value) -> {
             // match against regex, allow comments still
-            if ((key).matches(m_regex)) {
+            if (m_regex.matcher(key).matches()) {
                 filteredProperties.put(key, value);
             }
         });
@@ -0,0 +1,147 @@
+package com.utils.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded buffer of log messages that any number of threads add to without taking a lock, and a single writer thread
+ * takes from. Each slot carries a sequence number that says whose turn it is: a thread claims the next position by
+ * compare-and-set, fills the slot and then publishes it by moving its sequence on, and the writer frees the slot again
+ * by moving its sequence on by a whole lap once it has read it. Messages are kept in parallel arrays, so adding one
+ * allocates nothing.
+ *
+ * @author Howard Pearce
+ */
+final class LogRingBuffer {
+    /**
+     * Level of the message in each slot
+     */
+    private final Logger.Level[] m_levels;
+    /**
+     * Text of the message in each slot
+     */
+    private final String[] m_messages;
+    /**
+     * When the message in each slot was logged, in ms since the epoch
+     */
+    private final long[] m_times;
+    /**
+     * Position at which each slot may next be filled, or that position plus one once it has been
+     */
+    private final AtomicLongArray m_sequences;
+    /**
+     * Used to turn a position into a slot. The capacity is a power of two
+     */
+    private final int m_mask;
+    /**
+     * Next position to be claimed by a logging thread
+     */
+    private final AtomicLong m_tail = new AtomicLong();
+    /**
+     * Next position to be read by the writer. Only written by the writer thread
+     */
+    private volatile long m_head = 0;
+
+    /**
+     * Create an empty buffer
+     *
+     * @param capacity how many messages it may hold, rounded up to a power of two
+     */
+    LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.m_levels = new Logger.Level[size];
+        this.m_messages = new String[size];
+        this.m_times = new long[size];
+        this.m_sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            m_sequences.set(i, i);
+        }
+        this.m_mask = size - 1;
+    }
+
+    /**
+     * Add a message if there is room for it
+     *
+     * @param level   level of the message
+     * @param message text of the message
+     * @param time    when it was logged, in ms since the epoch
+     * @return false if the buffer is full
+     */
+    boolean offer(Logger.Level level, String message, long time) {
+        long position = m_tail.get();
+        while (true) {
+            int slot = (int) (position & m_mask);
+            long difference = m_sequences.get(slot) - position;
+            if (difference == 0) {
+                if (m_tail.compareAndSet(position, position + 1)) {
+                    m_levels[slot] = level;
+                    m_messages[slot] = message;
+                    m_times[slot] = time;
+                    m_sequences.set(slot, position + 1);
+                    return true;
+                }
+                position = m_tail.get();
+            } else if (difference < 0) {
+                // the writer has not yet freed the slot from the previous lap
+                return false;
+            } else {
+                // another thread claimed this position first
+                position = m_tail.get();
+            }
+        }
+    }
+
+    /**
+     * Take the oldest message. Must only be called from the writer thread.
+     *
+     * @param sink receives the message
+     * @return false if there was no message ready
+     */
+    boolean poll(Sink sink) {
+        long position = m_head;
+        int slot = (int) (position & m_mask);
+        if (m_sequences.get(slot) != position + 1) {
+            return false;
+        }
+        Logger.Level level = m_levels[slot];
+        String message = m_messages[slot];
+        long time = m_times[slot];
+        m_messages[slot] = null;
+        m_sequences.set(slot, position + m_mask + 1);
+        m_head = position + 1;
+        sink.accept(level, message, time);
+        return true;
+    }
+
+    /**
+     * Get the position the next message will be claimed at
+     *
+     * @return every message before this position has been added or is being added
+     */
+    long getTail() {
+        return m_tail.get();
+    }
+
+    /**
+     * Get the position of the next message the writer will read
+     *
+     * @return every message before this position has been taken
+     */
+    long getHead() {
+        return m_head;
+    }
+
+    /**
+     * Receives messages taken from the buffer
+     */
+    interface Sink {
+        /**
+         * Receive a message
+         *
+         * @param level   level of the message
+         * @param message text of the message
+         * @param time    when it was logged, in ms since the epoch
+         */
+        void accept(Logger.Level level, String message, long time);
+    }
+}
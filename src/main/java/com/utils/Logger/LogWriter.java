@@ -0,0 +1,248 @@
+package com.utils.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background thread that takes messages from a ring buffer and writes them to standard output or to a rolling file.
+ * Messages are written in batches and flushed whenever the buffer runs dry. While there is nothing to write the thread
+ * parks for progressively longer, up to a few milliseconds, so logging threads never have to wake it.
+ * <p>
+ * A rolling file is renamed to name.1 once it reaches its size limit, shifting older files along to name.2 and so on
+ * and removing the oldest, and a new file is started.
+ *
+ * @author Howard Pearce
+ */
+final class LogWriter extends Thread implements LogRingBuffer.Sink {
+    /**
+     * Longest time to park while there is nothing to write, in ns
+     */
+    private static final long MAX_IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(5);
+    /**
+     * Buffer the messages are taken from
+     */
+    private final LogRingBuffer m_buffer;
+    /**
+     * File to write to, or null to write to standard output
+     */
+    private final Path m_file;
+    /**
+     * Size in bytes at which the file is rolled over
+     */
+    private final long m_maxFileSize;
+    /**
+     * How many files to keep, counting the one being written
+     */
+    private final int m_maxFiles;
+    /**
+     * Number of messages discarded because the buffer was full
+     */
+    private final LongAdder m_dropped = new LongAdder();
+    /**
+     * Where messages are written
+     */
+    private Writer m_output;
+    /**
+     * Roughly how many bytes the current file holds
+     */
+    private long m_fileSize;
+    /**
+     * Position in the buffer before which every message has been written and flushed
+     */
+    private volatile long m_flushed = 0;
+    /**
+     * Set once the writer has been asked to stop after writing what is left
+     */
+    private volatile boolean m_stopping = false;
+
+    /**
+     * Create a writer. Call start() to begin writing.
+     *
+     * @param buffer      buffer the messages are taken from
+     * @param file        file to write to, or null to write to standard output
+     * @param maxFileSize size in bytes at which the file is rolled over
+     * @param maxFiles    how many files to keep, counting the one being written
+     * @throws IOException if the file cannot be opened
+     */
+    LogWriter(LogRingBuffer buffer, Path file, long maxFileSize, int maxFiles) throws IOException {
+        super("log-writer");
+        setDaemon(true);
+        this.m_buffer = buffer;
+        this.m_file = file;
+        this.m_maxFileSize = maxFileSize;
+        this.m_maxFiles = Math.max(1, maxFiles);
+        if (file == null) {
+            m_output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+        } else {
+            openFile();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+        long park = 0;
+        while (true) {
+            boolean wrote = false;
+            while (m_buffer.poll(this)) {
+                wrote = true;
+            }
+            if (wrote) {
+                park = 0;
+                reportDropped();
+                try {
+                    m_output.flush();
+                } catch (IOException e) {
+                    System.err.println("ERROR: Unable to write log messages: " + e.getMessage());
+                }
+                m_flushed = m_buffer.getHead();
+            } else if (m_stopping) {
+                break;
+            } else {
+                park = Math.min(MAX_IDLE_PARK, park == 0 ? 50_000 : park * 2);
+                LockSupport.parkNanos(this, park);
+            }
+        }
+        reportDropped();
+        try {
+            m_output.flush();
+            if (m_file != null) {
+                m_output.close();
+            }
+        } catch (IOException e) {
+            System.err.println("ERROR: Unable to close log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void accept(Logger.Level level, String message, long time) {
+        try {
+            if (m_file != null) {
+                m_output.write(Instant.ofEpochMilli(time).toString());
+                m_output.write(' ');
+                m_fileSize += 25;
+            }
+            m_output.write(level.name());
+            m_output.write(": ");
+            m_output.write(message);
+            m_output.write('\n');
+            if (m_file != null) {
+                // counts characters rather than encoded bytes, which is close enough to decide when to roll over
+                m_fileSize += level.name().length() + message.length() + 3;
+                if (m_fileSize >= m_maxFileSize) {
+                    rollOver();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("ERROR: Unable to write log message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Open the log file for appending
+     *
+     * @throws IOException if it cannot be opened
+     */
+    private void openFile() throws IOException {
+        Path parent = m_file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        m_fileSize = Files.exists(m_file) ? Files.size(m_file) : 0;
+        m_output = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(m_file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    /**
+     * Close the current file, shift older files along by one and start a new file
+     *
+     * @throws IOException if the files cannot be renamed or the new file cannot be opened
+     */
+    private void rollOver() throws IOException {
+        m_output.close();
+        Files.deleteIfExists(Path.of(m_file + "." + (m_maxFiles - 1)));
+        for (int i = m_maxFiles - 2; i >= 1; i--) {
+            Path older = Path.of(m_file + "." + i);
+            if (Files.exists(older)) {
+                Files.move(older, Path.of(m_file + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (m_maxFiles > 1) {
+            Files.move(m_file, Path.of(m_file + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(m_file);
+        }
+        openFile();
+    }
+
+    /**
+     * Write a message saying how many messages were discarded since the last one, if any were
+     */
+    private void reportDropped() {
+        long dropped = m_dropped.sumThenReset();
+        if (dropped > 0) {
+            accept(Logger.Level.ERROR, "Dropped " + dropped + " log message(s) because the log buffer was full.", System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Get the buffer messages are taken from
+     *
+     * @return the buffer
+     */
+    LogRingBuffer getBuffer() {
+        return m_buffer;
+    }
+
+    /**
+     * Count a message discarded because the buffer was full
+     */
+    void recordDropped() {
+        m_dropped.increment();
+    }
+
+    /**
+     * Wait until every message added before this call has been written and flushed, or the timeout passes
+     *
+     * @param timeout longest to wait, in ms
+     */
+    void flush(long timeout) {
+        long target = m_buffer.getTail();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (m_flushed < target && isAlive() && System.nanoTime() < deadline) {
+            LockSupport.unpark(this);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /**
+     * Write everything left in the buffer and then stop, waiting up to the timeout for it to finish
+     *
+     * @param timeout longest to wait, in ms
+     */
+    void stopWriting(long timeout) {
+        m_stopping = true;
+        LockSupport.unpark(this);
+        try {
+            join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
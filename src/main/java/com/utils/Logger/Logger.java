@@ -1,24 +1,146 @@
 package com.utils.Logger;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
 /**
  * Static utility used for printing to console in a controlled mannger
+ * <p>
+ * Messages below the configured level are discarded before anything is built; the Supplier overloads let call sites on
+ * busy paths skip building their message entirely when its level is off. Enabled messages are placed on a lock-free
+ * ring buffer and written to standard output or a rolling file by a background thread, so logging threads never wait
+ * on the console or disk. When the buffer is full a message is either dropped, with a count written later, or waits
+ * for room, depending on the overflow policy. Messages still in the buffer are written when the JVM exits, and anything
+ * logged after that is printed directly.
  *
  * @author Howard Pearce
  */
 public final class Logger {
+    /**
+     * Importance of a message, from least to most
+     */
+    public enum Level {
+        /**
+         * Information for debugging for developers
+         */
+        DEBUG,
+        /**
+         * Status information that a user should see
+         */
+        INFO,
+        /**
+         * Unplanned errors in execution
+         */
+        ERROR
+    }
+
+    /**
+     * What to do with a message when the buffer is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for the writer to make room
+         */
+        BLOCK,
+        /**
+         * Discard the message and count it
+         */
+        DROP
+    }
+
+    /**
+     * How long to wait for messages to be written when the JVM exits or the output is changed, in ms
+     */
+    private static final long FLUSH_TIMEOUT = 2000;
+    /**
+     * Least important level that is written
+     */
+    private static volatile Level m_level = Level.INFO;
+    /**
+     * What to do with a message when the buffer is full
+     */
+    private static volatile OverflowPolicy m_policy = OverflowPolicy.BLOCK;
+    /**
+     * Thread writing messages out of the buffer
+     */
+    private static volatile LogWriter m_writer;
+
+    static {
+        try {
+            m_writer = new LogWriter(new LogRingBuffer(8192), null, 0, 1);
+        } catch (IOException e) {
+            // standard output is never opened, so this cannot happen
+            throw new IllegalStateException(e);
+        }
+        m_writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> m_writer.stopWriting(FLUSH_TIMEOUT), "log-flusher"));
+    }
+
     /**
      * Should not be able to instantiate this class since it only offers static functions
      */
     private Logger() {
     }
 
+    /**
+     * Change where and how messages are written. Messages logged before the change are written to the old output first.
+     *
+     * @param level       least important level to write
+     * @param file        file to write to, or null to write to standard output
+     * @param maxFileSize size in bytes at which the file is rolled over
+     * @param maxFiles    how many files to keep, counting the one being written
+     * @param bufferSize  how many messages may wait to be written
+     * @param policy      what to do with a message when the buffer is full
+     * @throws IOException if the file cannot be opened
+     */
+    public static synchronized void configure(Level level, String file, long maxFileSize, int maxFiles, int bufferSize, OverflowPolicy policy) throws IOException {
+        LogWriter writer = new LogWriter(new LogRingBuffer(bufferSize), file == null ? null : Path.of(file), maxFileSize, maxFiles);
+        writer.start();
+        LogWriter previous = m_writer;
+        m_level = level;
+        m_policy = policy;
+        m_writer = writer;
+        // the old writer empties its buffer before stopping, so everything logged before the switch is still written
+        previous.stopWriting(FLUSH_TIMEOUT);
+    }
+
+    /**
+     * Is a level currently written
+     *
+     * @param level the level
+     * @return true if messages at this level are written
+     */
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(m_level) >= 0;
+    }
+
+    /**
+     * Wait until every message logged so far has been written
+     */
+    public static void flush() {
+        m_writer.flush(FLUSH_TIMEOUT);
+    }
+
     /**
      * Log an info message - status information that a user should see.
      *
      * @param msg The message to display
      */
     public static void logInfo(String msg) {
-        System.out.println("INFO: " + msg);
+        log(Level.INFO, msg);
+    }
+
+    /**
+     * Log an info message, only building it if info messages are written
+     *
+     * @param msg Builds the message to display
+     */
+    public static void logInfo(Supplier<String> msg) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, msg.get());
+        }
     }
 
     /**
@@ -27,7 +149,18 @@ public final class Logger {
      * @param msg The message to display
      */
     public static void logError(String msg) {
-        System.out.println("ERROR: " + msg);
+        log(Level.ERROR, msg);
+    }
+
+    /**
+     * Log an error message, only building it if error messages are written
+     *
+     * @param msg Builds the message to display
+     */
+    public static void logError(Supplier<String> msg) {
+        if (isEnabled(Level.ERROR)) {
+            log(Level.ERROR, msg.get());
+        }
     }
 
     /**
@@ -36,7 +169,45 @@ public final class Logger {
      * @param msg The message to display
      */
     public static void logDebug(String msg) {
-        System.out.println("DEBUG: " + msg);
+        log(Level.DEBUG, msg);
     }
 
+    /**
+     * Log a debug message, only building it if debug messages are written
+     *
+     * @param msg Builds the message to display
+     */
+    public static void logDebug(Supplier<String> msg) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, msg.get());
+        }
+    }
+
+    /**
+     * Place a message on the buffer if its level is written, applying the overflow policy if the buffer is full
+     *
+     * @param level level of the message
+     * @param msg   the message
+     */
+    private static void log(Level level, String msg) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        LogWriter writer = m_writer;
+        if (!writer.isAlive()) {
+            // the writer has stopped because the JVM is exiting, so nothing would take the message off the buffer
+            System.out.println(level.name() + ": " + msg);
+            return;
+        }
+        long time = System.currentTimeMillis();
+        LogRingBuffer buffer = writer.getBuffer();
+        while (!buffer.offer(level, msg, time)) {
+            if (m_policy == OverflowPolicy.DROP) {
+                writer.recordDropped();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(10_000);
+        }
+    }
 }
@@ -0,0 +1,46 @@
+package com.utils.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, such as files received. Striped across threads so that recording it never contends.
+ *
+ * @author Howard Pearce
+ */
+public final class Counter {
+    /**
+     * The count
+     */
+    private final LongAdder m_count = new LongAdder();
+
+    /**
+     * Only created through Metrics
+     */
+    Counter() {
+    }
+
+    /**
+     * Add one to the count
+     */
+    public void increment() {
+        m_count.increment();
+    }
+
+    /**
+     * Add to the count
+     *
+     * @param amount how much to add
+     */
+    public void add(long amount) {
+        m_count.add(amount);
+    }
+
+    /**
+     * Get the count
+     *
+     * @return the count so far
+     */
+    public long get() {
+        return m_count.sum();
+    }
+}
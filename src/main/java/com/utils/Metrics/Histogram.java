@@ -0,0 +1,118 @@
+package com.utils.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations, such as how long files take to parse. Durations are counted in fixed buckets whose
+ * bounds double from 1 microsecond to about 17 seconds, so recording one is a shift and two striped additions, with
+ * no locking or allocation.
+ *
+ * @author Howard Pearce
+ */
+public final class Histogram {
+    /**
+     * Number of buckets with an upper bound. One more counts everything longer
+     */
+    static final int BUCKETS = 25;
+    /**
+     * Upper bound of the first bucket, in ns
+     */
+    private static final long FIRST_BOUND = 1000;
+    /**
+     * Number of durations in each bucket
+     */
+    private final LongAdder[] m_buckets = new LongAdder[BUCKETS + 1];
+    /**
+     * Total of all durations recorded, in ns
+     */
+    private final LongAdder m_sum = new LongAdder();
+
+    /**
+     * Only created through Metrics
+     */
+    Histogram() {
+        for (int i = 0; i < m_buckets.length; i++) {
+            m_buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record how long something took since a given time
+     *
+     * @param start when it started, from System.nanoTime()
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * Record a duration
+     *
+     * @param nanos the duration in ns
+     */
+    public void record(long nanos) {
+        long duration = Math.max(0, nanos);
+        // bucket i holds durations up to FIRST_BOUND << i
+        int bucket = duration <= FIRST_BOUND ? 0 : 64 - Long.numberOfLeadingZeros((duration - 1) / FIRST_BOUND);
+        m_buckets[Math.min(bucket, BUCKETS)].increment();
+        m_sum.add(duration);
+    }
+
+    /**
+     * Get the upper bound of a bucket
+     *
+     * @param bucket position of the bucket
+     * @return its upper bound in ns, or Long.MAX_VALUE for the last
+     */
+    static long getBound(int bucket) {
+        return bucket < BUCKETS ? FIRST_BOUND << bucket : Long.MAX_VALUE;
+    }
+
+    /**
+     * Get how many durations fell in each bucket
+     *
+     * @return the count of each bucket, not accumulated
+     */
+    long[] getBucketCounts() {
+        long[] counts = new long[m_buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = m_buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Get the total of all durations recorded
+     *
+     * @return the total in ns
+     */
+    long getSum() {
+        return m_sum.sum();
+    }
+
+    /**
+     * Estimate a quantile from the buckets
+     *
+     * @param counts   the count of each bucket
+     * @param quantile the quantile, between 0 and 1
+     * @return the upper bound of the bucket the quantile falls in, in ns, or 0 if nothing has been recorded
+     */
+    static long getQuantile(long[] counts, double quantile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return getBound(Math.min(i, BUCKETS - 1));
+            }
+        }
+        return getBound(BUCKETS - 1);
+    }
+}
@@ -0,0 +1,150 @@
+package com.utils.Metrics;
+
+import com.utils.Logger.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Static registry of the application's counters, histograms and gauges, keyed by a Prometheus style name. Call sites
+ * look their metric up once, usually into a static field, and record into it directly from then on. Gauges read a
+ * figure that is already kept elsewhere, such as a queue depth, only when the metrics are read.
+ * <p>
+ * Every metric is visible through JMX under {@value #OBJECT_NAME}, and can also be served over HTTP in the Prometheus
+ * text format by calling serve().
+ *
+ * @author Howard Pearce
+ */
+public final class Metrics {
+    /**
+     * Name of the JMX bean exposing the metrics
+     */
+    public static final String OBJECT_NAME = "com.utils:type=Metrics";
+    /**
+     * Every metric by name, in name order so they are always listed the same way
+     */
+    private static final Map<String, Metric> m_metrics = new ConcurrentSkipListMap<>();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            Logger.logError("Unable to expose metrics through JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Should not be able to instantiate this class since it only offers static functions
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Get a counter, creating it if needed
+     *
+     * @param name name of the counter, conventionally ending in _total
+     * @param help what the counter counts
+     * @return the counter
+     */
+    public static Counter counter(String name, String help) {
+        return (Counter) m_metrics.computeIfAbsent(sanitize(name), key -> new Metric(help, new Counter())).value();
+    }
+
+    /**
+     * Get a histogram of durations, creating it if needed
+     *
+     * @param name name of the histogram, conventionally ending in _seconds
+     * @param help what the histogram times
+     * @return the histogram
+     */
+    public static Histogram histogram(String name, String help) {
+        return (Histogram) m_metrics.computeIfAbsent(sanitize(name), key -> new Metric(help, new Histogram())).value();
+    }
+
+    /**
+     * Register a gauge, replacing any gauge of the same name
+     *
+     * @param name  name of the gauge
+     * @param help  what the gauge shows
+     * @param value reads the current figure
+     */
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        m_metrics.put(sanitize(name), new Metric(help, value));
+    }
+
+    /**
+     * Turn a name into one Prometheus accepts
+     *
+     * @param name the name
+     * @return the name with anything other than letters, digits and underscores replaced by underscores
+     */
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    /**
+     * Get every metric
+     *
+     * @return the metrics by name, in name order
+     */
+    static Map<String, Metric> getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * Write every metric in the Prometheus text format. Durations are given in seconds.
+     *
+     * @return the metrics as text
+     */
+    public static String toPrometheusText() {
+        StringBuilder text = new StringBuilder(4096);
+        for (Map.Entry<String, Metric> entry : m_metrics.entrySet()) {
+            String name = entry.getKey();
+            Object value = entry.getValue().value();
+            text.append("# HELP ").append(name).append(' ').append(entry.getValue().help()).append('\n');
+            if (value instanceof Counter counter) {
+                text.append("# TYPE ").append(name).append(" counter\n");
+                text.append(name).append(' ').append(counter.get()).append('\n');
+            } else if (value instanceof Histogram histogram) {
+                text.append("# TYPE ").append(name).append(" histogram\n");
+                long[] counts = histogram.getBucketCounts();
+                long cumulative = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    cumulative += counts[i];
+                    text.append(name).append("_bucket{le=\"")
+                            .append(i < Histogram.BUCKETS ? Double.toString(Histogram.getBound(i) / 1e9) : "+Inf")
+                            .append("\"} ").append(cumulative).append('\n');
+                }
+                text.append(name).append("_sum ").append(histogram.getSum() / 1e9).append('\n');
+                text.append(name).append("_count ").append(cumulative).append('\n');
+            } else {
+                text.append("# TYPE ").append(name).append(" gauge\n");
+                text.append(name).append(' ').append(((DoubleSupplier) value).getAsDouble()).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Serve the metrics over HTTP in the Prometheus text format on the loopback interface
+     *
+     * @param port port to listen on
+     * @return false if the port could not be bound
+     */
+    public static boolean serve(int port) {
+        return MetricsHttpServer.start(port);
+    }
+
+    /**
+     * A registered metric
+     *
+     * @param help  what the metric measures
+     * @param value a Counter, a Histogram, or a DoubleSupplier for a gauge
+     */
+    record Metric(String help, Object value) {
+    }
+}
@@ -0,0 +1,145 @@
+package com.utils.Metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Exposes every registered metric as a read-only JMX attribute. Metrics are registered as the application starts up,
+ * so the attributes are listed afresh each time they are asked for. A counter or gauge is a single attribute; a
+ * histogram is shown as its count, mean and 99th percentile, the latter two in ms.
+ *
+ * @author Howard Pearce
+ */
+final class MetricsBean implements DynamicMBean {
+    /**
+     * Suffix of the attribute giving how many durations a histogram has recorded
+     */
+    private static final String COUNT = ".count";
+    /**
+     * Suffix of the attribute giving the mean of a histogram
+     */
+    private static final String MEAN = ".meanMillis";
+    /**
+     * Suffix of the attribute giving the 99th percentile of a histogram
+     */
+    private static final String P99 = ".p99Millis";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Metrics.Metric metric = Metrics.getMetrics().get(attribute);
+        if (metric != null && metric.value() instanceof Counter counter) {
+            return counter.get();
+        } else if (metric != null && metric.value() instanceof DoubleSupplier gauge) {
+            return gauge.getAsDouble();
+        }
+        int separator = attribute.lastIndexOf('.');
+        metric = separator < 0 ? null : Metrics.getMetrics().get(attribute.substring(0, separator));
+        if (metric != null && metric.value() instanceof Histogram histogram) {
+            long[] counts = histogram.getBucketCounts();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            switch (attribute.substring(separator)) {
+                case COUNT:
+                    return total;
+                case MEAN:
+                    return total == 0 ? 0.0 : histogram.getSum() / (double) total / 1e6;
+                case P99:
+                    return Histogram.getQuantile(counts, 0.99) / 1e6;
+                default:
+                    break;
+            }
+        }
+        throw new AttributeNotFoundException("No metric named '" + attribute + "'.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // left out of the list, as JMX expects
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Metrics are read-only
+     *
+     * @param attribute ignored
+     * @throws AttributeNotFoundException always
+     */
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only.");
+    }
+
+    /**
+     * Metrics are read-only
+     *
+     * @param attributes ignored
+     * @return an empty list
+     */
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    /**
+     * There are no operations
+     *
+     * @param actionName ignored
+     * @param params     ignored
+     * @param signature  ignored
+     * @return never returns
+     */
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        // metrics have no operations
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Metrics.Metric> entry : Metrics.getMetrics().entrySet()) {
+            String name = entry.getKey();
+            String help = entry.getValue().help();
+            Object value = entry.getValue().value();
+            if (value instanceof Counter) {
+                attributes.add(new MBeanAttributeInfo(name, "long", help, true, false, false));
+            } else if (value instanceof Histogram) {
+                attributes.add(new MBeanAttributeInfo(name + COUNT, "long", help + " (count)", true, false, false));
+                attributes.add(new MBeanAttributeInfo(name + MEAN, "double", help + " (mean, ms)", true, false, false));
+                attributes.add(new MBeanAttributeInfo(name + P99, "double", help + " (99th percentile, ms)", true, false, false));
+            } else {
+                attributes.add(new MBeanAttributeInfo(name, "double", help, true, false, false));
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "Application metrics", attributes.toArray(new MBeanAttributeInfo[0]),
+                null, new MBeanOperationInfo[0], null);
+    }
+}
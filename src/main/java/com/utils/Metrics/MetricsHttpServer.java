@@ -0,0 +1,71 @@
+package com.utils.Metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.utils.Logger.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the metrics at /metrics in the Prometheus text format, from a single daemon thread on the loopback interface
+ *
+ * @author Howard Pearce
+ */
+final class MetricsHttpServer {
+    /**
+     * Should not be able to instantiate this class since it only offers static functions
+     */
+    private MetricsHttpServer() {
+    }
+
+    /**
+     * Start serving
+     *
+     * @param port port to listen on
+     * @return false if the port could not be bound
+     */
+    static boolean start(int port) {
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            Logger.logError("Unable to serve metrics on port " + port + ": " + e.getMessage());
+            return false;
+        }
+        server.createContext("/metrics", MetricsHttpServer::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        Logger.logInfo("Serving metrics on http://" + server.getAddress().getHostString() + ":" + port + "/metrics");
+        return true;
+    }
+
+    /**
+     * Answer a single request
+     *
+     * @param exchange the request and its response
+     * @throws IOException if the response cannot be sent
+     */
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Metrics.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.utils.Network;
+
+import java.io.Serializable;
+
+/**
+ * Sent by the client before a file body so the server can decide whether it actually needs the file
+ *
+ * @author Howard Pearce
+ */
+public class FileOfferMessage implements Serializable {
+    /**
+     * Version of the serialized form. Change it whenever a change to the fields stops old and new versions reading
+     * each other's messages
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Name of the file being offered, relative to the receiver's directory
+     */
+    private final String m_fileName;
+    /**
+     * Hash of the filtered file contents
+     */
+    private final String m_contentHash;
+
+    /**
+     * Create an offer for a single file
+     *
+     * @param fileName    name of the file being offered
+     * @param contentHash hash of the filtered file contents
+     */
+    public FileOfferMessage(String fileName, String contentHash) {
+        this.m_fileName = fileName;
+        this.m_contentHash = contentHash;
+    }
+
+    /**
+     * Get the name of the offered file
+     *
+     * @return the file name, relative to the receiver's directory
+     */
+    public String getFileName() {
+        return m_fileName;
+    }
+
+    /**
+     * Get the hash of the offered file
+     *
+     * @return hex encoded content hash
+     */
+    public String getContentHash() {
+        return m_contentHash;
+    }
+}
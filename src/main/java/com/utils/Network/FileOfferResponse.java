@@ -0,0 +1,38 @@
+package com.utils.Network;
+
+import java.io.Serializable;
+
+/**
+ * Server reply to a FileOfferMessage telling the client whether to send the file body
+ *
+ * @author Howard Pearce
+ */
+public class FileOfferResponse implements Serializable {
+    /**
+     * Version of the serialized form. Change it whenever a change to the fields stops old and new versions reading
+     * each other's messages
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * True if the server does not already hold these contents
+     */
+    private final boolean m_bodyRequired;
+
+    /**
+     * Create a response to a file offer
+     *
+     * @param bodyRequired true if the client should follow up with the file body
+     */
+    public FileOfferResponse(boolean bodyRequired) {
+        this.m_bodyRequired = bodyRequired;
+    }
+
+    /**
+     * Should the client send the file body
+     *
+     * @return true if the body is required, false if it can be skipped
+     */
+    public boolean isBodyRequired() {
+        return m_bodyRequired;
+    }
+}
@@ -0,0 +1,17 @@
+package com.utils.Network;
+
+import java.io.Serializable;
+
+/**
+ * Sent by the client over an idle connection to check the server still answers on it. The server replies with a
+ * PingMessage of its own.
+ *
+ * @author Howard Pearce
+ */
+public class PingMessage implements Serializable {
+    /**
+     * Version of the serialized form. Change it whenever a change to the fields stops old and new versions reading
+     * each other's messages
+     */
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,128 @@
+package com.client;
+
+import com.utils.Config.ConfigurationException;
+import com.utils.Files.PropertiesFile.PropertiesFile;
+import com.utils.Files.PropertiesFile.RegexFilter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for BulkMigration: walking a tree, not following links back up it, and reporting files left in a spool
+ *
+ * @author Howard Pearce
+ */
+class BulkMigrationTest {
+    /**
+     * Holds the tree to migrate and the client's configuration
+     */
+    @TempDir
+    Path m_directory;
+
+    /**
+     * Every properties file below the root is sent once, and a link back up the tree is not followed
+     */
+    @Test
+    void sendsEveryFileWithoutFollowingLinks() throws Exception {
+        Path root = Files.createDirectories(m_directory.resolve("tree"));
+        Files.writeString(root.resolve("top.properties"), "a=1\n");
+        Files.writeString(root.resolve("ignored.txt"), "a=1\n");
+        Path nested = Files.createDirectories(root.resolve("nested"));
+        Files.writeString(nested.resolve("inner.properties"), "b=2\n");
+        Files.createSymbolicLink(nested.resolve("loop"), root);
+
+        RecordingClient client = new RecordingClient(config(), 0);
+        assertTrue(new BulkMigration(client, watch(root), 2, Long.MAX_VALUE).run());
+        assertEquals(Set.of(root + "/top.properties", root + "/nested/inner.properties"), client.m_sent.keySet());
+    }
+
+    /**
+     * Files that end up in a spool instead of reaching the server make the run fail
+     */
+    @Test
+    void failsWhenFilesAreLeftSpooled() throws Exception {
+        Path root = Files.createDirectories(m_directory.resolve("tree"));
+        Files.writeString(root.resolve("top.properties"), "a=1\n");
+        RecordingClient client = new RecordingClient(config(), 1);
+        assertFalse(new BulkMigration(client, watch(root), 2, Long.MAX_VALUE).run());
+    }
+
+    /**
+     * Write the smallest client configuration that loads
+     *
+     * @return String path to the configuration
+     */
+    private String config() throws IOException {
+        return Files.writeString(m_directory.resolve("client.properties"),
+                "client.serverAddress=localhost\nclient.serverPort=9950\nclient.filterPattern=.*\n"
+                        + "client.directory=" + m_directory + "\nclient.connectionDelay=500\n").toString();
+    }
+
+    /**
+     * Create a recursive watch of a directory that keeps every key
+     *
+     * @param root the directory
+     * @return the watch
+     */
+    private static WatchedDirectory watch(Path root) {
+        return new WatchedDirectory("bulk", root.toString(), new RegexFilter(".*"), true, null);
+    }
+
+    /**
+     * Client that records the files it is asked to send instead of sending them
+     */
+    private static class RecordingClient extends ClientApplication {
+        /**
+         * Files sent, by path
+         */
+        final ConcurrentHashMap<String, PropertiesFile> m_sent = new ConcurrentHashMap<>();
+        /**
+         * How many of the sent files to report as spooled
+         */
+        private final long m_spooled;
+        /**
+         * Number of spooled messages reported so far
+         */
+        private long m_spooledSoFar = 0;
+
+        /**
+         * Create the client
+         *
+         * @param configPath String path to its configuration
+         * @param spooled    how many of the sent files to report as spooled
+         */
+        RecordingClient(String configPath, long spooled) throws ConfigurationException {
+            super(configPath);
+            this.m_spooled = spooled;
+        }
+
+        @Override
+        protected CompletableFuture<Void> sendPropertiesFileMessage(PropertiesFile fileToSend, boolean large) {
+            m_sent.put(fileToSend.getFilepath(), fileToSend);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        protected synchronized long getSpooledMessages() {
+            // nothing before the run, then the given number after it
+            long reported = m_spooledSoFar;
+            m_spooledSoFar = m_spooled;
+            return reported;
+        }
+
+        @Override
+        protected long getDrainedMessages() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.client;
+
+import com.utils.Network.PingMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for ClientNetworkManager: noticing a server that stops answering over connections that still look established
+ *
+ * @author Howard Pearce
+ */
+class ClientNetworkManagerTest {
+    /**
+     * Sockets opened by the fake servers, closed after each test
+     */
+    private final List<AutoCloseable> m_sockets = new CopyOnWriteArrayList<>();
+
+    /**
+     * Close every socket the fake servers opened
+     */
+    @AfterEach
+    void closeSockets() throws Exception {
+        for (AutoCloseable socket : m_sockets) {
+            socket.close();
+        }
+    }
+
+    /**
+     * A server that accepts a connection and then never answers is marked down by the health checks, and its files go
+     * to the server that still answers
+     */
+    @Test
+    void movesFilesOffServerThatStopsAnswering() throws Exception {
+        ServerSocket answering = listen(true);
+        ServerSocket silent = listen(false);
+        ClientConnection[] connections = {
+                new ClientConnection("localhost", answering.getLocalPort(), 100, 1000, 0),
+                new ClientConnection("localhost", answering.getLocalPort(), 100, 1000, 1),
+                new ClientConnection("localhost", silent.getLocalPort(), 100, 1000, 2),
+                new ClientConnection("localhost", silent.getLocalPort(), 100, 1000, 3)};
+        for (ClientConnection connection : connections) {
+            connection.connect();
+        }
+        // let the silent server's connections stay open but refuse any new one
+        Thread.sleep(200);
+        silent.close();
+        ClientNetworkManager manager = new ClientNetworkManager(connections, new String[]{"answering", "silent"}, 16, false, 100);
+
+        // one ping waits up to 5 s for a reply, and the other connection is dropped without waiting again
+        long deadline = System.currentTimeMillis() + 8000;
+        while ((connections[2].isConnected() || connections[3].isConnected()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertFalse(connections[2].isConnected());
+        assertFalse(connections[3].isConnected());
+        assertTrue(connections[0].isConnected());
+        assertTrue(connections[1].isConnected());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, manager.getServer("file" + i + ".properties"));
+        }
+    }
+
+    /**
+     * Start a fake server on a free port that accepts connections and exchanges stream headers
+     *
+     * @param answer whether to answer pings, or read them and say nothing
+     * @return the listening socket
+     */
+    private ServerSocket listen(boolean answer) throws IOException {
+        ServerSocket listener = new ServerSocket(0);
+        m_sockets.add(listener);
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = listener.accept();
+                    m_sockets.add(socket);
+                    Thread reader = new Thread(() -> serve(socket, answer), "fake-server");
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "fake-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return listener;
+    }
+
+    /**
+     * Read messages from a client until it goes away, answering pings if asked to
+     *
+     * @param socket the client's socket
+     * @param answer whether to answer pings
+     */
+    private static void serve(Socket socket, boolean answer) {
+        try {
+            ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.flush();
+            ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
+            while (true) {
+                Object message = input.readObject();
+                if (answer && message instanceof PingMessage) {
+                    output.writeObject(new PingMessage());
+                    output.flush();
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            // the client went away
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for FileReadinessDetector: waiting out the quiet period, files that disappear, and actions that depend on a
+ * file being ready
+ *
+ * @author Howard Pearce
+ */
+class FileReadinessDetectorTest {
+    /**
+     * How long a file must go unchanged in these tests, in ms
+     */
+    private static final long QUIET_PERIOD = 100;
+    /**
+     * Holds the files being checked
+     */
+    @TempDir
+    Path m_directory;
+
+    /**
+     * A file written long ago is ready on the first check, and a fresh one only once it stops changing
+     */
+    @Test
+    void waitsForQuietPeriod() throws Exception {
+        FileReadinessDetector detector = new FileReadinessDetector(QUIET_PERIOD);
+        Path old = Files.writeString(m_directory.resolve("old.properties"), "a=1\n");
+        Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        assertEquals(old.toString(), detector.awaitReady(old.toString()).get(5, TimeUnit.SECONDS));
+
+        Path fresh = Files.writeString(m_directory.resolve("fresh.properties"), "a=1\n");
+        long start = System.nanoTime();
+        detector.awaitReady(fresh.toString()).get(5, TimeUnit.SECONDS);
+        assertFalse(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < QUIET_PERIOD, "ready before the quiet period");
+    }
+
+    /**
+     * Repeated requests for a file share one check, and a file that is gone fails its future
+     */
+    @Test
+    void sharesChecksAndFailsMissingFiles() throws IOException {
+        FileReadinessDetector detector = new FileReadinessDetector(QUIET_PERIOD);
+        Path file = Files.writeString(m_directory.resolve("app.properties"), "a=1\n");
+        assertSame(detector.awaitReady(file.toString()), detector.awaitReady(file.toString()));
+
+        CompletableFuture<String> missing = detector.awaitReady(m_directory.resolve("missing.properties").toString());
+        assertThrows(ExecutionException.class, () -> missing.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * An action waiting on a ready file runs off the checking thread, so one that blocks leaves the checks running, and
+     * files checked in the meantime are handed on once it unblocks
+     */
+    @Test
+    void blockedActionDoesNotStopChecks() throws Exception {
+        FileReadinessDetector detector = new FileReadinessDetector(QUIET_PERIOD);
+        Path first = Files.writeString(m_directory.resolve("first.properties"), "a=1\n");
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> thread = new CompletableFuture<>();
+        detector.awaitReady(first.toString()).thenAccept(path -> {
+            thread.complete(Thread.currentThread().getName());
+            try {
+                // like a full read stage refusing the file
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertNotEquals("readiness", thread.get(5, TimeUnit.SECONDS));
+
+        Path second = Files.writeString(m_directory.resolve("second.properties"), "a=1\n");
+        CompletableFuture<String> secondReady = detector.awaitReady(second.toString());
+        // long enough for the check and its quiet period to pass while the action is blocked
+        Thread.sleep(QUIET_PERIOD * 3);
+        release.countDown();
+        assertEquals(second.toString(), secondReady.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,120 @@
+package com.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for FileSpool: draining in order across segments and restarts, bounding each read by size, and getting past
+ * damaged records
+ *
+ * @author Howard Pearce
+ */
+class FileSpoolTest {
+    /**
+     * Holds the spool's segments and index
+     */
+    @TempDir
+    Path m_directory;
+
+    /**
+     * Messages come out in the order they went in, across several segments, and only committed ones are removed
+     */
+    @Test
+    void drainsInOrderAcrossSegments() throws IOException {
+        FileSpool spool = new FileSpool(m_directory.toString(), 200);
+        for (int i = 0; i < 20; i++) {
+            spool.append("message " + i);
+        }
+        assertTrue(segments().size() > 1, "small segments should roll");
+
+        List<Object> drained = new ArrayList<>();
+        while (!spool.isEmpty()) {
+            List<Object> batch = spool.peek(Long.MAX_VALUE);
+            // deliver all but the last of each batch, which comes back on the next peek
+            int delivered = Math.max(1, batch.size() - 1);
+            drained.addAll(batch.subList(0, delivered));
+            spool.commit(delivered);
+        }
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add("message " + i);
+        }
+        assertEquals(expected, drained);
+    }
+
+    /**
+     * A reopened spool carries on from the last commit
+     */
+    @Test
+    void resumesAfterRestart() throws IOException {
+        FileSpool spool = new FileSpool(m_directory.toString(), 1 << 20);
+        spool.append("first");
+        spool.append("second");
+        spool.peek(Long.MAX_VALUE);
+        spool.commit(1);
+
+        FileSpool reopened = new FileSpool(m_directory.toString(), 1 << 20);
+        assertEquals(List.of("second"), reopened.peek(Long.MAX_VALUE));
+    }
+
+    /**
+     * A read stops once it has the requested number of bytes, but always returns at least one message
+     */
+    @Test
+    void boundsEachReadBySize() throws IOException {
+        FileSpool spool = new FileSpool(m_directory.toString(), 1 << 20);
+        String large = "x".repeat(10000);
+        for (int i = 0; i < 10; i++) {
+            spool.append(large);
+        }
+        assertEquals(1, spool.peek(1).size());
+        assertEquals(3, spool.peek(25000).size());
+    }
+
+    /**
+     * A record whose length runs past the end of its segment is treated as the end of the data, and new messages are
+     * still delivered
+     */
+    @Test
+    void skipsDamagedLength() throws IOException {
+        FileSpool spool = new FileSpool(m_directory.toString(), 1 << 20);
+        spool.append("intact");
+        Path segment = segments().get(0);
+        long damagedAt = Files.size(segment);
+        spool.append("damaged");
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(damagedAt);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+
+        assertEquals(List.of("intact"), spool.peek(Long.MAX_VALUE));
+        spool.commit(1);
+        assertTrue(spool.peek(Long.MAX_VALUE).isEmpty());
+        spool.append("after");
+        assertFalse(spool.isEmpty());
+        assertEquals(List.of("after"), spool.peek(Long.MAX_VALUE));
+    }
+
+    /**
+     * Get the spool's segment files, oldest first
+     *
+     * @return paths of the segments
+     */
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(m_directory)) {
+            return files.filter(path -> path.toString().endsWith(".seg")).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.client;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for HashRing: spreading names, moving as few as possible when servers change, and failing over
+ *
+ * @author Howard Pearce
+ */
+class HashRingTest {
+    /**
+     * Servers used by every test
+     */
+    private static final String[] SERVERS = {"alpha:9950", "beta:9950", "gamma:9950"};
+    /**
+     * Number of names to place
+     */
+    private static final int NAMES = 3000;
+
+    /**
+     * Every server gets a fair share of names, and a name always lands on the same server
+     */
+    @Test
+    void spreadsNamesEvenly() {
+        HashRing ring = new HashRing(SERVERS, 160);
+        int[] counts = new int[SERVERS.length];
+        for (int i = 0; i < NAMES; i++) {
+            int server = ring.getServer("file" + i + ".properties", s -> true);
+            assertEquals(server, new HashRing(SERVERS, 160).getServer("file" + i + ".properties", s -> true));
+            counts[server]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > NAMES / 5 && count < NAMES / 2, "uneven spread " + count);
+        }
+    }
+
+    /**
+     * Adding a server only takes names for itself, leaving every other name where it was
+     */
+    @Test
+    void addingServerOnlyMovesItsOwnNames() {
+        HashRing before = new HashRing(new String[]{SERVERS[0], SERVERS[1]}, 160);
+        HashRing after = new HashRing(SERVERS, 160);
+        for (int i = 0; i < NAMES; i++) {
+            String name = "file" + i + ".properties";
+            int server = after.getServer(name, s -> true);
+            if (server != 2) {
+                assertEquals(before.getServer(name, s -> true), server, name);
+            }
+        }
+    }
+
+    /**
+     * Names of a server that is down go to servers that are up, names of other servers stay put, and with every server
+     * down names stay with their owner
+     */
+    @Test
+    void failsOverToNextServerThatIsUp() {
+        HashRing ring = new HashRing(SERVERS, 160);
+        int moved = 0;
+        for (int i = 0; i < NAMES; i++) {
+            String name = "file" + i + ".properties";
+            int owner = ring.getServer(name, s -> true);
+            int failover = ring.getServer(name, s -> s != 1);
+            if (owner == 1) {
+                assertNotEquals(1, failover);
+                moved++;
+            } else {
+                assertEquals(owner, failover);
+            }
+            assertEquals(owner, ring.getServer(name, s -> false));
+            int onlyGamma = ring.getServer(name, s -> s == 2);
+            assertEquals(2, onlyGamma);
+        }
+        assertTrue(moved > 0);
+    }
+}
@@ -0,0 +1,97 @@
+package com.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for PipelineStage: processing on several threads, surviving a failing handler, and processing in a given order.
+ * Each test uses its own stage name, since the stage's metrics are kept by name for the life of the process.
+ *
+ * @author Howard Pearce
+ */
+class PipelineStageTest {
+    /**
+     * Every submitted item is processed once, and counted
+     */
+    @Test
+    void processesEveryItem() throws InterruptedException {
+        int items = 1000;
+        CountDownLatch done = new CountDownLatch(items);
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        PipelineStage<Integer> stage = new PipelineStage<>("test-every", 4, 8, item -> {
+            processed.add(item);
+            done.countDown();
+        });
+        for (int i = 0; i < items; i++) {
+            assertTrue(stage.submit(i));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(items, processed.size());
+        assertEquals(items, processed.stream().distinct().count());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stage.getProcessedCount() < items && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(items, stage.getProcessedCount());
+    }
+
+    /**
+     * A handler that throws is logged and the stage carries on with the next item
+     */
+    @Test
+    void survivesFailingHandler() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        PipelineStage<Integer> stage = new PipelineStage<>("test-failing", 1, 4, item -> {
+            if (item == 0) {
+                throw new IllegalStateException("broken item");
+            }
+            done.countDown();
+        });
+        stage.submit(0);
+        stage.submit(1);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Items waiting in an ordered stage are taken in that order rather than the order they were submitted
+     */
+    @Test
+    void takesItemsInGivenOrder() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        PipelineStage<Integer> stage = new PipelineStage<>("test-ordered", 1, 8, Comparator.reverseOrder(), item -> {
+            if (item == 0) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                processed.add(item);
+            }
+            done.countDown();
+        });
+        // hold the only thread so the rest of the items wait in the queue together
+        stage.submit(0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        stage.submit(2);
+        stage.submit(3);
+        stage.submit(1);
+        assertEquals(3, stage.getQueueDepth());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(3, 2, 1), processed);
+    }
+}
@@ -0,0 +1,101 @@
+package com.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for PollingWatchService: reporting creations, modifications and deletions found by listing, and leaving out
+ * what was there before registration
+ *
+ * @author Howard Pearce
+ */
+class PollingWatchServiceTest {
+    /**
+     * The directory being watched
+     */
+    @TempDir
+    Path m_directory;
+    /**
+     * The service under test, polling quickly
+     */
+    private PollingWatchService m_service;
+
+    /**
+     * Start a service that polls every 20 to 100 ms
+     */
+    @BeforeEach
+    void startService() {
+        m_service = new PollingWatchService(20, 100);
+    }
+
+    /**
+     * Stop polling
+     */
+    @AfterEach
+    void closeService() {
+        m_service.close();
+    }
+
+    /**
+     * New files are reported as created, and files already there when the directory was registered are not
+     */
+    @Test
+    void reportsOnlyNewFiles() throws IOException, InterruptedException {
+        Files.writeString(m_directory.resolve("before.properties"), "a=1\n");
+        WatchKey key = m_service.register(m_directory, StandardWatchEventKinds.ENTRY_CREATE);
+        Files.writeString(m_directory.resolve("after.properties"), "a=1\n");
+
+        List<String> events = takeEvents(key);
+        assertEquals(List.of("ENTRY_CREATE after.properties"), events);
+    }
+
+    /**
+     * A file whose size changes is reported as modified, and a removed file as deleted
+     */
+    @Test
+    void reportsModificationsAndDeletions() throws IOException, InterruptedException {
+        Path file = Files.writeString(m_directory.resolve("app.properties"), "a=1\n");
+        WatchKey key = m_service.register(m_directory, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+        Files.writeString(file, "a=1\nb=2\n");
+        assertEquals(List.of("ENTRY_MODIFY app.properties"), takeEvents(key));
+
+        Files.delete(file);
+        assertEquals(List.of("ENTRY_DELETE app.properties"), takeEvents(key));
+    }
+
+    /**
+     * Wait for the key to be signalled, then take its events and reset it
+     *
+     * @param key the key to wait for
+     * @return each event as its kind and the entry's name
+     */
+    private List<String> takeEvents(WatchKey key) throws InterruptedException {
+        WatchKey signalled = m_service.poll(5, TimeUnit.SECONDS);
+        assertNotNull(signalled, "no events within 5 s");
+        assertEquals(key, signalled);
+        List<String> events = new ArrayList<>();
+        for (WatchEvent<?> event : signalled.pollEvents()) {
+            events.add(event.kind().name() + " " + event.context());
+        }
+        assertTrue(signalled.reset());
+        return events;
+    }
+}
@@ -0,0 +1,81 @@
+package com.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for ProcessingJournal: replaying delivered files after a restart, recovering from a record cut short, and
+ * compaction
+ *
+ * @author Howard Pearce
+ */
+class ProcessingJournalTest {
+    /**
+     * Holds the journal file
+     */
+    @TempDir
+    Path m_directory;
+
+    /**
+     * Only files that were delivered and not yet deleted are reported after a restart
+     */
+    @Test
+    void replaysDeliveredFiles() throws IOException {
+        String path = m_directory.resolve("journal").toString();
+        ProcessingJournal journal = new ProcessingJournal(path, 1000);
+        journal.record(ProcessingJournal.State.DETECTED, "/client/read.properties", 1);
+        journal.record(ProcessingJournal.State.SENT, "/client/sent.properties", 2);
+        journal.record(ProcessingJournal.State.ACKED, "/client/acked.properties", 3);
+        journal.record(ProcessingJournal.State.ACKED, "/client/deleted.properties", 4);
+        journal.record(ProcessingJournal.State.DELETED, "/client/deleted.properties", 4);
+        assertEquals(Map.of("/client/acked.properties", 3L), journal.getAcknowledged());
+
+        ProcessingJournal reopened = new ProcessingJournal(path, 1000);
+        assertEquals(Map.of("/client/acked.properties", 3L), reopened.getAcknowledged());
+        reopened.forget("/client/acked.properties");
+        assertTrue(reopened.getAcknowledged().isEmpty());
+    }
+
+    /**
+     * A record cut short by a crash ends the replay, keeping everything before it
+     */
+    @Test
+    void ignoresRecordCutShort() throws IOException {
+        Path path = m_directory.resolve("journal");
+        ProcessingJournal journal = new ProcessingJournal(path.toString(), 1000);
+        journal.record(ProcessingJournal.State.ACKED, "/client/a.properties", 1);
+        long intact = Files.size(path);
+        journal.record(ProcessingJournal.State.ACKED, "/client/b.properties", 2);
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(intact + 5);
+        }
+
+        assertEquals(Map.of("/client/a.properties", 1L), new ProcessingJournal(path.toString(), 1000).getAcknowledged());
+    }
+
+    /**
+     * Once most records are stale the journal is rewritten with only the files still in progress
+     */
+    @Test
+    void compactsStaleRecords() throws IOException {
+        Path path = m_directory.resolve("journal");
+        ProcessingJournal journal = new ProcessingJournal(path.toString(), 50);
+        for (int i = 0; i < 1000; i++) {
+            String file = "/client/file" + i + ".properties";
+            journal.record(ProcessingJournal.State.ACKED, file, i);
+            journal.record(ProcessingJournal.State.DELETED, file, i);
+        }
+        journal.record(ProcessingJournal.State.ACKED, "/client/last.properties", 7);
+        assertTrue(Files.size(path) < 100 * 40, "journal holds " + Files.size(path) + " byte(s)");
+        assertEquals(Map.of("/client/last.properties", 7L), new ProcessingJournal(path.toString(), 50).getAcknowledged());
+    }
+}
@@ -0,0 +1,59 @@
+package com.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for SnapshotCache: swapping in what is about to be sent, forgetting failed files, and the capacity bound
+ *
+ * @author Howard Pearce
+ */
+class SnapshotCacheTest {
+    /**
+     * Swapping returns what was recorded before, and keeps a copy the caller cannot change afterwards
+     */
+    @Test
+    void swapReturnsPreviousSnapshot() {
+        SnapshotCache cache = new SnapshotCache(10);
+        HashMap<String, String> first = new HashMap<>(Map.of("a=", "1"));
+        assertNull(cache.swap("/client/app.properties", first, 0));
+        first.put("a=", "changed after sending");
+
+        SnapshotCache.Snapshot previous = cache.swap("/client/app.properties", Map.of("a=", "2"), 1);
+        assertEquals(Map.of("a=", "1"), previous.contents());
+        assertEquals(0, previous.server());
+        assertEquals(1, cache.get("/client/app.properties").server());
+    }
+
+    /**
+     * A removed file is sent in full next time
+     */
+    @Test
+    void removeForgetsFile() {
+        SnapshotCache cache = new SnapshotCache(10);
+        cache.swap("/client/app.properties", Map.of("a=", "1"), 0);
+        cache.remove("/client/app.properties");
+        assertNull(cache.get("/client/app.properties"));
+    }
+
+    /**
+     * Over capacity, the least recently used file is forgotten first
+     */
+    @Test
+    void forgetsLeastRecentlyUsed() {
+        SnapshotCache cache = new SnapshotCache(2);
+        cache.swap("a", Map.of(), 0);
+        cache.swap("b", Map.of(), 0);
+        cache.get("a");
+        cache.swap("c", Map.of(), 0);
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+}
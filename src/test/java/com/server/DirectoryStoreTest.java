@@ -0,0 +1,89 @@
+package com.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for DirectoryStore and the StoredNameIndex it looks names up in, with files spread over shard directories
+ *
+ * @author Howard Pearce
+ */
+class DirectoryStoreTest {
+    /**
+     * The directory files are stored in
+     */
+    @TempDir
+    Path m_root;
+
+    /**
+     * Files are written two shard directories down, and a store opened later finds every one of them through its
+     * index
+     */
+    @Test
+    void findsShardedFilesAfterReopening() throws IOException {
+        DirectoryStore store = new DirectoryStore(m_root, 2, 4);
+        for (int i = 0; i < 50; i++) {
+            store.create("file" + i + ".properties", "value=" + i + "\n");
+        }
+        try (Stream<Path> files = Files.walk(m_root)) {
+            files.filter(Files::isRegularFile).forEach(file -> assertEquals(3, m_root.relativize(file).getNameCount()));
+        }
+
+        DirectoryStore reopened = new DirectoryStore(m_root, 2, 4);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(reopened.exists("file" + i + ".properties"));
+            assertEquals("value=" + i + "\n", reopened.read("file" + i + ".properties"));
+        }
+        assertFalse(reopened.exists("file50.properties"));
+        assertNull(reopened.read("file50.properties"));
+    }
+
+    /**
+     * A file removed by something other than the store is no longer reported as stored
+     */
+    @Test
+    void confirmsIndexedNamesOnDisk() throws IOException {
+        DirectoryStore store = new DirectoryStore(m_root, 1, 1);
+        store.create("gone.properties", "a=1\n");
+        try (Stream<Path> files = Files.walk(m_root)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                Files.delete(file);
+            }
+        }
+        assertFalse(store.exists("gone.properties"));
+        store.create("gone.properties", "a=2\n");
+        assertEquals("a=2\n", store.read("gone.properties"));
+    }
+
+    /**
+     * Names found by walking the tree are the names files were stored under, and files left behind by an unfinished
+     * replacement are skipped
+     */
+    @Test
+    void listsStoredNames() throws IOException {
+        DirectoryStore store = new DirectoryStore(m_root, 2, 2);
+        store.create("one.properties", "a=1\n");
+        store.create("sub/two.properties", "b=2\n");
+        Files.writeString(m_root.resolve("stray.tmp"), "partial");
+        Map<String, String> found = new HashMap<>();
+        store.forEachChangedSince(Long.MIN_VALUE, found::put);
+        assertEquals(Map.of("one.properties", "a=1\n", "sub/two.properties", "b=2\n"), found);
+
+        StoredNameIndex index = new StoredNameIndex(m_root, 2, 2);
+        assertTrue(index.contains("one.properties"));
+        assertTrue(index.contains("sub/two.properties"));
+        assertFalse(index.contains("stray.tmp"));
+    }
+}
@@ -0,0 +1,213 @@
+package com.server;
+
+import com.utils.Files.PropertiesFile.PropertiesDelta;
+import com.utils.Files.PropertiesFile.PropertiesFile;
+import com.utils.Files.PropertiesFile.PropertiesParser;
+import com.utils.Files.PropertiesFile.RegexFilter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for FileRouter: matching rules on file names and keys, filtering, and sending deltas after their file
+ *
+ * @author Howard Pearce
+ */
+class FileRouterTest {
+    /**
+     * Holds a directory for every destination
+     */
+    @TempDir
+    Path m_directory;
+    /**
+     * Store of the default destination
+     */
+    private DirectoryStore m_defaultStore;
+    /**
+     * Store of the destination for files named alert-*
+     */
+    private DirectoryStore m_alertStore;
+    /**
+     * Store of the destination for files with a severity key
+     */
+    private DirectoryStore m_severityStore;
+    /**
+     * The router under test
+     */
+    private FileRouter m_router;
+
+    /**
+     * Route files named alert-* to one directory, and files with a severity key to another keeping only severity and
+     * host keys, remembering the routes of 100 files
+     */
+    @BeforeEach
+    void createRouter() throws IOException {
+        PersistedHashIndex hashIndex = new PersistedHashIndex(100);
+        m_defaultStore = store("default");
+        m_alertStore = store("alerts");
+        m_severityStore = store("severity");
+        m_router = new FileRouter(destination("default", m_defaultStore, hashIndex), hashIndex, 2, 100);
+        m_router.addRoute("alerts", "alert-.*", null, null, destination("alerts", m_alertStore, hashIndex));
+        m_router.addRoute("severity", null, "severity.*", new RegexFilter("severity.*|host.*"),
+                destination("severity", m_severityStore, hashIndex));
+    }
+
+    /**
+     * Close every destination
+     */
+    @AfterEach
+    void closeRouter() {
+        m_router.close();
+    }
+
+    /**
+     * Files go to every destination whose rule matches, and only to the default destination when none do
+     */
+    @Test
+    void routesByNameAndKey() throws IOException {
+        m_router.writeFile(file("plain.properties", "a=1\n"));
+        m_router.writeFile(file("alert-1.properties", "a=1\n"));
+        m_router.writeFile(file("alert-2.properties", "severity=high\nhost=web\nother=x\n"));
+
+        assertEquals("a=1\n", m_defaultStore.read("plain.properties"));
+        assertFalse(m_alertStore.exists("plain.properties"));
+        assertEquals("a=1\n", m_alertStore.read("alert-1.properties"));
+        assertFalse(m_defaultStore.exists("alert-1.properties"));
+        assertFalse(m_severityStore.exists("alert-1.properties"));
+        assertTrue(m_alertStore.exists("alert-2.properties"));
+        assertEquals(Set.of("severity=", "host="), parse(m_severityStore.read("alert-2.properties")).keySet());
+        assertFalse(m_defaultStore.exists("alert-2.properties"));
+    }
+
+    /**
+     * A file the filter leaves empty is not written, and does not fall back to the default destination
+     */
+    @Test
+    void skipsFilesFilteredToNothing() throws IOException {
+        PersistedHashIndex hashIndex = new PersistedHashIndex(100);
+        DirectoryStore nothing = store("nothing");
+        m_router.addRoute("nothing", "empty-.*", null, new RegexFilter("never"), destination("nothing", nothing, hashIndex));
+        m_router.writeFile(file("empty-1.properties", "a=1\n"));
+        assertFalse(nothing.exists("empty-1.properties"));
+        assertFalse(m_defaultStore.exists("empty-1.properties"));
+    }
+
+    /**
+     * A delta that does not touch the key its file was routed on still goes where the file went
+     */
+    @Test
+    void sendsDeltasAfterTheirFile() throws IOException {
+        m_router.writeFile(file("app.properties", "severity=low\nhost=db\n"));
+        HashMap<String, String> changed = new HashMap<>();
+        changed.put("host=", "cache");
+        m_router.applyDelta(new PropertiesDelta("app.properties", changed, new HashSet<>(), false));
+
+        assertEquals("cache", parse(m_severityStore.read("app.properties")).get("host="));
+        assertNull(m_defaultStore.read("app.properties"));
+    }
+
+    /**
+     * A delta replacing the whole file is matched against its own keys, so the file can move
+     */
+    @Test
+    void routesReplacingDeltasByTheirKeys() throws IOException {
+        m_router.writeFile(file("app.properties", "severity=low\n"));
+        HashMap<String, String> changed = new HashMap<>();
+        changed.put("a=", "1");
+        m_router.applyDelta(new PropertiesDelta("app.properties", changed, new HashSet<>(), true));
+        assertEquals("a=1\n", m_defaultStore.read("app.properties"));
+
+        HashMap<String, String> more = new HashMap<>();
+        more.put("b=", "2");
+        m_router.applyDelta(new PropertiesDelta("app.properties", more, new HashSet<>(), false));
+        assertEquals(Set.of("a=", "b="), parse(m_defaultStore.read("app.properties")).keySet());
+    }
+
+    /**
+     * Only the most recently seen files are remembered, and a delta to a forgotten file is routed by the keys it changes
+     */
+    @Test
+    void forgetsLeastRecentlySeenFiles() throws IOException {
+        m_router.writeFile(file("kept.properties", "severity=low\nhost=db\n"));
+        m_router.writeFile(file("forgotten.properties", "severity=low\nhost=db\n"));
+        m_router.applyDelta(delta("kept.properties", "host=", "web"));
+        for (int i = 0; i < 99; i++) {
+            m_router.writeFile(file("plain" + i + ".properties", "a=1\n"));
+        }
+
+        m_router.applyDelta(delta("kept.properties", "host=", "cache"));
+        m_router.applyDelta(delta("forgotten.properties", "host=", "cache"));
+        assertEquals("cache", parse(m_severityStore.read("kept.properties")).get("host="));
+        assertEquals("db", parse(m_severityStore.read("forgotten.properties")).get("host="));
+    }
+
+    /**
+     * Create a delta changing a single key
+     *
+     * @param name  name of the file
+     * @param key   the key
+     * @param value its new value
+     * @return the delta
+     */
+    private static PropertiesDelta delta(String name, String key, String value) {
+        HashMap<String, String> changed = new HashMap<>();
+        changed.put(key, value);
+        return new PropertiesDelta(name, changed, new HashSet<>(), false);
+    }
+
+    /**
+     * Open an empty store in a new directory
+     *
+     * @param name name of the directory
+     * @return the store
+     */
+    private DirectoryStore store(String name) throws IOException {
+        return new DirectoryStore(Files.createDirectories(m_directory.resolve(name)), 0, 1);
+    }
+
+    /**
+     * Create a destination that refuses files already stored
+     *
+     * @param name      name of its directory
+     * @param store     its store
+     * @param hashIndex hashes of recently written files
+     * @return the destination
+     */
+    private ServerDirectoryManager destination(String name, PropertiesStore store, PersistedHashIndex hashIndex) {
+        return new ServerDirectoryManager(m_directory.resolve(name).toString(), store, hashIndex, null, null, 0);
+    }
+
+    /**
+     * Create a received file
+     *
+     * @param name name of the file
+     * @param text its contents
+     * @return the file
+     */
+    private static PropertiesFile file(String name, String text) throws IOException {
+        return new PropertiesFile(parse(text), "/client/" + name);
+    }
+
+    /**
+     * Parse properties text as the server does
+     *
+     * @param text the text
+     * @return keys and values
+     */
+    private static HashMap<String, String> parse(String text) throws IOException {
+        return new PropertiesParser(text).parse();
+    }
+}
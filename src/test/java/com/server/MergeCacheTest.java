@@ -0,0 +1,103 @@
+package com.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for MergeCache: loading from the store, least recently used eviction and flushing
+ *
+ * @author Howard Pearce
+ */
+class MergeCacheTest {
+    /**
+     * The least recently used file is written back when the cache goes over capacity, and the rest wait for a flush
+     */
+    @Test
+    void evictsLeastRecentlyUsed() throws IOException {
+        MemoryStore store = new MemoryStore();
+        MergeCache cache = new MergeCache(store, 2);
+        cache.edit("a").put("a=", "1");
+        cache.edit("b").put("b=", "2");
+        // touching a makes b the least recently used
+        cache.edit("a").put("a=", "3");
+        cache.edit("c").put("c=", "4");
+        assertEquals(List.of("b"), store.m_writes);
+        assertEquals("b=2\n", store.m_files.get("b"));
+
+        cache.flush();
+        assertEquals(3, store.m_writes.size());
+        assertEquals("a=3\n", store.m_files.get("a"));
+        assertEquals("c=4\n", store.m_files.get("c"));
+    }
+
+    /**
+     * A file not in the cache is loaded from the store before being changed, and a flush only writes changed files
+     */
+    @Test
+    void mergesOntoStoredFile() throws IOException {
+        MemoryStore store = new MemoryStore();
+        store.m_files.put("a", "x=1\ny=2\n");
+        MergeCache cache = new MergeCache(store, 10);
+        Map<String, String> contents = cache.edit("a");
+        assertEquals("1", contents.get("x="));
+        contents.put("y=", "3");
+        cache.flush();
+        cache.flush();
+        assertEquals(List.of("a"), store.m_writes);
+        String written = store.m_files.get("a");
+        assertTrue(written.contains("x=1\n") && written.contains("y=3\n"), written);
+    }
+
+    /**
+     * Store kept in memory that records every write
+     */
+    private static class MemoryStore implements PropertiesStore {
+        /**
+         * Contents of every file, by name
+         */
+        final Map<String, String> m_files = new HashMap<>();
+        /**
+         * Names written, in order
+         */
+        final List<String> m_writes = new ArrayList<>();
+
+        @Override
+        public boolean exists(String name) {
+            return m_files.containsKey(name);
+        }
+
+        @Override
+        public void create(String name, String contents) {
+            replace(name, contents);
+        }
+
+        @Override
+        public void replace(String name, String contents) {
+            m_files.put(name, contents);
+            m_writes.add(name);
+        }
+
+        @Override
+        public String read(String name) {
+            return m_files.get(name);
+        }
+
+        @Override
+        public void forEachChangedSince(long since, BiConsumer<String, String> consumer) {
+            m_files.forEach(consumer);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
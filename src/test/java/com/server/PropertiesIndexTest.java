@@ -0,0 +1,131 @@
+package com.server;
+
+import com.utils.Files.PropertiesFile.PropertiesParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for PropertiesIndex: answering queries, checkpointing and loading the checkpoint again
+ *
+ * @author Howard Pearce
+ */
+class PropertiesIndexTest {
+    /**
+     * Holds the store and the checkpoint
+     */
+    @TempDir
+    Path m_directory;
+
+    /**
+     * Queries follow files as they are stored and replaced
+     */
+    @Test
+    void answersQueries() throws IOException {
+        PropertiesIndex index = new PropertiesIndex(m_directory.resolve("index"), emptyStore(), 0);
+        index.update("a.properties", parse("host=alpha\nport=1\n"));
+        index.update("b.properties", parse("host=beta\n"));
+        assertEquals(2, index.countFiles("host"));
+        assertEquals(List.of("a.properties", "b.properties"), index.getFiles("host", 10));
+        assertEquals(List.of("a.properties"), index.getFiles("host", 1));
+        assertEquals(Map.entry("b.properties", "beta"), index.getLatest("host"));
+
+        index.update("a.properties", parse("port=2\n"));
+        assertEquals(List.of("b.properties"), index.getFiles("host", 10));
+        assertEquals(Map.entry("a.properties", "2"), index.getLatest("port"));
+        assertEquals(0, index.countFiles("missing"));
+        assertNull(index.getLatest("missing"));
+    }
+
+    /**
+     * A checkpoint loaded by a new index answers the same as the index it was taken from
+     */
+    @Test
+    void reloadsCheckpoint() throws IOException {
+        Path checkpoint = m_directory.resolve("index");
+        PropertiesIndex index = new PropertiesIndex(checkpoint, emptyStore(), 0);
+        for (int i = 0; i < 100; i++) {
+            index.update("file" + i + ".properties", parse("shared=" + i + "\nkey" + i + "=x\n"));
+        }
+        index.update("file0.properties", parse("other=y\n"));
+        index.checkpoint();
+
+        PropertiesIndex reloaded = new PropertiesIndex(checkpoint, emptyStore(), 0);
+        assertArrayEquals(index.getCounts(), reloaded.getCounts());
+        assertEquals(99, reloaded.countFiles("shared"));
+        assertEquals(index.getFiles("shared", 200), reloaded.getFiles("shared", 200));
+        assertEquals(Map.entry("file99.properties", "99"), reloaded.getLatest("shared"));
+        assertEquals(Map.entry("file0.properties", "y"), reloaded.getLatest("other"));
+        assertEquals(0, reloaded.countFiles("key0"));
+    }
+
+    /**
+     * A damaged checkpoint is thrown away and the index rebuilt from the store
+     */
+    @Test
+    void rebuildsFromStoreWhenCheckpointIsDamaged() throws IOException {
+        Path checkpoint = m_directory.resolve("index");
+        Files.write(checkpoint, new byte[]{0, 0, 0, 1, 0, 0});
+        DirectoryStore store = new DirectoryStore(Files.createDirectories(m_directory.resolve("store")), 0, 1);
+        store.create("a.properties", "host=alpha\n");
+        store.create("b.properties", "host=beta\n");
+
+        PropertiesIndex index = new PropertiesIndex(checkpoint, store, 0);
+        assertEquals(2, index.countFiles("host"));
+    }
+
+    /**
+     * A checkpoint whose lengths were torn is treated as damaged rather than trusted, and the index rebuilt
+     */
+    @Test
+    void rebuildsFromStoreWhenLengthIsDamaged() throws IOException {
+        Path checkpoint = m_directory.resolve("index");
+        PropertiesIndex original = new PropertiesIndex(checkpoint, emptyStore(), 0);
+        original.update("stale.properties", parse("host=stale\n"));
+        original.checkpoint();
+        DirectoryStore store = new DirectoryStore(Files.createDirectories(m_directory.resolve("store")), 0, 1);
+        store.create("a.properties", "host=alpha\n");
+
+        // the length of the first file name, after the version, time and number of files
+        for (int length : new int[]{Integer.MAX_VALUE, -1}) {
+            try (RandomAccessFile file = new RandomAccessFile(checkpoint.toFile(), "rw")) {
+                file.seek(Integer.BYTES + Long.BYTES + Integer.BYTES);
+                file.writeInt(length);
+            }
+            PropertiesIndex index = new PropertiesIndex(checkpoint, store, 0);
+            assertEquals(List.of("a.properties"), index.getFiles("host", 10));
+            // the rebuilt index writes a sound checkpoint back, so damage it again on the next pass
+            index.checkpoint();
+        }
+    }
+
+    /**
+     * Parse properties text as the server does
+     *
+     * @param text the text
+     * @return keys and values
+     */
+    private static HashMap<String, String> parse(String text) throws IOException {
+        return new PropertiesParser(text).parse();
+    }
+
+    /**
+     * Open a store with nothing in it
+     *
+     * @return the store
+     */
+    private PropertiesStore emptyStore() throws IOException {
+        return new DirectoryStore(Files.createDirectories(m_directory.resolve("empty")), 0, 1);
+    }
+}
@@ -0,0 +1,188 @@
+package com.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for SegmentLogStore: sealing segments, compacting them and recovering after a crash
+ *
+ * @author Howard Pearce
+ */
+class SegmentLogStoreTest {
+    /**
+     * Segment size small enough that a handful of records fills a segment
+     */
+    private static final long SEGMENT_SIZE = 256;
+
+    /**
+     * The directory segments are kept in
+     */
+    @TempDir
+    Path m_directory;
+
+    /**
+     * Records past the segment size seal the segment, and every name still reads back its latest record, before and
+     * after reopening
+     */
+    @Test
+    void rollsSegmentsAndKeepsLatestRecords() throws IOException {
+        Map<String, String> expected = new HashMap<>();
+        SegmentLogStore store = new SegmentLogStore(m_directory, SEGMENT_SIZE, 0, false);
+        for (int i = 0; i < 40; i++) {
+            String name = "file" + (i % 5) + ".properties";
+            String contents = "value=" + i + "\n";
+            store.replace(name, contents);
+            expected.put(name, contents);
+        }
+        assertLatest(store, expected);
+        store.close();
+        assertTrue(filesEndingWith(".idx").size() > 1, "sealed segments should have indexes");
+
+        SegmentLogStore reopened = new SegmentLogStore(m_directory, SEGMENT_SIZE, 0, false);
+        assertLatest(reopened, expected);
+        assertEquals(5, reopened.getNames().size());
+        reopened.close();
+    }
+
+    /**
+     * The compactor removes or shrinks sealed segments that only hold replaced records, without losing any name
+     */
+    @Test
+    void compactionDropsReplacedRecords() throws IOException, InterruptedException {
+        Map<String, String> expected = new HashMap<>();
+        // write with the compactor off, so nothing is reclaimed before the size is measured
+        SegmentLogStore writer = new SegmentLogStore(m_directory, SEGMENT_SIZE, 0, false);
+        for (int i = 0; i < 100; i++) {
+            String name = "file" + (i % 3) + ".properties";
+            String contents = "value=" + i + "\n";
+            writer.replace(name, contents);
+            expected.put(name, contents);
+        }
+        writer.close();
+        long before = totalSegmentBytes();
+        SegmentLogStore store = new SegmentLogStore(m_directory, SEGMENT_SIZE, 20, false);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (totalSegmentBytes() * 2 > before && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(totalSegmentBytes() * 2 <= before, "compaction should reclaim most of " + before + " byte(s)");
+        assertLatest(store, expected);
+        store.close();
+
+        SegmentLogStore reopened = new SegmentLogStore(m_directory, SEGMENT_SIZE, 0, false);
+        assertLatest(reopened, expected);
+        reopened.close();
+    }
+
+    /**
+     * A record cut short at the end of the active segment is dropped at startup, and appends carry on after the last
+     * good record
+     */
+    @Test
+    void recoversFromDamagedTail() throws IOException {
+        SegmentLogStore store = new SegmentLogStore(m_directory, 1 << 20, 0, false);
+        store.create("a.properties", "a=1\n");
+        store.create("b.properties", "b=2\n");
+        store.close();
+        // the start of a record claiming more bytes than follow it
+        Files.write(filesEndingWith(".log").get(0), new byte[]{0, 0, 0, 64, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+        SegmentLogStore recovered = new SegmentLogStore(m_directory, 1 << 20, 0, false);
+        assertEquals("a=1\n", recovered.read("a.properties"));
+        assertEquals("b=2\n", recovered.read("b.properties"));
+        recovered.create("c.properties", "c=3\n");
+        recovered.close();
+
+        SegmentLogStore reopened = new SegmentLogStore(m_directory, 1 << 20, 0, false);
+        assertEquals("a=1\n", reopened.read("a.properties"));
+        assertEquals("c=3\n", reopened.read("c.properties"));
+        assertNull(reopened.read("missing.properties"));
+        reopened.close();
+    }
+
+    /**
+     * Sealed segments whose index is missing are scanned instead
+     */
+    @Test
+    void scansSegmentsWithoutIndexes() throws IOException {
+        Map<String, String> expected = new HashMap<>();
+        SegmentLogStore store = new SegmentLogStore(m_directory, SEGMENT_SIZE, 0, false);
+        for (int i = 0; i < 20; i++) {
+            String name = "file" + i + ".properties";
+            store.create(name, "value=" + i + "\n");
+            expected.put(name, "value=" + i + "\n");
+        }
+        store.close();
+        for (Path index : filesEndingWith(".idx")) {
+            Files.delete(index);
+        }
+
+        SegmentLogStore readOnly = new SegmentLogStore(m_directory, SEGMENT_SIZE, 0, true);
+        assertLatest(readOnly, expected);
+        readOnly.close();
+        assertFalse(filesEndingWith(".idx").size() > 0, "a read-only store must not write indexes");
+    }
+
+    /**
+     * Check every name reads back the expected contents
+     *
+     * @param store    the store
+     * @param expected latest contents by name
+     * @throws IOException if a record cannot be read
+     */
+    private static void assertLatest(SegmentLogStore store, Map<String, String> expected) throws IOException {
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertTrue(store.exists(entry.getKey()));
+            assertEquals(entry.getValue(), store.read(entry.getKey()));
+        }
+    }
+
+    /**
+     * Find the files in the directory with an extension
+     *
+     * @param extension the extension
+     * @return the files, sorted by name
+     * @throws IOException if the directory cannot be listed
+     */
+    private List<Path> filesEndingWith(String extension) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(m_directory, "*" + extension)) {
+            entries.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * Add up the size of every segment
+     *
+     * @return total bytes in segment files
+     * @throws IOException if the directory cannot be listed
+     */
+    private long totalSegmentBytes() throws IOException {
+        long total = 0;
+        for (Path segment : filesEndingWith(".log")) {
+            try {
+                total += Files.size(segment);
+            } catch (IOException e) {
+                // removed by the compactor while we were listing
+            }
+        }
+        return total;
+    }
+}
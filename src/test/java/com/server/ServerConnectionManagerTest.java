@@ -0,0 +1,126 @@
+package com.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for ServerConnectionManager: many clients connecting at once, and cleaning up after a connection that cannot
+ * be started
+ *
+ * @author Howard Pearce
+ */
+class ServerConnectionManagerTest {
+    /**
+     * Number of clients connecting at once
+     */
+    private static final int CLIENTS = 50;
+    /**
+     * How long to wait for connection threads to start or exit, in ms
+     */
+    private static final long TIMEOUT = 10000;
+    /**
+     * Accepts the test clients on a free local port
+     */
+    private ServerSocket m_serverSocket;
+
+    /**
+     * Listen on a free local port
+     */
+    @BeforeEach
+    void listen() throws IOException {
+        m_serverSocket = new ServerSocket(0, CLIENTS, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Stop listening
+     */
+    @AfterEach
+    void stopListening() throws IOException {
+        m_serverSocket.close();
+    }
+
+    /**
+     * Every one of many clients connecting at once gets its own running connection, all sharing the one client's
+     * limits, and each connection is forgotten once its client goes away
+     */
+    @Test
+    void handlesManyConcurrentConnections() throws Exception {
+        ServerConnectionManager manager = new ServerConnectionManager(null, 0, 0, 1000, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+        List<Socket> clients = new ArrayList<>();
+        try {
+            List<Future<Socket>> connecting = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                connecting.add(executor.submit(() -> {
+                    Socket client = new Socket(m_serverSocket.getInetAddress(), m_serverSocket.getLocalPort());
+                    // the connection thread sends its stream header once it is running
+                    new ObjectInputStream(client.getInputStream());
+                    return client;
+                }));
+            }
+            for (int i = 0; i < CLIENTS; i++) {
+                manager.createNewConnection(m_serverSocket.accept());
+            }
+            for (Future<Socket> client : connecting) {
+                clients.add(client.get());
+            }
+            assertEquals(CLIENTS, manager.getConnections().size());
+            ClientLimiter limiter = manager.getConnections().iterator().next().getLimiter();
+            for (Connection connection : manager.getConnections()) {
+                assertTrue(connection.isAlive());
+                assertSame(limiter, connection.getLimiter(), "connections from one client share its limits");
+            }
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+            executor.shutdownNow();
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!manager.getConnections().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(manager.getConnections().isEmpty(), manager.getConnections().size() + " connection(s) left open");
+    }
+
+    /**
+     * A socket that cannot be set up is closed and does not take up a connection slot
+     */
+    @Test
+    void closesSocketThatCannotBeSetUp() throws Exception {
+        ServerConnectionManager manager = new ServerConnectionManager(null, 0, 1, 1000, 0);
+        Socket broken = new Socket() {
+            @Override
+            public void setTcpNoDelay(boolean on) throws SocketException {
+                throw new SocketException("broken");
+            }
+        };
+        assertThrows(IOException.class, () -> manager.createNewConnection(broken));
+        assertTrue(broken.isClosed());
+        assertTrue(manager.getConnections().isEmpty());
+
+        try (Socket client = new Socket(m_serverSocket.getInetAddress(), m_serverSocket.getLocalPort())) {
+            manager.createNewConnection(m_serverSocket.accept());
+            assertEquals(1, manager.getConnections().size());
+        }
+        manager.closeAllConnections();
+    }
+}
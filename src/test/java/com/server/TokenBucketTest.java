@@ -0,0 +1,54 @@
+package com.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for TokenBucket. Timings are only checked loosely, so a slow machine does not fail them.
+ *
+ * @author Howard Pearce
+ */
+class TokenBucketTest {
+    /**
+     * A new bucket holds one second's worth of tokens
+     */
+    @Test
+    void startsFull() {
+        TokenBucket bucket = new TokenBucket(1000);
+        assertEquals(0, bucket.take(1000));
+        // asks for more than could refill in the time a slow machine takes between the two calls
+        assertTrue(bucket.take(500) > 0);
+    }
+
+    /**
+     * Going into debt asks for a pause long enough to pay it back
+     */
+    @Test
+    void pausesInProportionToDebt() {
+        TokenBucket bucket = new TokenBucket(1000);
+        long pause = TimeUnit.NANOSECONDS.toMillis(bucket.take(1500));
+        assertTrue(pause > 400 && pause <= 500, "paused " + pause + " ms");
+    }
+
+    /**
+     * Tokens come back at the rate, up to one second's worth
+     */
+    @Test
+    void refillsAtRateUpToCapacity() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000);
+        bucket.take(1000);
+        Thread.sleep(300);
+        assertEquals(0, bucket.take(250));
+        assertTrue(bucket.take(500) > 0);
+
+        TokenBucket idle = new TokenBucket(100);
+        Thread.sleep(1200);
+        // a bucket left idle holds no more than it started with
+        assertEquals(0, idle.take(100));
+        assertTrue(idle.take(10) > 0);
+    }
+}
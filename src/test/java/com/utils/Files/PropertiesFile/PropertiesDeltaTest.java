@@ -0,0 +1,92 @@
+package com.utils.Files.PropertiesFile;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for PropertiesDelta: computing changes between two versions, applying them, and sending them over a stream
+ *
+ * @author Howard Pearce
+ */
+class PropertiesDeltaTest {
+    /**
+     * Only added, changed and removed keys make it into the delta, and applying it gives the new version
+     */
+    @Test
+    void holdsOnlyWhatChanged() {
+        Map<String, String> previous = Map.of("same=", "1", "changed=", "old", "removed=", "x");
+        PropertiesFile current = file(Map.of("same=", "1", "changed=", "new", "added=", "y"));
+        PropertiesDelta delta = PropertiesDelta.between(previous, current);
+
+        assertEquals(Map.of("changed=", "new", "added=", "y"), delta.getChanged());
+        assertEquals(Set.of("removed="), delta.getRemoved());
+        assertFalse(delta.isReplace());
+        assertEquals("app.properties", delta.getFileName());
+
+        HashMap<String, String> stored = new HashMap<>(previous);
+        delta.applyTo(stored);
+        assertEquals(current.getContents(), stored);
+    }
+
+    /**
+     * A file that did not change gives an empty delta, but a replacing delta is never empty
+     */
+    @Test
+    void isEmptyOnlyWhenNothingChanged() {
+        PropertiesFile unchanged = file(Map.of("a=", "1"));
+        assertTrue(PropertiesDelta.between(Map.of("a=", "1"), unchanged).isEmpty());
+        assertFalse(PropertiesDelta.replacing(file(Map.of())).isEmpty());
+    }
+
+    /**
+     * A replacing delta discards whatever the receiver held
+     */
+    @Test
+    void replacingDiscardsStoredContents() {
+        HashMap<String, String> stored = new HashMap<>(Map.of("old=", "1", "a=", "0"));
+        PropertiesDelta.replacing(file(Map.of("a=", "2"))).applyTo(stored);
+        assertEquals(Map.of("a=", "2"), stored);
+    }
+
+    /**
+     * A delta read back from a stream applies the same changes
+     */
+    @Test
+    void survivesSerialization() throws IOException, ClassNotFoundException {
+        PropertiesDelta delta = PropertiesDelta.between(Map.of("a=", "1", "b=", "2"), file(Map.of("a=", "3")));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(delta);
+        }
+        PropertiesDelta read;
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = (PropertiesDelta) input.readObject();
+        }
+        assertEquals(delta.getFileName(), read.getFileName());
+        assertEquals(delta.getChanged(), read.getChanged());
+        assertEquals(delta.getRemoved(), read.getRemoved());
+        assertEquals(delta.isReplace(), read.isReplace());
+    }
+
+    /**
+     * Create a file in a client directory
+     *
+     * @param contents its keys and values
+     * @return the file
+     */
+    private static PropertiesFile file(Map<String, String> contents) {
+        return new PropertiesFile(new HashMap<>(contents), "/client/app.properties");
+    }
+}
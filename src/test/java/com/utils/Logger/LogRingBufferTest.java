@@ -0,0 +1,95 @@
+package com.utils.Logger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for LogRingBuffer: capacity, ordering, and many threads adding at once
+ *
+ * @author Howard Pearce
+ */
+class LogRingBufferTest {
+    /**
+     * Capacity is rounded up to a power of two, and a full buffer refuses messages until one is taken
+     */
+    @Test
+    void refusesMessagesWhenFull() {
+        LogRingBuffer buffer = new LogRingBuffer(5);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(buffer.offer(Logger.Level.INFO, "message " + i, i));
+        }
+        assertFalse(buffer.offer(Logger.Level.INFO, "overflow", 8));
+        assertTrue(buffer.poll((level, message, time) -> assertEquals("message 0", message)));
+        assertTrue(buffer.offer(Logger.Level.INFO, "message 8", 8));
+        assertEquals(9, buffer.getTail());
+        assertEquals(1, buffer.getHead());
+    }
+
+    /**
+     * Messages come out in the order they went in, with their level and time
+     */
+    @Test
+    void takesMessagesInOrder() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        List<String> taken = new ArrayList<>();
+        for (int lap = 0; lap < 3; lap++) {
+            buffer.offer(Logger.Level.DEBUG, "debug " + lap, lap);
+            buffer.offer(Logger.Level.ERROR, "error " + lap, lap);
+            while (buffer.poll((level, message, time) -> taken.add(level + " " + message + " " + time))) {
+                // keep taking
+            }
+        }
+        assertEquals(List.of("DEBUG debug 0 0", "ERROR error 0 0", "DEBUG debug 1 1", "ERROR error 1 1",
+                "DEBUG debug 2 2", "ERROR error 2 2"), taken);
+        assertFalse(buffer.poll((level, message, time) -> {
+        }));
+    }
+
+    /**
+     * With several threads adding while one takes, every message is taken once and each thread's messages stay in
+     * the order it added them
+     */
+    @Test
+    void keepsEveryMessageFromManyThreads() throws InterruptedException {
+        int threads = 4;
+        int perThread = 20000;
+        LogRingBuffer buffer = new LogRingBuffer(64);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int producer = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    while (!buffer.offer(Logger.Level.INFO, producer + ":" + i, i)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            producers.add(thread);
+            thread.start();
+        }
+        int[] next = new int[threads];
+        int[] taken = new int[1];
+        long deadline = System.currentTimeMillis() + 30000;
+        while (taken[0] < threads * perThread && System.currentTimeMillis() < deadline) {
+            buffer.poll((level, message, time) -> {
+                int producer = Integer.parseInt(message.substring(0, message.indexOf(':')));
+                assertEquals(next[producer], time);
+                next[producer]++;
+                taken[0]++;
+            });
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(threads * perThread, taken[0]);
+        for (int count : next) {
+            assertEquals(perThread, count);
+        }
+    }
+}